@@ -0,0 +1,395 @@
+package com.adriantregonning.javamusic;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.softsynth.jmsl.JMSL;
+import com.softsynth.jmsl.MusicJob;
+
+/******************************************************************************
+ * <p>Compilation           : javac AdaptiveJustIntonation.java</p>
+ * <p>Dependencies          : com.softsynth.jmsl</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningTrajectory,
+ *                            com.adriantregonning.javamusic.MorphScheduler</p>
+ *
+ *  <p> Adaptive just intonation. The degrees of a base tuning that are
+ *  sounding together are retuned to just ratios above one of them, chosen
+ *  so that all the intervals in the chord are as simple as possible; the
+ *  other degrees keep their base tuning. Each interval of the base tuning
+ *  is snapped to the simplest ratio of the given prime limit within a
+ *  tolerance (20 cents by default), or left tempered if there is none.</p>
+ *
+ *  <p>The sounding chord is a bitmask of scale degrees. Retuned tables are
+ *  cached by mask, in a flat array indexed directly by the mask for scales
+ *  of up to 12 degrees (4,096 tables) or in a hashed cache for scales of up
+ *  to 63 degrees, so a chord change after the first costs a lookup.</p>
+ *
+ *  <p>The chord is either given directly (setChord()) or followed from the
+ *  notes played: noteOn() and noteOff() for held notes and, once attached
+ *  with TuningTrajectory.setAdaptiveTuning(), every note frequency lookup
+ *  (TuningTrajectory.getFrequency()) as an onset, after which a degree 
+ *  sounds for holdTime seconds. Notes only set a flag or a counter, without
+ *  locking or allocating, so they are safe on the note-playing path; the 
+ *  chord is recomputed and the target retuned by tick(), on the control 
+ *  thread. Launch the object like any other job, e.g. 
+ *  <tt>aji.launch(JMSL.now())</tt>, to tick at its control rate (100 Hz by
+ *  default). With a MorphScheduler, chord changes glide over glideTime
+ *  seconds using one of the TuningMorpher interpolators; otherwise the new
+ *  table is published at once.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class AdaptiveJustIntonation extends MusicJob {
+
+    // Largest scale with a directly indexed cache, and with a cache at all
+    private static final int DIRECT_STEPS = 12;
+    private static final int MAX_STEPS = 63;
+    private static final int HASHED_TABLES = 1024;
+
+    // Height penalty for an interval that could not be snapped
+    private static final double TEMPERED_HEIGHT = 24;
+
+    private final TuningTrajectory target;
+    private final int steps;
+    private final double[] base;
+    private final double period;
+
+    // Just ratios within one period
+    private final JustRatioIndex just;
+    private final double tolerance;
+
+    // Cached tables, flat as [slot * steps + degree]. Directly indexed
+    // slots are marked in known; hashed slots hold their mask, tagged with
+    // the top bit, in keys.
+    private final double[] tables;
+    private final long[] known;
+    private final long[] keys;
+    private int hashedCount;
+
+    // Sounding chord, by held count and by time of last onset. Onsets are
+    // handed over from the note-playing path as a bitmask of degrees.
+    private final AtomicIntegerArray held;
+    private final AtomicLong onsets = new AtomicLong();
+    private final double[] lastOnset;
+    private double holdTime = 0.5;
+    private long chord = -1;
+
+    // Transitions
+    private MorphScheduler scheduler;
+    private int curve = TuningMorpher.EXPONENTIAL;
+    private double glideTime = 0.05;
+    private final double[] current;
+    private final double[] next;
+
+    // Work space for choosing a root
+    private final int[] sounding;
+    private final int[] snapped;
+    private final int[] octaves;
+    private final int[] bestSnapped;
+    private final int[] bestOctaves;
+
+    /**
+     * Creates 5-limit adaptive just intonation over a base tuning.
+     *
+     * @param target trajectory to retune
+     * @param base   base tuning
+     */
+    public AdaptiveJustIntonation(TuningTrajectory target,
+            TuningProvider base) {
+        this(target, base.ratios(), base.period(), 5, 20);
+    }
+
+    /**
+     * Creates adaptive just intonation over a base tuning.
+     *
+     * @param target     trajectory to retune
+     * @param base       base ratios, one per degree
+     * @param period     period of the base tuning as a frequency ratio
+     * @param primeLimit largest prime allowed in just ratios
+     * @param tolerance  largest distance in cents an interval is snapped
+     */
+    public AdaptiveJustIntonation(TuningTrajectory target, double[] base,
+            double period, int primeLimit, double tolerance) {
+        steps = base.length;
+        if (steps < 1 || steps > MAX_STEPS) {
+            throw new IllegalArgumentException("Adaptive tuning supports 1 to "
+                    + MAX_STEPS + " degrees, not " + steps);
+        }
+        this.target = target;
+        this.base = base.clone();
+        this.period = period;
+        this.tolerance = tolerance;
+
+        just = new JustRatioIndex(primeLimit, period, 256);
+
+        int slots = steps <= DIRECT_STEPS ? 1 << steps : HASHED_TABLES;
+        tables = new double[slots * steps];
+        known = new long[(slots + 63) / 64];
+        keys = steps <= DIRECT_STEPS ? null : new long[slots];
+
+        held = new AtomicIntegerArray(steps);
+        lastOnset = new double[steps];
+        Arrays.fill(lastOnset, Double.NEGATIVE_INFINITY);
+        current = new double[steps];
+        next = new double[steps];
+        sounding = new int[steps];
+        snapped = new int[steps];
+        octaves = new int[steps];
+        bestSnapped = new int[steps];
+        bestOctaves = new int[steps];
+        setRepeatPause(0.01);
+        setRepeats(Integer.MAX_VALUE);
+    }
+
+    // Tenney height (log2 of n * d) of the interval between two snapped
+    // ratios, or a fixed penalty if either is tempered
+    private double height(int a, int b) {
+        if (a < 0 || b < 0) {
+            return TEMPERED_HEIGHT;
+        }
+        long n = just.getNumerator(b) * just.getDenominator(a);
+        long d = just.getDenominator(b) * just.getNumerator(a);
+        long g = JustRatioIndex.gcd(n, d);
+        return Math.log((double) (n / g) * (d / g)) / Math.log(2);
+    }
+
+    // Fills tables from offset with the base tuning retuned for a chord
+    private void retune(long mask, int offset) {
+        System.arraycopy(base, 0, tables, offset, steps);
+        int count = 0;
+        for (int i = 0; i < steps; i++) {
+            if ((mask & (1L << i)) != 0) {
+                sounding[count++] = i;
+            }
+        }
+        if (count < 2) {
+            return;
+        }
+
+        // Try each sounding degree as the root of the just chord
+        double logPeriod = Math.log(period);
+        double bestScore = Double.POSITIVE_INFINITY;
+        int bestRoot = -1;
+        for (int r = 0; r < count; r++) {
+            int root = sounding[r];
+            for (int k = 0; k < count; k++) {
+                double ratio = base[sounding[k]] / base[root];
+                int octave = (int) Math.floor(Math.log(ratio) / logPeriod);
+                octaves[k] = octave;
+                snapped[k] = just.snap(JustRatioIndex.toCents(
+                        ratio / Math.pow(period, octave)), tolerance);
+            }
+            double score = 0;
+            for (int a = 0; a < count; a++) {
+                for (int b = a + 1; b < count; b++) {
+                    score += height(snapped[a], snapped[b]);
+                }
+            }
+            if (score < bestScore) {
+                bestScore = score;
+                bestRoot = root;
+                System.arraycopy(snapped, 0, bestSnapped, 0, count);
+                System.arraycopy(octaves, 0, bestOctaves, 0, count);
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            int s = bestSnapped[k];
+            if (s >= 0) {
+                tables[offset + sounding[k]] = base[bestRoot]
+                        * just.getNumerator(s) / just.getDenominator(s)
+                        * Math.pow(period, bestOctaves[k]);
+            }
+        }
+    }
+
+    // Returns the offset in the cache of the retuned table for a chord,
+    // computing it if necessary
+    private int lookup(long mask) {
+        int slot;
+        if (keys == null) {
+            slot = (int) mask;
+        } else {
+            long key = mask | Long.MIN_VALUE;
+            slot = (int) ((mask * 0x9e3779b97f4a7c15L) >>> 54);
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & (HASHED_TABLES - 1);
+            }
+            if (keys[slot] == 0) {
+                if (hashedCount >= HASHED_TABLES / 2) {
+                    Arrays.fill(keys, 0);
+                    Arrays.fill(known, 0);
+                    hashedCount = 0;
+                    return lookup(mask);
+                }
+                keys[slot] = key;
+                hashedCount++;
+            }
+        }
+        int offset = slot * steps;
+        if ((known[slot >>> 6] & (1L << slot)) == 0) {
+            retune(mask, offset);
+            known[slot >>> 6] |= 1L << slot;
+        }
+        return offset;
+    }
+
+    /**
+     * Copies the retuned table for a chord.
+     *
+     * @param mask bitmask of sounding degrees
+     * @param out  array that receives one ratio per degree
+     */
+    public synchronized void getTable(long mask, double[] out) {
+        System.arraycopy(tables, lookup(mask & allDegrees()), out, 0, steps);
+    }
+
+    private long allDegrees() {
+        return (1L << steps) - 1;
+    }
+
+    /**
+     * Retunes the target for a chord, if it has changed.
+     *
+     * @param mask bitmask of sounding degrees
+     */
+    public synchronized void setChord(long mask) {
+        mask &= allDegrees();
+        if (mask == chord) {
+            return;
+        }
+        chord = mask;
+        System.arraycopy(tables, lookup(mask), next, 0, steps);
+        MorphScheduler s = scheduler;
+        if (s != null && glideTime > 0 && target.copyRatios(current) == steps) {
+            s.schedule(new MorphEnvelope(target, JMSL.now(), glideTime,
+                    curve, current, target.getPeriod(), next, period, 0, 1));
+        } else {
+            target.updateTable(next, period);
+        }
+    }
+
+    // Scale degree of a pitch, counted from the target's reference pitch
+    private int degreeOf(double pitch) {
+        TuningSnapshot snap = target.getSnapshot();
+        double ref = snap != null ? snap.refPitch 
+                : TuningTrajectory.Tunings.refPitch;
+        return Math.floorMod((int) Math.round(pitch - ref), steps);
+    }
+
+    /**
+     * Adds a held note to the chord at the next tick. Does not lock or 
+     * allocate.
+     *
+     * @param pitch pitch of the note
+     */
+    public void noteOn(double pitch) {
+        held.incrementAndGet(degreeOf(pitch));
+    }
+
+    /**
+     * Removes a held note from the chord at the next tick. Does not lock or
+     * allocate.
+     *
+     * @param pitch pitch of the note
+     */
+    public void noteOff(double pitch) {
+        int degree = degreeOf(pitch);
+        int count;
+        do {
+            count = held.get(degree);
+        } while (count > 0 && !held.compareAndSet(degree, count, count - 1));
+    }
+
+    /**
+     * Records a note onset without a matching note off; from the next tick
+     * the degree sounds for holdTime seconds. Called by 
+     * TuningTrajectory.getFrequency() when attached. Does not lock or 
+     * allocate.
+     *
+     * @param pitch pitch of the note
+     */
+    public void notePlayed(double pitch) {
+        long bit = 1L << degreeOf(pitch);
+        long mask;
+        do {
+            mask = onsets.get();
+            if ((mask & bit) != 0) {
+                return;
+            }
+        } while (!onsets.compareAndSet(mask, mask | bit));
+    }
+
+    /**
+     * Takes the notes played since the last tick, recomputes the sounding
+     * chord, dropping degrees whose hold time has passed, and retunes the 
+     * target if it has changed. Call from the control thread.
+     */
+    public synchronized void tick() {
+        double now = JMSL.now();
+        long played = onsets.getAndSet(0);
+        for (int i = 0; i < steps; i++) {
+            if ((played & (1L << i)) != 0) {
+                lastOnset[i] = now;
+            }
+        }
+        long mask = 0;
+        double since = now - holdTime;
+        for (int i = 0; i < steps; i++) {
+            if (held.get(i) > 0 || lastOnset[i] > since) {
+                mask |= 1L << i;
+            }
+        }
+        setChord(mask);
+    }
+
+    @Override
+    public double repeat(double playTime) throws InterruptedException {
+        tick();
+        return playTime;
+    }
+
+    /**
+     * Sets how often a launched job ticks.
+     *
+     * @param controlRate ticks per second
+     */
+    public void setControlRate(double controlRate) {
+        if (controlRate <= 0) {
+            throw new IllegalArgumentException("Invalid control rate");
+        }
+        setRepeatPause(1.0 / controlRate);
+    }
+
+    /**
+     * Sets how long a degree counts as sounding after a note onset.
+     *
+     * @param seconds hold time in seconds
+     */
+    public synchronized void setHoldTime(double seconds) {
+        holdTime = seconds;
+    }
+
+    /**
+     * Makes chord changes glide through the given scheduler.
+     *
+     * @param scheduler the scheduler, or <tt>null</tt> to retune at once
+     * @param curve     interpolation type, as in TuningMorpher
+     * @param seconds   glide time in seconds
+     */
+    public synchronized void setGlide(MorphScheduler scheduler, int curve,
+            double seconds) {
+        this.scheduler = scheduler;
+        this.curve = curve;
+        this.glideTime = seconds;
+    }
+
+    // Getters
+    public TuningTrajectory getTrajectory() { return target; }
+    public int getSteps() { return steps; }
+    public synchronized long getChord() { return chord; }
+    public synchronized double getHoldTime() { return holdTime; }
+
+}
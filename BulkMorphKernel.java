@@ -0,0 +1,238 @@
+package com.adriantregonning.javamusic;
+
+/******************************************************************************
+ * <p>Compilation           : javac BulkMorphKernel.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningMorpher</p>
+ *
+ *  <p> Morphs many tuning tables in a single pass. Tables are stored flat in
+ *  <tt>double[]</tt> buffers as <tt>[table * steps + degree]</tt>, with one
+ *  morph index per table. Each interpolation type has its own kernel whose
+ *  inner loop over degrees is a straight multiply-add with no branches or
+ *  calls, so HotSpot can unroll and vectorise it. The per-table curve 
+ *  weight is computed once per table rather than once per degree.</p>
+ *  
+ *  <p>All the kernels behind morph() take plain ratios. Exponential 
+ *  interpolation, <tt>source * (dest / source)^t</tt>, then costs a log 
+ *  and an exp per element. Callers that morph the same tables repeatedly 
+ *  can convert them to log-ratios once (see toLog()) and call morphLog(),
+ *  which interpolates linearly between the log-ratios and exponentiates: 
+ *  one exp per element.</p>
+ *  
+ *  <p>morphPair() and morphLogPair() morph one source and destination 
+ *  table to many indices, without the caller copying the pair once per 
+ *  table.</p>
+ *  
+ *  <p>VectorMorphKernel (benchmarks/src/vector/java, built by the Maven 
+ *  <tt>vector</tt> profile) has the same kernels written with the 
+ *  incubating Vector API; VectorKernelBenchmark compares the two. The 
+ *  linear and half-cosine loops here already vectorise, so only the 
+ *  exponential kernels, whose log and exp HotSpot cannot vectorise on its 
+ *  own, gain from it. These kernels stay scalar so that the tree builds on 
+ *  Java 11 without the incubator module.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class BulkMorphKernel {
+
+    private BulkMorphKernel() {}
+    
+    /**
+     * Morphs tables using the given interpolation type.
+     * 
+     * @param intType TuningMorpher.LINEAR, HALF_COSINE or EXPONENTIAL
+     * @param src     source tables, flat
+     * @param dst     destination tables, flat
+     * @param index   morph index per table
+     * @param out     output tables, flat (ratios)
+     * @param tables  number of tables
+     * @param steps   number of degrees per table
+     */
+    public static void morph(int intType, double[] src, double[] dst, 
+            double[] index, double[] out, int tables, int steps) {
+        switch (intType) {
+        case TuningMorpher.LINEAR:
+            linear(src, dst, index, out, tables, steps);
+            break;
+        case TuningMorpher.HALF_COSINE:
+            halfCosine(src, dst, index, out, tables, steps);
+            break;
+        case TuningMorpher.EXPONENTIAL:
+            exponential(src, dst, index, out, tables, steps);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown interpolation type "
+                    + intType);
+        }
+    }
+    
+    // Blends one table with a fixed weight. Kept small and branch-free so
+    // that it is inlined and vectorised.
+    private static void blend(double[] src, double[] dst, double[] out, 
+            int from, int to, double w) {
+        for (int i = from; i < to; i++) {
+            out[i] = src[i] + (dst[i] - src[i]) * w;
+        }
+    }
+    
+    /**
+     * Linear interpolation between source and destination ratios.
+     * 
+     * @param src    source tables, flat
+     * @param dst    destination tables, flat
+     * @param index  morph index per table
+     * @param out    output tables, flat
+     * @param tables number of tables
+     * @param steps  number of degrees per table
+     */
+    public static void linear(double[] src, double[] dst, double[] index, 
+            double[] out, int tables, int steps) {
+        for (int k = 0, base = 0; k < tables; k++, base += steps) {
+            blend(src, dst, out, base, base + steps, index[k]);
+        }
+    }
+    
+    /**
+     * Half-cosine interpolation between source and destination ratios.
+     * 
+     * @param src    source tables, flat
+     * @param dst    destination tables, flat
+     * @param index  morph index per table
+     * @param out    output tables, flat
+     * @param tables number of tables
+     * @param steps  number of degrees per table
+     */
+    public static void halfCosine(double[] src, double[] dst, double[] index,
+            double[] out, int tables, int steps) {
+        for (int k = 0, base = 0; k < tables; k++, base += steps) {
+            double w = 0.5 - 0.5 * Math.cos(Math.PI * index[k]);
+            blend(src, dst, out, base, base + steps, w);
+        }
+    }
+    
+    /**
+     * Exponential interpolation between source and destination ratios.
+     * 
+     * @param src    source tables, flat
+     * @param dst    destination tables, flat
+     * @param index  morph index per table
+     * @param out    output tables, flat
+     * @param tables number of tables
+     * @param steps  number of degrees per table
+     */
+    public static void exponential(double[] src, double[] dst, 
+            double[] index, double[] out, int tables, int steps) {
+        for (int k = 0, base = 0; k < tables; k++, base += steps) {
+            double w = index[k];
+            for (int i = base; i < base + steps; i++) {
+                out[i] = src[i] * Math.exp(w * Math.log(dst[i] / src[i]));
+            }
+        }
+    }
+    
+    /**
+     * Exponential interpolation between source and destination tables 
+     * given as natural log-ratios (see toLog()).
+     * 
+     * @param logSrc source tables as natural log-ratios, flat
+     * @param logDst destination tables as natural log-ratios, flat
+     * @param index  morph index per table
+     * @param out    output tables, flat (ratios)
+     * @param tables number of tables
+     * @param steps  number of degrees per table
+     */
+    public static void morphLog(double[] logSrc, double[] logDst, 
+            double[] index, double[] out, int tables, int steps) {
+        for (int k = 0, base = 0; k < tables; k++, base += steps) {
+            blend(logSrc, logDst, out, base, base + steps, index[k]);
+        }
+        int n = tables * steps;
+        for (int i = 0; i < n; i++) {
+            out[i] = Math.exp(out[i]);
+        }
+    }
+    
+    /**
+     * Morphs a single source and destination table to a run of indices.
+     * 
+     * @param intType TuningMorpher.LINEAR, HALF_COSINE or EXPONENTIAL
+     * @param src     source ratios, one table
+     * @param dst     destination ratios, one table
+     * @param index   morph indices
+     * @param from    first index to morph
+     * @param out     output tables, flat
+     * @param tables  number of indices to morph
+     */
+    public static void morphPair(int intType, double[] src, double[] dst, 
+            double[] index, int from, double[] out, int tables) {
+        int steps = src.length;
+        for (int k = 0, base = 0; k < tables; k++, base += steps) {
+            double w = index[from + k];
+            switch (intType) {
+            case TuningMorpher.LINEAR:
+                blendPair(src, dst, out, base, steps, w);
+                break;
+            case TuningMorpher.HALF_COSINE:
+                blendPair(src, dst, out, base, steps, 
+                        0.5 - 0.5 * Math.cos(Math.PI * w));
+                break;
+            case TuningMorpher.EXPONENTIAL:
+                for (int i = 0; i < steps; i++) {
+                    out[base + i] = src[i] 
+                            * Math.exp(w * Math.log(dst[i] / src[i]));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown interpolation type " + intType);
+            }
+        }
+    }
+    
+    /**
+     * Exponential interpolation of a single source and destination table, 
+     * given as natural log-ratios, to a run of indices.
+     * 
+     * @param logSrc source natural log-ratios, one table
+     * @param logDst destination natural log-ratios, one table
+     * @param index  morph indices
+     * @param from   first index to morph
+     * @param out    output tables, flat (ratios)
+     * @param tables number of indices to morph
+     */
+    public static void morphLogPair(double[] logSrc, double[] logDst, 
+            double[] index, int from, double[] out, int tables) {
+        int steps = logSrc.length;
+        for (int k = 0, base = 0; k < tables; k++, base += steps) {
+            blendPair(logSrc, logDst, out, base, steps, index[from + k]);
+        }
+        int n = tables * steps;
+        for (int i = 0; i < n; i++) {
+            out[i] = Math.exp(out[i]);
+        }
+    }
+    
+    // Blends a pair of tables into one output table with a fixed weight
+    private static void blendPair(double[] src, double[] dst, double[] out, 
+            int base, int steps, double w) {
+        for (int i = 0; i < steps; i++) {
+            out[base + i] = src[i] + (dst[i] - src[i]) * w;
+        }
+    }
+    
+    /**
+     * Converts ratios to natural log-ratios for morphLog().
+     * 
+     * @param ratios ratios, flat
+     * @param out    array that receives the log-ratios (may be ratios)
+     * @param n      number of values
+     */
+    public static void toLog(double[] ratios, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = Math.log(ratios[i]);
+        }
+    }
+
+}
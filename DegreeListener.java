@@ -0,0 +1,32 @@
+package com.adriantregonning.javamusic;
+
+/******************************************************************************
+ * <p>Compilation           : javac DegreeListener.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningTrajectory</p>
+ *
+ *  <p> Listener for single-degree edits of a TuningTrajectory (see 
+ *  TuningTrajectory.setDegree()). Derived data that was built from the 
+ *  previous version of the table can update the one degree instead of 
+ *  rebuilding. Listeners are called on the thread that made the edit, after
+ *  the new table has been published.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public interface DegreeListener {
+
+    /**
+     * Called after one degree of a trajectory's table has changed. The table
+     * is otherwise the same as at version - 1.
+     * 
+     * @param traj    the trajectory edited
+     * @param degree  the degree changed
+     * @param ratio   the degree's new ratio
+     * @param version the trajectory's version after the edit
+     */
+    void degreeChanged(TuningTrajectory traj, int degree, double ratio, 
+            int version);
+
+}
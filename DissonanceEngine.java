@@ -0,0 +1,428 @@
+package com.adriantregonning.javamusic;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/******************************************************************************
+ * <p>Compilation           : javac DissonanceEngine.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.BulkMorphKernel,
+ *                            com.adriantregonning.javamusic.TuningMorpher</p>
+ *
+ *  <p> Computes the sensory dissonance of tuning tables for a given timbre,
+ *  following Sethares' model of the Plomp-Levelt dissonance curve. The
+ *  dissonance of a table is the sum, over every pair of scale degrees
+ *  sounded together, of the dissonance between all pairs of their
+ *  partials.</p>
+ *
+ *  <p>Sweeps over many morph indices and interpolation types are split
+ *  across a fork/join pool. Each worker memoises the partial-pair sum for
+ *  each pair of fundamentals it meets, so degrees that do not move between
+ *  neighbouring morphs are not recomputed. Fundamentals are quantised to
+ *  a hundredth of a cent, and results are always computed from the
+ *  quantised frequencies, so they do not depend on which worker ran.</p>
+ *
+ *  <p>findPath() uses a sweep to find the least dissonant way to morph
+ *  between two tunings in a fixed number of stages. It chooses the
+ *  interpolation type and how quickly the morph index moves at each stage,
+ *  so the morph passes quickly through dissonant regions and lingers in
+ *  consonant ones.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class DissonanceEngine {
+
+    // Constants of Sethares' dissonance curve
+    private static final double DSTAR = 0.24;
+    private static final double S1 = 0.0207;
+    private static final double S2 = 18.96;
+    private static final double B1 = 3.51;
+    private static final double B2 = 5.75;
+
+    // Fundamentals are quantised to this many steps per octave
+    private static final double QUANTA = 120000;
+
+    // Sweeps split down to this many tables per task
+    private static final int THRESHOLD = 4;
+
+    private static final int[] ALL_TYPES = {TuningMorpher.LINEAR,
+            TuningMorpher.HALF_COSINE, TuningMorpher.EXPONENTIAL};
+
+    // Timbre: partial frequencies as multiples of the fundamental, and
+    // their amplitudes
+    private final double[] partials;
+    private final double[] amps;
+    private final double refFreq;
+    private final ForkJoinPool pool;
+
+    // Per-worker memo of partial-pair sums
+    private final ThreadLocal<PairCache> caches =
+            new ThreadLocal<PairCache>() {
+        protected PairCache initialValue() {
+            return new PairCache();
+        }
+    };
+
+    /**
+     * Creates an engine for a harmonic timbre of the given number of
+     * partials, with amplitudes falling by 0.88 per partial, sounded from
+     * the default reference frequency.
+     *
+     * @param numPartials number of harmonic partials
+     */
+    public DissonanceEngine(int numPartials) {
+        this(harmonicPartials(numPartials), harmonicAmps(numPartials),
+                TuningTrajectory.Tunings.refFreq, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an engine for the given timbre.
+     *
+     * @param partials partial frequencies as multiples of the fundamental
+     * @param amps     partial amplitudes
+     * @param refFreq  frequency in Hz of ratio 1
+     * @param pool     pool used for sweeps
+     */
+    public DissonanceEngine(double[] partials, double[] amps, double refFreq,
+            ForkJoinPool pool) {
+        if (partials.length != amps.length) {
+            throw new IllegalArgumentException("Timbre has "
+                    + partials.length + " partials but " + amps.length
+                    + " amplitudes");
+        }
+        this.partials = partials.clone();
+        this.amps = amps.clone();
+        this.refFreq = refFreq;
+        this.pool = pool;
+    }
+
+    private static double[] harmonicPartials(int n) {
+        double[] p = new double[n];
+        for (int i = 0; i < n; i++) {
+            p[i] = i + 1;
+        }
+        return p;
+    }
+
+    private static double[] harmonicAmps(int n) {
+        double[] a = new double[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = Math.pow(0.88, i);
+        }
+        return a;
+    }
+
+    /**
+     * Dissonance between two pure tones.
+     *
+     * @param f1 frequency of the first tone in Hz
+     * @param a1 amplitude of the first tone
+     * @param f2 frequency of the second tone in Hz
+     * @param a2 amplitude of the second tone
+     * @return dissonance
+     */
+    public static double dissonance(double f1, double a1, double f2,
+            double a2) {
+        double s = DSTAR / (S1 * Math.min(f1, f2) + S2);
+        double diff = Math.abs(f2 - f1);
+        return Math.min(a1, a2)
+                * (Math.exp(-B1 * s * diff) - Math.exp(-B2 * s * diff));
+    }
+
+    // Sum over all partial pairs of two complex tones
+    private double pairSum(double f1, double f2) {
+        double sum = 0;
+        for (int p = 0; p < partials.length; p++) {
+            double fp = f1 * partials[p];
+            for (int q = 0; q < partials.length; q++) {
+                sum += dissonance(fp, amps[p], f2 * partials[q], amps[q]);
+            }
+        }
+        return sum;
+    }
+
+    private static int quantise(double freq) {
+        return (int) Math.round(Math.log(freq) / Math.log(2) * QUANTA);
+    }
+
+    private static double dequantise(int q) {
+        return Math.pow(2, q / QUANTA);
+    }
+
+    /**
+     * Returns the dissonance of a tuning table: the sum of the dissonance
+     * of every pair of degrees sounded together.
+     *
+     * @param ratios frequency ratios
+     * @param steps  number of degrees to use
+     * @return dissonance
+     */
+    public double dissonance(double[] ratios, int steps) {
+        return dissonance(ratios, 0, steps, caches.get());
+    }
+
+    private double dissonance(double[] ratios, int offset, int steps,
+            PairCache cache) {
+        int[] q = cache.pitches(steps);
+        for (int i = 0; i < steps; i++) {
+            q[i] = quantise(ratios[offset + i] * refFreq);
+        }
+        double total = 0;
+        for (int i = 0; i < steps; i++) {
+            int qi = q[i];
+            for (int j = i + 1; j < steps; j++) {
+                int qj = q[j];
+                int lo = Math.min(qi, qj);
+                int hi = Math.max(qi, qj);
+                long key = ((long) lo << 32) | (hi & 0xffffffffL);
+                double d = cache.get(key);
+                if (Double.isNaN(d)) {
+                    d = pairSum(dequantise(lo), dequantise(hi));
+                    cache.put(key, d);
+                }
+                total += d;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Computes the dissonance of morphs between two tunings for every
+     * combination of interpolation type and morph index, in parallel.
+     * Tunings of different sizes are resampled onto a common grid.
+     *
+     * @param source       source ratios
+     * @param sourcePeriod period of the source as a frequency ratio
+     * @param dest         destination ratios
+     * @param destPeriod   period of the destination as a frequency ratio
+     * @param types        interpolation types, as in TuningMorpher
+     * @param indices      morph indices
+     * @return dissonance, as <tt>[type][index]</tt>
+     */
+    public double[][] sweep(double[] source, double sourcePeriod,
+            double[] dest, double destPeriod, int[] types, double[] indices) {
+        int steps = TuningResampler.commonSteps(source.length, dest.length);
+        double[] src = new double[steps];
+        double[] dst = new double[steps];
+        TuningResampler.resample(source, source.length, sourcePeriod, src,
+                steps);
+        TuningResampler.resample(dest, dest.length, destPeriod, dst, steps);
+        double[] logSrc = new double[steps];
+        double[] logDst = new double[steps];
+        BulkMorphKernel.toLog(src, logSrc, steps);
+        BulkMorphKernel.toLog(dst, logDst, steps);
+
+        double[][] result = new double[types.length][indices.length];
+        pool.invoke(new SweepTask(src, dst, logSrc, logDst, steps, types,
+                indices, result, 0, types.length * indices.length));
+        return result;
+    }
+
+    // Morphs and scores a range of (type, index) pairs, numbered type-major
+    @SuppressWarnings("serial")
+    private class SweepTask extends RecursiveAction {
+        private final double[] src, dst, logSrc, logDst;
+        private final int steps;
+        private final int[] types;
+        private final double[] indices;
+        private final double[][] result;
+        private final int from, to;
+
+        SweepTask(double[] src, double[] dst, double[] logSrc,
+                double[] logDst, int steps, int[] types, double[] indices,
+                double[][] result, int from, int to) {
+            this.src = src;
+            this.dst = dst;
+            this.logSrc = logSrc;
+            this.logDst = logDst;
+            this.steps = steps;
+            this.types = types;
+            this.indices = indices;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SweepTask(src, dst, logSrc, logDst, steps,
+                        types, indices, result, from, mid),
+                        new SweepTask(src, dst, logSrc, logDst, steps,
+                        types, indices, result, mid, to));
+                return;
+            }
+            PairCache cache = caches.get();
+            double[] out = cache.table(steps);
+            double[] index = cache.index;
+            for (int n = from; n < to; n++) {
+                int t = n / indices.length;
+                int k = n % indices.length;
+                int type = types[t];
+                index[0] = indices[k];
+                if (type == TuningMorpher.EXPONENTIAL) {
+                    BulkMorphKernel.morphLog(logSrc, logDst, index, out, 1,
+                            steps);
+                } else {
+                    BulkMorphKernel.morph(type, src, dst, index, out,
+                            1, steps);
+                }
+                result[t][k] = dissonance(out, 0, steps, cache);
+            }
+        }
+    }
+
+    /**
+     * Finds the least dissonant morph from source to destination in the
+     * given number of stages. The morph index starts at 0 and ends at 1,
+     * and moves forward by at most maxStep levels (of levels - 1 equal
+     * steps) per stage. The path minimises the mean dissonance over all
+     * stages, for the best of the three interpolation types.
+     *
+     * @param source       source ratios
+     * @param sourcePeriod period of the source as a frequency ratio
+     * @param dest         destination ratios
+     * @param destPeriod   period of the destination as a frequency ratio
+     * @param stages       number of stages after the start
+     * @param levels       number of morph index levels, including 0 and 1
+     * @param maxStep      maximum number of levels moved per stage
+     * @return The least dissonant path
+     */
+    public Path findPath(double[] source, double sourcePeriod, double[] dest,
+            double destPeriod, int stages, int levels, int maxStep) {
+        if (levels < 2 || stages < 1 || (long) stages * maxStep < levels - 1) {
+            throw new IllegalArgumentException("Cannot reach index 1 in "
+                    + stages + " stages of " + maxStep + " levels");
+        }
+        double[] indices = new double[levels];
+        for (int l = 0; l < levels; l++) {
+            indices[l] = (double) l / (levels - 1);
+        }
+        double[][] d = sweep(source, sourcePeriod, dest, destPeriod,
+                ALL_TYPES, indices);
+
+        Path best = null;
+        double[] cost = new double[levels];
+        double[] next = new double[levels];
+        int[][] from = new int[stages + 1][levels];
+        for (int t = 0; t < ALL_TYPES.length; t++) {
+            // cost[l] is the least total dissonance of reaching level l
+            Arrays.fill(cost, Double.POSITIVE_INFINITY);
+            cost[0] = d[t][0];
+            for (int s = 1; s <= stages; s++) {
+                for (int l = 0; l < levels; l++) {
+                    double min = Double.POSITIVE_INFINITY;
+                    int arg = -1;
+                    for (int p = Math.max(0, l - maxStep); p <= l; p++) {
+                        if (cost[p] < min) {
+                            min = cost[p];
+                            arg = p;
+                        }
+                    }
+                    next[l] = min + d[t][l];
+                    from[s][l] = arg;
+                }
+                double[] swap = cost;
+                cost = next;
+                next = swap;
+            }
+            double mean = cost[levels - 1] / (stages + 1);
+            if (best == null || mean < best.cost) {
+                double[] path = new double[stages + 1];
+                for (int s = stages, l = levels - 1; s >= 0; s--) {
+                    path[s] = indices[l];
+                    if (s > 0) {
+                        l = from[s][l];
+                    }
+                }
+                best = new Path(ALL_TYPES[t], path, mean);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * A morph path found by findPath().
+     */
+    public static class Path {
+        private final int type;
+        private final double[] indices;
+        private final double cost;
+
+        Path(int type, double[] indices, double cost) {
+            this.type = type;
+            this.indices = indices;
+            this.cost = cost;
+        }
+
+        // Getters
+        public int getInterpolationType() { return type; }
+        public double[] getIndices() { return indices; }
+        public double getMeanDissonance() { return cost; }
+    }
+
+    // Open-addressing map from packed pairs of quantised fundamentals to
+    // partial-pair sums, owned by one thread. Cleared when half full. Also
+    // holds that thread's morph and pitch buffers.
+    private static class PairCache {
+        private static final int CAPACITY = 1 << 16;
+        private final long[] keys = new long[CAPACITY];
+        private final double[] values = new double[CAPACITY];
+        private int size;
+        final double[] index = new double[1];
+        private double[] table = new double[0];
+        private int[] pitches = new int[0];
+
+        double[] table(int steps) {
+            if (table.length != steps) {
+                table = new double[steps];
+            }
+            return table;
+        }
+
+        int[] pitches(int steps) {
+            if (pitches.length < steps) {
+                pitches = new int[steps];
+            }
+            return pitches;
+        }
+
+        // Keys are stored plus one so that 0 marks an empty slot
+        private static int slot(long key) {
+            long h = key * 0x9e3779b97f4a7c15L;
+            return (int) (h >>> 48);
+        }
+
+        double get(long key) {
+            long k = key + 1;
+            for (int i = slot(key); ; i = (i + 1) & (CAPACITY - 1)) {
+                if (keys[i] == k) {
+                    return values[i];
+                } else if (keys[i] == 0) {
+                    return Double.NaN;
+                }
+            }
+        }
+
+        void put(long key, double value) {
+            if (size >= CAPACITY / 2) {
+                Arrays.fill(keys, 0);
+                size = 0;
+            }
+            long k = key + 1;
+            int i = slot(key);
+            while (keys[i] != 0 && keys[i] != k) {
+                i = (i + 1) & (CAPACITY - 1);
+            }
+            if (keys[i] == 0) {
+                size++;
+            }
+            keys[i] = k;
+            values[i] = value;
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.adriantregonning.javamusic;
+
+/******************************************************************************
+ * <p>Compilation           : javac EqualTemperament.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningProvider</p>
+ *
+ *  <p> An equal division of a period into any number of steps, e.g. 19-, 31-
+ *  or 53-EDO, or the 13 equal divisions of the tritave (3/1) used by the 
+ *  Bohlen-Pierce scale.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class EqualTemperament implements TuningProvider {
+
+    private final String label;
+    private final int steps;
+    private final double period;
+    private volatile double[] ratios;   // Built on first use
+    
+    /**
+     * Creates an equal division of the octave.
+     * 
+     * @param steps number of steps per octave
+     */
+    public EqualTemperament(int steps) {
+        this(steps + "-EDO", steps, 2.0);
+    }
+    
+    /**
+     * @param label  display name
+     * @param steps  number of steps per period
+     * @param period period as a frequency ratio
+     */
+    public EqualTemperament(String label, int steps, double period) {
+        if (steps < 1 || period <= 1) {
+            throw new IllegalArgumentException("Invalid equal temperament " 
+                    + steps + " steps of " + period);
+        }
+        this.label = label;
+        this.steps = steps;
+        this.period = period;
+    }
+    
+    /**
+     * Builds the ratios of an equal division of a period.
+     * 
+     * @param steps  number of steps per period
+     * @param period period as a frequency ratio
+     * @return array of frequency ratios
+     */
+    public static double[] buildRatios(int steps, double period) {
+        double[] ratios = new double[steps];
+        for (int i = 0; i < steps; i++) {
+            ratios[i] = Math.pow(period, (double) i / steps);
+        }
+        return ratios;
+    }
+    
+    public double[] ratios() {
+        double[] r = ratios;
+        if (r == null) {
+            r = buildRatios(steps, period);
+            ratios = r;
+        }
+        return r;
+    }
+    
+    // Getters
+    public String label() { return label; }
+    public int steps() { return steps; }
+    public double period() { return period; }
+
+}
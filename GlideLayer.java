@@ -0,0 +1,269 @@
+package com.adriantregonning.javamusic;
+
+import java.util.Arrays;
+
+import com.softsynth.jmsl.MusicJob;
+
+/******************************************************************************
+ * <p>Compilation           : javac GlideLayer.java</p>
+ * <p>Dependencies          : com.softsynth.jmsl</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningTrajectory,
+ *                            com.adriantregonning.javamusic.GlideSink</p>
+ *
+ *  <p> Retunes notes that are already sounding. A JMSL tuning table is only
+ *  read when a note starts, so sustained notes keep their old frequency 
+ *  when the table changes. A GlideLayer follows a trajectory at a fixed 
+ *  control rate; whenever the table has changed it looks up the new 
+ *  frequency of every held note and glides the note to it over the glide 
+ *  time, exponentially (i.e. linearly in pitch).</p>
+ *  
+ *  <p>At control rate (the default) the layer computes each step of the 
+ *  glide and sends the frequencies of all the voices that moved in one 
+ *  batch per tick. At audio rate it sends each new target once, as a ramp 
+ *  that the synth runs per sample. Voice state is kept in primitive arrays
+ *  indexed by the synth's voice number, so notes and ticks do not allocate,
+ *  and hundreds of held notes can follow a continuous morph.</p>
+ *  
+ *  <p>Tell the layer about each note with noteOn() and noteOff(), and 
+ *  launch it like any other job, e.g. <tt>glide.launch(JMSL.now())</tt>, 
+ *  or call tick() directly.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class GlideLayer extends MusicJob {
+
+    private final TuningTrajectory traj;
+    private final GlideSink sink;
+    private double glideTime = 0.05;
+    private boolean audioRate;
+    
+    // Per-voice state, indexed by voice number
+    private final double[] pitch;
+    private final double[] freq;        // Last frequency sent
+    private final double[] from;        // Start of the current glide
+    private final double[] to;          // Target of the current glide
+    private final double[] elapsed;     // Time into the current glide
+    private final boolean[] gliding;
+    
+    // Held voices, densely packed, and each voice's place in the list
+    private final int[] held;
+    private final int[] heldIndex;
+    private int heldCount;
+    
+    // Batch passed to the sink, and the trajectory version last followed
+    private final int[] batchVoices;
+    private final double[] batchFreqs;
+    private final double[] fresh;
+    private int seenVersion;
+    private double lastPlayTime = Double.NaN;
+    
+    /**
+     * @param traj        trajectory to follow
+     * @param sink        synth whose voices are retuned
+     * @param polyphony   number of synth voices
+     * @param controlRate number of control ticks per second
+     */
+    public GlideLayer(TuningTrajectory traj, GlideSink sink, int polyphony,
+            double controlRate) {
+        if (polyphony < 1 || controlRate <= 0) {
+            throw new IllegalArgumentException("Invalid glide settings");
+        }
+        this.traj = traj;
+        this.sink = sink;
+        pitch = new double[polyphony];
+        freq = new double[polyphony];
+        from = new double[polyphony];
+        to = new double[polyphony];
+        elapsed = new double[polyphony];
+        gliding = new boolean[polyphony];
+        held = new int[polyphony];
+        heldIndex = new int[polyphony];
+        Arrays.fill(heldIndex, -1);
+        batchVoices = new int[polyphony];
+        batchFreqs = new double[polyphony];
+        fresh = new double[polyphony];
+        seenVersion = traj.getVersion();
+        setRepeatPause(1.0 / controlRate);
+        setRepeats(Integer.MAX_VALUE);
+    }
+    
+    // Looks up the current frequencies of the first count held voices into 
+    // fresh, from one consistent snapshot of the table
+    private void readFrequencies(int count) {
+        while (true) {
+            TuningSnapshot snap = traj.getSnapshot();
+            if (snap == null) {
+                for (int k = 0; k < count; k++) {
+                    fresh[k] = traj.lookupFrequency(pitch[held[k]]);
+                }
+                return;
+            }
+            int seq = snap.beginRead();
+            for (int k = 0; k < count; k++) {
+                fresh[k] = snap.lookup(pitch[held[k]]);
+            }
+            if (snap.validate(seq)) {
+                return;
+            }
+        }
+    }
+    
+    // Looks up the current frequency of one pitch
+    private double lookup(double p) {
+        while (true) {
+            TuningSnapshot snap = traj.getSnapshot();
+            if (snap == null) {
+                return traj.lookupFrequency(p);
+            }
+            int seq = snap.beginRead();
+            double f = snap.lookup(p);
+            if (snap.validate(seq)) {
+                return f;
+            }
+        }
+    }
+    
+    /**
+     * Starts following a voice. The voice should already be sounding at the
+     * frequency returned.
+     * 
+     * @param voice synth voice number
+     * @param p     pitch of the note
+     * @return The note's current frequency in Hz
+     */
+    public synchronized double noteOn(int voice, double p) {
+        if (heldIndex[voice] < 0) {
+            heldIndex[voice] = heldCount;
+            held[heldCount++] = voice;
+        }
+        pitch[voice] = p;
+        freq[voice] = lookup(p);
+        to[voice] = freq[voice];
+        gliding[voice] = false;
+        return freq[voice];
+    }
+    
+    /**
+     * Stops following a voice.
+     * 
+     * @param voice synth voice number
+     */
+    public synchronized void noteOff(int voice) {
+        int k = heldIndex[voice];
+        if (k < 0) {
+            return;
+        }
+        int last = held[--heldCount];
+        held[k] = last;
+        heldIndex[last] = k;
+        heldIndex[voice] = -1;
+        gliding[voice] = false;
+    }
+    
+    /**
+     * Advances all glides by a control period. If the table has changed, 
+     * held voices whose frequency differs start gliding to it.
+     * 
+     * @param dt time since the last tick, in seconds
+     */
+    public synchronized void tick(double dt) {
+        int count = 0;
+        int version = traj.getVersion();
+        if (version != seenVersion) {
+            seenVersion = version;
+            readFrequencies(heldCount);
+            for (int k = 0; k < heldCount; k++) {
+                int v = held[k];
+                if (fresh[k] != to[v]) {
+                    from[v] = freq[v];
+                    to[v] = fresh[k];
+                    elapsed[v] = 0;
+                    gliding[v] = true;
+                    if (audioRate || glideTime <= 0) {
+                        batchVoices[count] = v;
+                        batchFreqs[count++] = to[v];
+                        freq[v] = to[v];
+                        gliding[v] = false;
+                    }
+                }
+            }
+            if (count > 0) {
+                if (audioRate && glideTime > 0) {
+                    sink.rampFrequencies(batchVoices, batchFreqs, count, 
+                            glideTime);
+                } else {
+                    sink.setFrequencies(batchVoices, batchFreqs, count);
+                }
+                count = 0;
+            }
+        }
+        if (audioRate) {
+            return;
+        }
+        for (int k = 0; k < heldCount; k++) {
+            int v = held[k];
+            if (!gliding[v]) {
+                continue;
+            }
+            elapsed[v] += dt;
+            double w = elapsed[v] / glideTime;
+            if (w >= 1) {
+                freq[v] = to[v];
+                gliding[v] = false;
+            } else {
+                freq[v] = from[v] * Math.pow(to[v] / from[v], w);
+            }
+            batchVoices[count] = v;
+            batchFreqs[count++] = freq[v];
+        }
+        if (count > 0) {
+            sink.setFrequencies(batchVoices, batchFreqs, count);
+        }
+    }
+    
+    @Override
+    public double repeat(double playTime) throws InterruptedException {
+        double dt = Double.isNaN(lastPlayTime) ? getRepeatPause() 
+                : playTime - lastPlayTime;
+        lastPlayTime = playTime;
+        tick(dt);
+        return playTime;
+    }
+    
+    /**
+     * Sets the glide time. A glide time of 0 retunes held notes at once.
+     * 
+     * @param seconds glide time in seconds
+     */
+    public synchronized void setGlideTime(double seconds) {
+        glideTime = seconds;
+    }
+    
+    /**
+     * Chooses whether glides are stepped at control rate by the layer, or 
+     * sent to the synth as ramps to run at audio rate.
+     * 
+     * @param audioRate true to send ramps
+     */
+    public synchronized void setAudioRate(boolean audioRate) {
+        this.audioRate = audioRate;
+    }
+    
+    /**
+     * Sets the control rate.
+     * 
+     * @param controlRate number of control ticks per second
+     */
+    public void setControlRate(double controlRate) {
+        setRepeatPause(1.0 / controlRate);
+    }
+    
+    // Getters
+    public synchronized int getHeldCount() { return heldCount; }
+    public synchronized double getFrequency(int voice) { return freq[voice]; }
+    public synchronized double getGlideTime() { return glideTime; }
+    public TuningTrajectory getTrajectory() { return traj; }
+
+}
@@ -0,0 +1,43 @@
+package com.adriantregonning.javamusic;
+
+/******************************************************************************
+ * <p>Compilation           : javac GlideSink.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.GlideLayer,
+ *                            com.adriantregonning.javamusic.HeadlessSynth</p>
+ *
+ *  <p> A synth, or a bridge to one, whose sounding voices a GlideLayer 
+ *  retunes. Voices are numbered from 0 to the synth's polyphony - 1. 
+ *  Updates arrive in batches: the arrays are reused by the caller and are 
+ *  only valid during the call.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public interface GlideSink {
+
+    /**
+     * Sets voice frequencies at once. Used at control rate, where the glide
+     * layer computes each step of a glide itself.
+     * 
+     * @param voices voice numbers
+     * @param freqs  new frequencies in Hz
+     * @param count  number of voices in the batch
+     */
+    void setFrequencies(int[] voices, double[] freqs, int count);
+    
+    /**
+     * Starts exponential frequency ramps, which the synth runs at audio rate.
+     * A ramp replaces any ramp in progress on the voice and starts from the
+     * voice's current frequency.
+     * 
+     * @param voices  voice numbers
+     * @param freqs   target frequencies in Hz
+     * @param count   number of voices in the batch
+     * @param seconds ramp time
+     */
+    void rampFrequencies(int[] voices, double[] freqs, int count, 
+            double seconds);
+
+}
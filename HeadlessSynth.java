@@ -0,0 +1,135 @@
+package com.adriantregonning.javamusic;
+
+import java.util.Arrays;
+
+/******************************************************************************
+ * <p>Compilation           : javac HeadlessSynth.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.GlideLayer</p>
+ *
+ *  <p> A minimal sine-wave synth that renders into a float array, for 
+ *  running and checking a GlideLayer without audio hardware or JSyn. Each
+ *  voice has a frequency and an amplitude; frequency ramps are applied 
+ *  exponentially per sample, as an audio-rate synth would. The number of 
+ *  update batches and voice updates received is counted.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class HeadlessSynth implements GlideSink {
+
+    private final double sampleRate;
+    
+    // Per-voice state
+    private final double[] freq;
+    private final double[] amp;
+    private final double[] phase;
+    private final double[] rampFactor;   // Per-sample frequency multiplier
+    private final double[] rampTarget;
+    private final int[] rampRemaining;   // Samples left in the ramp
+    
+    private long batches;
+    private long updates;
+    
+    /**
+     * @param polyphony  number of voices
+     * @param sampleRate sample rate in Hz
+     */
+    public HeadlessSynth(int polyphony, double sampleRate) {
+        this.sampleRate = sampleRate;
+        freq = new double[polyphony];
+        amp = new double[polyphony];
+        phase = new double[polyphony];
+        rampFactor = new double[polyphony];
+        rampTarget = new double[polyphony];
+        rampRemaining = new int[polyphony];
+    }
+    
+    /**
+     * Starts a voice.
+     * 
+     * @param voice     voice number
+     * @param frequency frequency in Hz
+     * @param amplitude amplitude
+     */
+    public synchronized void noteOn(int voice, double frequency, 
+            double amplitude) {
+        freq[voice] = frequency;
+        amp[voice] = amplitude;
+        phase[voice] = 0;
+        rampRemaining[voice] = 0;
+    }
+    
+    /**
+     * Silences a voice.
+     * 
+     * @param voice voice number
+     */
+    public synchronized void noteOff(int voice) {
+        amp[voice] = 0;
+        rampRemaining[voice] = 0;
+    }
+    
+    @Override
+    public synchronized void setFrequencies(int[] voices, double[] freqs, 
+            int count) {
+        for (int i = 0; i < count; i++) {
+            freq[voices[i]] = freqs[i];
+            rampRemaining[voices[i]] = 0;
+        }
+        batches++;
+        updates += count;
+    }
+    
+    @Override
+    public synchronized void rampFrequencies(int[] voices, double[] freqs, 
+            int count, double seconds) {
+        int samples = Math.max(1, (int) Math.round(seconds * sampleRate));
+        for (int i = 0; i < count; i++) {
+            int v = voices[i];
+            rampTarget[v] = freqs[i];
+            rampFactor[v] = Math.pow(freqs[i] / freq[v], 1.0 / samples);
+            rampRemaining[v] = samples;
+        }
+        batches++;
+        updates += count;
+    }
+    
+    /**
+     * Renders the mix of all voices, applying frequency ramps per sample.
+     * 
+     * @param out    buffer to fill
+     * @param frames number of samples to render
+     */
+    public synchronized void render(float[] out, int frames) {
+        Arrays.fill(out, 0, frames, 0f);
+        double twoPi = 2 * Math.PI;
+        for (int v = 0; v < freq.length; v++) {
+            if (amp[v] == 0) {
+                continue;
+            }
+            for (int i = 0; i < frames; i++) {
+                if (rampRemaining[v] > 0) {
+                    if (--rampRemaining[v] == 0) {
+                        freq[v] = rampTarget[v];
+                    } else {
+                        freq[v] *= rampFactor[v];
+                    }
+                }
+                phase[v] += twoPi * freq[v] / sampleRate;
+                if (phase[v] > twoPi) {
+                    phase[v] -= twoPi;
+                }
+                out[i] += (float) (amp[v] * Math.sin(phase[v]));
+            }
+        }
+    }
+    
+    // Getters
+    public synchronized double getFrequency(int voice) { return freq[voice]; }
+    public synchronized long getBatchCount() { return batches; }
+    public synchronized long getUpdateCount() { return updates; }
+    public double getSampleRate() { return sampleRate; }
+
+}
@@ -0,0 +1,217 @@
+package com.adriantregonning.javamusic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/******************************************************************************
+ * <p>Compilation           : javac JustRatioIndex.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningMorpher,
+ *                            com.adriantregonning.javamusic.AdaptiveJustIntonation
+ *                            </p>
+ *
+ *  <p> A precomputed index of the just ratios of a prime limit within one
+ *  period, for snapping arbitrary ratios to the simplest nearby just
+ *  ratio. The ratios n/d, with n and d up to a maximum term (256 by
+ *  default), are sorted by size and stored flat with their sizes in cents.
+ *  A table of the first ratio at or above each whole cent gives the start
+ *  of a search without a binary search, so a snap is a short scan over the
+ *  ratios within the tolerance, keeping the one of lowest height n * d.
+ *  Snapping a whole table costs about a microsecond and does not
+ *  allocate, so it can run on every control tick.</p>
+ *
+ *  <p>Ratios are reduced into the period before snapping and restored
+ *  after, so a table of any range can be snapped. An index is immutable
+ *  once built and can be shared between threads.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class JustRatioIndex {
+
+    private final int primeLimit;
+    private final double period;
+    private final double periodCents;
+
+    // Just ratios from 1 to the period, sorted by size
+    private final long[] nums;
+    private final long[] dens;
+    private final double[] cents;
+
+    // First ratio of at least c cents, for each whole cent c
+    private final int[] firstAtCent;
+
+    /**
+     * Creates an index of the octave-repeating ratios of a prime limit with
+     * terms up to 256.
+     *
+     * @param primeLimit largest prime allowed in ratios
+     */
+    public JustRatioIndex(int primeLimit) {
+        this(primeLimit, 2.0, 256);
+    }
+
+    /**
+     * @param primeLimit largest prime allowed in ratios
+     * @param period     period as a frequency ratio
+     * @param maxTerm    largest numerator or denominator
+     */
+    public JustRatioIndex(int primeLimit, double period, int maxTerm) {
+        if (primeLimit < 2 || period <= 1 || maxTerm < 1) {
+            throw new IllegalArgumentException("Invalid just ratio index");
+        }
+        this.primeLimit = primeLimit;
+        this.period = period;
+        periodCents = toCents(period);
+
+        List<long[]> ratios = new ArrayList<long[]>();
+        for (int d = 1; d <= maxTerm; d++) {
+            for (int n = d; n <= period * d && n <= maxTerm; n++) {
+                if (gcd(n, d) == 1 && isSmooth(n, primeLimit)
+                        && isSmooth(d, primeLimit)) {
+                    ratios.add(new long[] {n, d});
+                }
+            }
+        }
+        Collections.sort(ratios, new Comparator<long[]>() {
+            public int compare(long[] a, long[] b) {
+                return Double.compare((double) a[0] / a[1],
+                        (double) b[0] / b[1]);
+            }
+        });
+        int count = ratios.size();
+        nums = new long[count];
+        dens = new long[count];
+        cents = new double[count];
+        for (int i = 0; i < count; i++) {
+            nums[i] = ratios.get(i)[0];
+            dens[i] = ratios.get(i)[1];
+            cents[i] = toCents((double) nums[i] / dens[i]);
+        }
+
+        int buckets = (int) Math.ceil(periodCents) + 1;
+        firstAtCent = new int[buckets];
+        int i = 0;
+        for (int c = 0; c < buckets; c++) {
+            while (i < count && cents[i] < c) {
+                i++;
+            }
+            firstAtCent[c] = i;
+        }
+    }
+
+    static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static boolean isSmooth(int n, int primeLimit) {
+        for (int p = 2; p <= primeLimit && n > 1; p++) {
+            while (n % p == 0) {
+                n /= p;
+            }
+        }
+        return n == 1;
+    }
+
+    static double toCents(double ratio) {
+        return 1200 * Math.log(ratio) / Math.log(2);
+    }
+
+    // First ratio of at least the given size in cents
+    private int lowerBound(double c) {
+        if (c <= 0) {
+            return 0;
+        }
+        if (c >= firstAtCent.length - 1) {
+            return firstAtCent[firstAtCent.length - 1];
+        }
+        int i = firstAtCent[(int) c];
+        while (i < cents.length && cents[i] < c) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Finds the simplest ratio within a tolerance of an interval inside the
+     * period.
+     *
+     * @param c         interval in cents, from 0 to the period
+     * @param tolerance largest distance in cents
+     * @return The index of the ratio, or -1 if there is none
+     */
+    public int snap(double c, double tolerance) {
+        int best = -1;
+        double bestHeight = Double.POSITIVE_INFINITY;
+        for (int i = lowerBound(c - tolerance);
+                i < cents.length && cents[i] <= c + tolerance; i++) {
+            double height = (double) nums[i] * dens[i];
+            if (height < bestHeight) {
+                bestHeight = height;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Snaps a table of ratios, each reduced into the period and restored
+     * after. Ratios with no just ratio within the tolerance are copied
+     * unchanged. Does not allocate; in and out may be the same array.
+     *
+     * @param in        ratios to snap
+     * @param out       array that receives the snapped ratios
+     * @param count     number of ratios
+     * @param tolerance largest distance in cents a ratio is moved
+     * @param indices   array that receives the index of each snapped ratio,
+     *                  or -1, or <tt>null</tt>
+     * @return The number of ratios snapped
+     */
+    public int snapTable(double[] in, double[] out, int count,
+            double tolerance, int[] indices) {
+        int snapped = 0;
+        for (int i = 0; i < count; i++) {
+            double c = toCents(in[i]);
+            double periods = Math.floor(c / periodCents);
+            int s = snap(c - periods * periodCents, tolerance);
+            if (indices != null) {
+                indices[i] = s;
+            }
+            if (s < 0) {
+                out[i] = in[i];
+                continue;
+            }
+            double ratio = (double) nums[s] / dens[s];
+            out[i] = periods == 0 ? ratio : ratio * Math.pow(period, periods);
+            snapped++;
+        }
+        return snapped;
+    }
+
+    /**
+     * Returns a ratio as text, e.g. "5/4".
+     *
+     * @param i index of the ratio
+     * @return The ratio as n/d
+     */
+    public String toString(int i) {
+        return nums[i] + "/" + dens[i];
+    }
+
+    // Getters
+    public int getPrimeLimit() { return primeLimit; }
+    public double getPeriod() { return period; }
+    public int size() { return nums.length; }
+    public long getNumerator(int i) { return nums[i]; }
+    public long getDenominator(int i) { return dens[i]; }
+    public double getCents(int i) { return cents[i]; }
+
+}
@@ -0,0 +1,257 @@
+package com.adriantregonning.javamusic;
+
+import java.util.Arrays;
+
+import com.adriantregonning.javamusic.TuningTrajectory.Tunings;
+
+/******************************************************************************
+ * <p>Compilation           : javac KeyframeTrajectory.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningTrajectory</p>
+ *
+ *  <p> A tuning trajectory made of any number of keyframe tunings placed 
+ *  along a timeline (or any other index axis). Between each pair of 
+ *  keyframes the ratios are interpolated with the segment's interpolation 
+ *  type: linear, half cosine, exponential or a Catmull-Rom spline through 
+ *  the neighbouring keyframes. Segments are found by binary search, so 
+ *  evaluation stays cheap for trajectories with hundreds of keyframes, and 
+ *  results are written into caller-supplied buffers.</p>
+ *  
+ *  <p>All keyframes must have the same number of scale degrees.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class KeyframeTrajectory {
+
+    // Interpolation types. The first three match TuningMorpher.
+    public static final int LINEAR = TuningMorpher.LINEAR;
+    public static final int HALF_COSINE = TuningMorpher.HALF_COSINE;
+    public static final int EXPONENTIAL = TuningMorpher.EXPONENTIAL;
+    public static final int SPLINE = 3;
+    
+    private final int steps;
+    private int count;
+    
+    // Keyframe positions (sorted), the interpolation type of the segment
+    // that starts at each keyframe, and the keyframe ratios stored flat as
+    // [keyframe * steps + degree].
+    private double[] positions = new double[8];
+    private int[] types = new int[8];
+    private double[] tables;
+    
+    // Segment found by the previous lookup, checked before searching
+    private int lastSegment;
+    
+    // Output buffer used by evaluateInto()
+    private final double[] scratch;
+    
+    /**
+     * @param steps number of scale degrees in each keyframe
+     */
+    public KeyframeTrajectory(int steps) {
+        this.steps = steps;
+        tables = new double[positions.length * steps];
+        scratch = new double[steps];
+    }
+    
+    /**
+     * Adds a keyframe. Keyframes may be added in any order. The segment 
+     * starting at the new keyframe uses linear interpolation.
+     * 
+     * @param position position of the keyframe on the axis
+     * @param ratios   array of frequency ratios
+     * @return The index of the new keyframe
+     */
+    public int addKeyframe(double position, double[] ratios) {
+        if (ratios.length != steps) {
+            throw new IllegalArgumentException("Keyframe has " 
+                    + ratios.length + " degrees, expected " + steps);
+        }
+        if (count == positions.length) {
+            int capacity = count * 2;
+            positions = Arrays.copyOf(positions, capacity);
+            types = Arrays.copyOf(types, capacity);
+            tables = Arrays.copyOf(tables, capacity * steps);
+        }
+        
+        // Insert after any keyframes at the same or earlier positions
+        int i = count;
+        while (i > 0 && positions[i - 1] > position) {
+            i--;
+        }
+        System.arraycopy(positions, i, positions, i + 1, count - i);
+        System.arraycopy(types, i, types, i + 1, count - i);
+        System.arraycopy(tables, i * steps, tables, (i + 1) * steps, 
+                (count - i) * steps);
+        positions[i] = position;
+        types[i] = LINEAR;
+        System.arraycopy(ratios, 0, tables, i * steps, steps);
+        count++;
+        return i;
+    }
+    
+    /**
+     * Adds one of the preset tunings as a keyframe.
+     * 
+     * @param position position of the keyframe on the axis
+     * @param preset   preset from the Tunings enum
+     * @return The index of the new keyframe
+     */
+    public int addKeyframe(double position, Tunings preset) {
+        return addKeyframe(position, preset.ratios());
+    }
+    
+    /**
+     * Removes a keyframe.
+     * 
+     * @param keyframe index of the keyframe
+     */
+    public void removeKeyframe(int keyframe) {
+        checkKeyframe(keyframe);
+        int tail = count - keyframe - 1;
+        System.arraycopy(positions, keyframe + 1, positions, keyframe, tail);
+        System.arraycopy(types, keyframe + 1, types, keyframe, tail);
+        System.arraycopy(tables, (keyframe + 1) * steps, tables, 
+                keyframe * steps, tail * steps);
+        count--;
+        lastSegment = 0;
+    }
+    
+    /**
+     * Sets the interpolation type of the segment that starts at the given 
+     * keyframe.
+     * 
+     * @param keyframe index of the keyframe
+     * @param intType  LINEAR, HALF_COSINE, EXPONENTIAL or SPLINE
+     */
+    public void setInterpolationType(int keyframe, int intType) {
+        checkKeyframe(keyframe);
+        if (intType < LINEAR || intType > SPLINE) {
+            throw new IllegalArgumentException("Unknown interpolation type "
+                    + intType);
+        }
+        types[keyframe] = intType;
+    }
+    
+    private void checkKeyframe(int keyframe) {
+        if (keyframe < 0 || keyframe >= count) {
+            throw new IndexOutOfBoundsException("Keyframe " + keyframe 
+                    + " of " + count);
+        }
+    }
+    
+    /**
+     * Finds the segment containing a position: the index of the last 
+     * keyframe at or before it, clamped to the first and last segments.
+     * 
+     * @param position position on the axis
+     * @return Index of the keyframe starting the segment
+     */
+    public int findSegment(double position) {
+        int last = count - 2;
+        if (last < 0) {
+            return 0;
+        }
+        // Playback usually stays in the same segment between lookups
+        int seg = lastSegment;
+        if (seg <= last && positions[seg] <= position 
+                && (seg == last || position < positions[seg + 1])) {
+            return seg;
+        }
+        
+        int lo = 0;
+        int hi = last;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (positions[mid] <= position) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        lastSegment = lo;
+        return lo;
+    }
+    
+    /**
+     * Evaluates the trajectory at a position. Positions before the first 
+     * keyframe or after the last are clamped. Does not allocate.
+     * 
+     * @param position position on the axis
+     * @param out      array of at least getSteps() elements
+     */
+    public void evaluate(double position, double[] out) {
+        if (count == 0) {
+            throw new IllegalStateException("Trajectory has no keyframes");
+        }
+        int k = findSegment(position);
+        int a = k * steps;
+        if (count == 1 || position <= positions[k]) {
+            System.arraycopy(tables, a, out, 0, steps);
+            return;
+        }
+        if (position >= positions[k + 1]) {
+            System.arraycopy(tables, a + steps, out, 0, steps);
+            return;
+        }
+        
+        double t = (position - positions[k]) / (positions[k + 1] - positions[k]);
+        int b = a + steps;
+        switch (types[k]) {
+        case LINEAR:
+            for (int i = 0; i < steps; i++) {
+                out[i] = tables[a + i] + (tables[b + i] - tables[a + i]) * t;
+            }
+            break;
+        case HALF_COSINE:
+            double w = 0.5 - 0.5 * Math.cos(Math.PI * t);
+            for (int i = 0; i < steps; i++) {
+                out[i] = tables[a + i] + (tables[b + i] - tables[a + i]) * w;
+            }
+            break;
+        case EXPONENTIAL:
+            for (int i = 0; i < steps; i++) {
+                out[i] = tables[a + i] * Math.pow(tables[b + i] / tables[a + i], t);
+            }
+            break;
+        case SPLINE:
+            // Catmull-Rom through the neighbouring keyframes, repeating the 
+            // end keyframes at the ends of the trajectory
+            int p = k > 0 ? a - steps : a;
+            int n = k + 2 < count ? b + steps : b;
+            double t2 = t * t;
+            double t3 = t2 * t;
+            for (int i = 0; i < steps; i++) {
+                double y0 = tables[p + i];
+                double y1 = tables[a + i];
+                double y2 = tables[b + i];
+                double y3 = tables[n + i];
+                out[i] = 0.5 * (2 * y1 + (y2 - y0) * t
+                        + (2 * y0 - 5 * y1 + 4 * y2 - y3) * t2
+                        + (3 * y1 - y0 - 3 * y2 + y3) * t3);
+            }
+            break;
+        }
+    }
+    
+    /**
+     * Evaluates the trajectory at a position and updates the target tuning
+     * trajectory in place.
+     * 
+     * @param position position on the axis
+     * @param target   the live tuning trajectory to update
+     */
+    public void evaluateInto(double position, TuningTrajectory target) {
+        evaluate(position, scratch);
+        target.updateTable(scratch);
+    }
+    
+    // Getters
+    public int getSteps() { return steps; }
+    public int getKeyframeCount() { return count; }
+    public double getPosition(int keyframe) { return positions[keyframe]; }
+    public int getInterpolationType(int keyframe) { return types[keyframe]; }
+
+}
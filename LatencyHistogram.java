@@ -0,0 +1,92 @@
+package com.adriantregonning.javamusic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/******************************************************************************
+ * <p>Compilation           : javac LatencyHistogram.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.
+ *                            RetuneLatencyMonitor</p>
+ *
+ *  <p> A thread-safe, fixed-size latency histogram. Latencies in 
+ *  nanoseconds are counted in power-of-two buckets, so recording is a few 
+ *  atomic increments with no allocation. Percentiles are reported as the 
+ *  upper bound of the bucket they fall in.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class LatencyHistogram {
+
+    // Bucket b holds latencies in [2^(b-1), 2^b) ns; bucket 0 holds 0
+    private static final int BUCKETS = 64;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    /**
+     * Records a latency.
+     * 
+     * @param nanos latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+            // Retry until this latency is recorded or a larger one is
+        }
+    }
+    
+    /**
+     * Returns the latency below which the given fraction of recorded 
+     * latencies fall, to the resolution of the buckets.
+     * 
+     * @param fraction fraction of latencies, 0..1
+     * @return latency in nanoseconds, 0 if nothing has been recorded
+     */
+    public long percentile(double fraction) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(fraction * n);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts.get(b);
+            if (seen >= target) {
+                return b == 0 ? 0 : Math.min(max.get(), (1L << b) - 1);
+            }
+        }
+        return max.get();
+    }
+    
+    /**
+     * Clears the histogram. Latencies recorded concurrently may be lost.
+     */
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            counts.set(b, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+    
+    // Getters
+    public long getCount() { return count.get(); }
+    public long getMax() { return max.get(); }
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+}
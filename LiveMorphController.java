@@ -0,0 +1,188 @@
+package com.adriantregonning.javamusic;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/******************************************************************************
+ * <p>Compilation           : javac LiveMorphController.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningMorpher</p>
+ *
+ *  <p> Drives a TuningMorpher continuously from a control such as the morph
+ *  fader. Requests may arrive in bursts from the Swing event thread; each 
+ *  one only records the latest morph index. A control thread wakes once per
+ *  control period and, if anything was requested since its last tick, 
+ *  performs a single morph. The table is therefore recomputed at most once 
+ *  per control period, and retuning never waits for the GUI. A morph that
+ *  throws is reported and skipped; the control thread keeps running.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class LiveMorphController {
+
+    // Longest stop() waits for a running tick to finish
+    private static final long STOP_TIMEOUT_MILLIS = 200;
+    
+    private final TuningMorpher morpher;
+    private final long periodNanos;
+    private ScheduledExecutorService control;
+    
+    // Latest request, picked up by the next control tick
+    private volatile double requestedIndex;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    
+    // Number of morphs actually performed
+    private volatile long morphCount;
+    
+    /**
+     * @param morpher     the morpher to drive
+     * @param controlRate maximum number of morphs per second
+     */
+    public LiveMorphController(TuningMorpher morpher, double controlRate) {
+        if (controlRate <= 0) {
+            throw new IllegalArgumentException("Invalid control rate " 
+                    + controlRate);
+        }
+        this.morpher = morpher;
+        periodNanos = (long) (1e9 / controlRate);
+    }
+    
+    /**
+     * Starts the control thread.
+     */
+    public synchronized void start() {
+        if (control != null) {
+            return;
+        }
+        control = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "LiveMorphController");
+                t.setDaemon(true);
+                t.setPriority(Thread.MAX_PRIORITY);
+                return t;
+            }
+        });
+        control.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                tick();
+            }
+        }, 0, periodNanos, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Stops the control thread. Pending requests are discarded, and a tick 
+     * already running is waited for briefly, so that no morph follows the
+     * return of this method.
+     */
+    public void stop() {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = control;
+            control = null;
+            if (stopping != null) {
+                stopping.shutdown();
+            }
+            dirty.set(false);
+        }
+        // Wait outside the monitor, so a caller of start() is not held up
+        if (stopping != null) {
+            try {
+                if (!stopping.awaitTermination(STOP_TIMEOUT_MILLIS, 
+                        TimeUnit.MILLISECONDS)) {
+                    System.err.println("Error: live morph still running "
+                            + "after stop");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Requests a morph to the given index. Returns immediately; the morph is
+     * performed on the next control tick, coalesced with any other requests
+     * made before then.
+     * 
+     * @param index morph index, 0..1
+     */
+    public void request(double index) {
+        requestedIndex = index;
+        dirty.set(true);
+    }
+    
+    /**
+     * Requests a morph at the current index, e.g. after the source, 
+     * destination or interpolation type has changed.
+     */
+    public void refresh() {
+        dirty.set(true);
+    }
+    
+    // Control tick: perform at most one morph. An exception escaping the 
+    // task would silently cancel every later tick, so it is reported here.
+    private void tick() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        try {
+            synchronized (morpher) {
+                morpher.morph(requestedIndex);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error: live morph failed - " 
+                    + e.getMessage());
+            return;
+        }
+        morphCount++;
+    }
+    
+    /**
+     * Sets the source ratios, then morphs on the next tick.
+     * 
+     * @param ratios array of source frequency ratios
+     * @param period period of the source as a frequency ratio
+     */
+    public void setSource(double[] ratios, double period) {
+        synchronized (morpher) {
+            morpher.setSource(ratios, period);
+        }
+        refresh();
+    }
+    
+    /**
+     * Sets the destination ratios, then morphs on the next tick.
+     * 
+     * @param ratios array of destination frequency ratios
+     * @param period period of the destination as a frequency ratio
+     */
+    public void setDestination(double[] ratios, double period) {
+        synchronized (morpher) {
+            morpher.setDestination(ratios, period);
+        }
+        refresh();
+    }
+    
+    /**
+     * Sets the interpolation type, then morphs on the next tick.
+     * 
+     * @param intType interpolation type, as in TuningMorpher
+     */
+    public void setInterpolationType(int intType) {
+        synchronized (morpher) {
+            morpher.setInterpolationType(intType);
+        }
+        refresh();
+    }
+    
+    // Getters
+    public TuningMorpher getMorpher() { return morpher; }
+    public long getMorphCount() { return morphCount; }
+    public synchronized boolean isRunning() { return control != null; }
+
+}
@@ -0,0 +1,128 @@
+package com.adriantregonning.javamusic;
+
+/******************************************************************************
+ * <p>Compilation           : javac MorphEnvelope.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.MorphScheduler,
+ *                            com.adriantregonning.javamusic.TuningMorpher</p>
+ *
+ *  <p> A timed morph between a source and a destination tuning, for use
+ *  with MorphScheduler. The morph index moves from the start index to the 
+ *  end index over the envelope's duration, and the curve selects the 
+ *  interpolation type used between the source and destination ratios. Each 
+ *  envelope has its own TuningMorpher, so envelopes that overlap on the same 
+ *  trajectory do not share buffers.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class MorphEnvelope {
+
+    private final double startTime;     // JMSL time in seconds
+    private final double duration;      // seconds
+    private final double startIndex;
+    private final double endIndex;
+    private final TuningMorpher morpher;
+
+    /**
+     * Creates an envelope that morphs fully from source to destination.
+     * 
+     * @param target     the live tuning trajectory to update
+     * @param startTime  JMSL time at which the morph begins
+     * @param duration   length of the morph in seconds
+     * @param curve      interpolation type, as in TuningMorpher
+     * @param source     array of source frequency ratios
+     * @param dest       array of destination frequency ratios
+     */
+    public MorphEnvelope(TuningTrajectory target, double startTime, 
+            double duration, int curve, double[] source, double[] dest) {
+        this(target, startTime, duration, curve, source, dest, 0, 1);
+    }
+
+    /**
+     * Creates an envelope that moves between two morph indices.
+     * 
+     * @param target     the live tuning trajectory to update
+     * @param startTime  JMSL time at which the morph begins
+     * @param duration   length of the morph in seconds
+     * @param curve      interpolation type, as in TuningMorpher
+     * @param source     array of source frequency ratios
+     * @param dest       array of destination frequency ratios
+     * @param startIndex morph index at the start of the envelope
+     * @param endIndex   morph index at the end of the envelope
+     */
+    public MorphEnvelope(TuningTrajectory target, double startTime, 
+            double duration, int curve, double[] source, double[] dest,
+            double startIndex, double endIndex) {
+        this(target, startTime, duration, curve, source, 2.0, dest, 2.0, 
+                startIndex, endIndex);
+    }
+
+    /**
+     * Creates an envelope that moves between two morph indices, between 
+     * tunings with the given periods.
+     * 
+     * @param target       the live tuning trajectory to update
+     * @param startTime    JMSL time at which the morph begins
+     * @param duration     length of the morph in seconds
+     * @param curve        interpolation type, as in TuningMorpher
+     * @param source       array of source frequency ratios
+     * @param sourcePeriod period of the source as a frequency ratio
+     * @param dest         array of destination frequency ratios
+     * @param destPeriod   period of the destination as a frequency ratio
+     * @param startIndex   morph index at the start of the envelope
+     * @param endIndex     morph index at the end of the envelope
+     */
+    public MorphEnvelope(TuningTrajectory target, double startTime, 
+            double duration, int curve, double[] source, double sourcePeriod,
+            double[] dest, double destPeriod, double startIndex, 
+            double endIndex) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("Negative duration " 
+                    + duration);
+        }
+        this.startTime = startTime;
+        this.duration = duration;
+        this.startIndex = startIndex;
+        this.endIndex = endIndex;
+        morpher = new TuningMorpher(target, source.length);
+        morpher.setSource(source, sourcePeriod);
+        morpher.setDestination(dest, destPeriod);
+        morpher.setInterpolationType(curve);
+    }
+
+    /**
+     * Returns the morph index at the given time, clamped to the envelope.
+     * 
+     * @param time JMSL time in seconds
+     * @return morph index
+     */
+    public double indexAt(double time) {
+        if (time >= getEndTime()) {
+            return endIndex;
+        }
+        if (time <= startTime) {
+            return startIndex;
+        }
+        double t = (time - startTime) / duration;
+        return startIndex + (endIndex - startIndex) * t;
+    }
+
+    /**
+     * Updates the envelope's trajectory to its state at the given time.
+     * Does not allocate.
+     * 
+     * @param time JMSL time in seconds
+     */
+    public void update(double time) {
+        morpher.morph(indexAt(time));
+    }
+
+    // Getters
+    public double getStartTime() { return startTime; }
+    public double getDuration() { return duration; }
+    public double getEndTime() { return startTime + duration; }
+    public TuningMorpher getMorpher() { return morpher; }
+
+}
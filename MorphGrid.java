@@ -0,0 +1,310 @@
+package com.adriantregonning.javamusic;
+
+import com.softsynth.jmsl.util.*;
+
+/******************************************************************************
+ * <p>Compilation           : javac MorphGrid.java</p>
+ * <p>Dependencies          : com.softsynth.jmsl.util</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningTrajectory,
+ *                            com.adriantregonning.javamusic.TuningMorpher</p>
+ *
+ *  <p> A precomputed lookup grid of morphed ratio tables for a fixed source
+ *  and destination tuning. For each interpolation type the grid holds 
+ *  <tt>resolution + 1</tt> tables, evenly spaced over morph indices 0..1 and
+ *  stored flat in a single primitive array. A lookup at any morph index is 
+ *  then a table fetch, optionally blended linearly with the neighbouring 
+ *  table.</p>
+ *  
+ *  <p>Grids are built lazily, one interpolation type at a time, the first 
+ *  time they are looked up. They are rebuilt automatically after the source
+ *  or destination trajectory changes (for example when its editor panel's
+ *  values are applied, or a preset is selected); a single-degree edit 
+ *  (TuningTrajectory.setDegree()) only recomputes that degree's column. The
+ *  resolution trades memory for accuracy; see getMemoryBytes() and 
+ *  getMaxBlendError().</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class MorphGrid implements DegreeListener {
+
+    // Number of interpolation types, as in TuningMorpher
+    private static final int TYPES = 3;
+    
+    private final TuningTrajectory source;
+    private final TuningTrajectory dest;
+    private int resolution;
+    private int steps;
+    
+    // Flat grids, indexed [row * steps + degree], one per interpolation type
+    private final double[][] grids = new double[TYPES][];
+    // Source and destination versions each grid was built from
+    private final int[] builtSourceVersion = new int[TYPES];
+    private final int[] builtDestVersion = new int[TYPES];
+    private final boolean[] built = new boolean[TYPES];
+    // Source and destination periods each grid was built from
+    private final double[] builtSourcePeriod = new double[TYPES];
+    private final double[] builtDestPeriod = new double[TYPES];
+    // Worst error of a blended lookup against direct evaluation, per type
+    private final double[] maxBlendError = new double[TYPES];
+    
+    // Output buffer used by morphInto()
+    private double[] scratch = new double[0];
+    
+    private final Interpolator[] interpolators = {
+            new LinearInterpolator(0, 0, 1, 1),
+            new HalfCosineInterpolator(0, 0, 1, 1),
+            new ExponentialInterpolator(0, 0, 1, 1)
+    };
+    
+    /**
+     * @param source     source tuning trajectory
+     * @param dest       destination tuning trajectory
+     * @param resolution number of intervals over morph indices 0..1
+     */
+    public MorphGrid(TuningTrajectory source, TuningTrajectory dest, 
+            int resolution) {
+        this.source = source;
+        this.dest = dest;
+        setResolution(resolution);
+        source.addDegreeListener(this);
+        if (dest != source) {
+            dest.addDegreeListener(this);
+        }
+    }
+    
+    /**
+     * Sets the grid resolution. Higher resolutions use more memory and give
+     * more accurate lookups. Existing grids are discarded.
+     * 
+     * @param resolution number of intervals over morph indices 0..1
+     */
+    public void setResolution(int resolution) {
+        if (resolution < 1) {
+            throw new IllegalArgumentException("Resolution must be positive");
+        }
+        this.resolution = resolution;
+        invalidate();
+    }
+    
+    /**
+     * Forces all grids to be rebuilt on their next lookup.
+     */
+    public void invalidate() {
+        for (int t = 0; t < TYPES; t++) {
+            built[t] = false;
+        }
+    }
+    
+    // Returns the grid for the given type, (re)building it if the source or
+    // destination has changed since it was built.
+    private double[] grid(int intType) {
+        int srcVersion = source.getVersion();
+        int dstVersion = dest.getVersion();
+        if (built[intType] && builtSourceVersion[intType] == srcVersion 
+                && builtDestVersion[intType] == dstVersion) {
+            return grids[intType];
+        }
+        
+        double[] srcRatios = source.getRatios();
+        double[] dstRatios = dest.getRatios();
+        if (srcRatios == null || dstRatios == null) {
+            throw new IllegalStateException("Source and destination ratios " 
+                    + "must be set before the grid is used");
+        }
+        // Scales of different sizes are resampled onto a common grid
+        steps = TuningResampler.commonSteps(srcRatios.length, 
+                dstRatios.length);
+        if (srcRatios.length != steps) {
+            double[] r = new double[steps];
+            TuningResampler.resample(srcRatios, srcRatios.length, 
+                    source.getPeriod(), r, steps);
+            srcRatios = r;
+        }
+        if (dstRatios.length != steps) {
+            double[] r = new double[steps];
+            TuningResampler.resample(dstRatios, dstRatios.length, 
+                    dest.getPeriod(), r, steps);
+            dstRatios = r;
+        }
+        int size = (resolution + 1) * steps;
+        double[] g = grids[intType];
+        if (g == null || g.length != size) {
+            g = new double[size];
+            grids[intType] = g;
+        }
+        
+        double maxErr = 0;
+        for (int i = 0; i < steps; i++) {
+            maxErr = Math.max(maxErr, 
+                    fillColumn(g, intType, i, srcRatios[i], dstRatios[i]));
+        }
+        maxBlendError[intType] = maxErr;
+        builtSourcePeriod[intType] = source.getPeriod();
+        builtDestPeriod[intType] = dest.getPeriod();
+        builtSourceVersion[intType] = srcVersion;
+        builtDestVersion[intType] = dstVersion;
+        built[intType] = true;
+        return g;
+    }
+    
+    // Fills one degree's column of a grid, returning the largest error of a
+    // blended lookup in it
+    private double fillColumn(double[] g, int intType, int i, double src, 
+            double dst) {
+        Interpolator interpol = interpolators[intType];
+        interpol.setInterp(0, src, 1, dst);
+        for (int row = 0; row <= resolution; row++) {
+            g[row * steps + i] = interpol.interp((double) row / resolution);
+        }
+        // Compare the blend at each row midpoint with direct evaluation
+        double maxErr = 0;
+        for (int row = 0; row < resolution; row++) {
+            double direct = interpol.interp((row + 0.5) / resolution);
+            double blended = 0.5 * (g[row * steps + i] 
+                    + g[(row + 1) * steps + i]);
+            maxErr = Math.max(maxErr, Math.abs(direct - blended));
+        }
+        return maxErr;
+    }
+    
+    /**
+     * Recomputes one column of each grid built from the previous version of
+     * the edited trajectory. Grids of resampled scales, or that are further
+     * out of date, are left to be rebuilt on their next lookup.
+     */
+    @Override
+    public void degreeChanged(TuningTrajectory traj, int degree, double ratio,
+            int version) {
+        double[] srcRatios = source.getRatios();
+        double[] dstRatios = dest.getRatios();
+        if (srcRatios == null || dstRatios == null 
+                || srcRatios.length != steps || dstRatios.length != steps) {
+            return;
+        }
+        for (int t = 0; t < TYPES; t++) {
+            boolean current = built[t];
+            if (traj == source) {
+                current &= builtSourceVersion[t] == version - 1;
+            }
+            if (traj == dest) {
+                current &= builtDestVersion[t] == version - 1;
+            }
+            if (!current) {
+                continue;
+            }
+            double err = fillColumn(grids[t], t, degree, srcRatios[degree], 
+                    dstRatios[degree]);
+            maxBlendError[t] = Math.max(maxBlendError[t], err);
+            if (traj == source) {
+                builtSourceVersion[t] = version;
+            }
+            if (traj == dest) {
+                builtDestVersion[t] = version;
+            }
+        }
+    }
+    
+    /**
+     * Looks up the morphed ratios at the given index.
+     * 
+     * @param index   morph index, clamped to 0..1
+     * @param intType interpolation type, as in TuningMorpher
+     * @param blend   if true, blend linearly between neighbouring tables; 
+     *                otherwise use the nearest table
+     * @param out     array that receives the ratios
+     */
+    public void lookup(double index, int intType, boolean blend, 
+            double[] out) {
+        double[] g = grid(intType);
+        double pos = Math.max(0, Math.min(1, index)) * resolution;
+        
+        if (!blend) {
+            System.arraycopy(g, (int) (pos + 0.5) * steps, out, 0, steps);
+            return;
+        }
+        int row = Math.min((int) pos, resolution - 1);
+        double frac = pos - row;
+        int lo = row * steps;
+        int hi = lo + steps;
+        for (int i = 0; i < steps; i++) {
+            double a = g[lo + i];
+            out[i] = a + (g[hi + i] - a) * frac;
+        }
+    }
+    
+    /**
+     * Returns the morphed period at the given index, interpolated between 
+     * the source and destination periods with the same curve as the ratios,
+     * as TuningMorpher does.
+     * 
+     * @param index   morph index, clamped to 0..1
+     * @param intType interpolation type, as in TuningMorpher
+     * @param blend   if false, the period at the nearest table's index
+     * @return period as a frequency ratio
+     */
+    public double periodAt(double index, int intType, boolean blend) {
+        grid(intType);
+        double pos = Math.max(0, Math.min(1, index));
+        if (!blend) {
+            pos = (int) (pos * resolution + 0.5) / (double) resolution;
+        }
+        Interpolator interpol = interpolators[intType];
+        interpol.setInterp(0, builtSourcePeriod[intType], 1, 
+                builtDestPeriod[intType]);
+        return interpol.interp(pos);
+    }
+    
+    /**
+     * Looks up the morphed ratios and period at the given index and updates
+     * the target trajectory in place.
+     * 
+     * @param target  the live tuning trajectory to update
+     * @param index   morph index, clamped to 0..1
+     * @param intType interpolation type, as in TuningMorpher
+     * @param blend   whether to blend between neighbouring tables
+     */
+    public void morphInto(TuningTrajectory target, double index, int intType,
+            boolean blend) {
+        grid(intType);
+        if (scratch.length != steps) {
+            scratch = new double[steps];
+        }
+        lookup(index, intType, blend, scratch);
+        target.updateTable(scratch, periodAt(index, intType, blend), index, 
+                intType);
+    }
+    
+    /**
+     * Returns the largest difference between a blended lookup and direct 
+     * evaluation, measured when the grid for the given type was last built.
+     * 
+     * @param intType interpolation type
+     * @return maximum ratio error, or 0 if the grid has not been built
+     */
+    public double getMaxBlendError(int intType) {
+        return built[intType] ? maxBlendError[intType] : 0;
+    }
+    
+    /**
+     * Returns the memory currently used by the built grids.
+     * 
+     * @return size in bytes of the grid arrays
+     */
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (int t = 0; t < TYPES; t++) {
+            if (grids[t] != null) {
+                bytes += 8L * grids[t].length;
+            }
+        }
+        return bytes;
+    }
+    
+    // Getters
+    public int getResolution() { return resolution; }
+    public TuningTrajectory getSource() { return source; }
+    public TuningTrajectory getDestination() { return dest; }
+
+}
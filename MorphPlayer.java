@@ -0,0 +1,254 @@
+package com.adriantregonning.javamusic;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.softsynth.jmsl.MusicJob;
+
+/******************************************************************************
+ * <p>Compilation           : javac MorphPlayer.java</p>
+ * <p>Dependencies          : com.softsynth.jmsl, java.nio</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.MorphRecorder</p>
+ *
+ *  <p> Replays a log written by MorphRecorder into a TuningTrajectory. The
+ *  log is memory-mapped, and a sparse index of its keyframes is built when
+ *  it is opened, so seeking to any time decodes at most 
+ *  MorphRecorder.KEYFRAME_INTERVAL records. Times are in seconds from the 
+ *  first record. A partial record at the end of the log, left by a 
+ *  recorder that did not close, is ignored.</p>
+ *  
+ *  <p>The player can be driven directly with seek() and advanceTo(), or 
+ *  launched as a JMSL job, in which case it checks the log once per 
+ *  repeat pause and applies every change that has fallen due.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class MorphPlayer extends MusicJob {
+
+    private final MappedByteBuffer log;
+    private final TuningTrajectory target;
+    
+    // Sparse index: time (microseconds) and offset of each keyframe
+    private long[] keyTimes = new long[64];
+    private int[] keyOffsets = new int[64];
+    private int keyCount;
+    private long duration;
+    
+    // Replay state: position of the next record and the time it falls due
+    private int position;
+    private long nextMicros;
+    private long currentMicros;
+    private double[] ratios = new double[0];
+    private int steps;
+    private double period = 2.0;
+    private double morphIndex;
+    private int intType;
+    
+    // JMSL time at which the job was launched
+    private double origin;
+    
+    /**
+     * Opens a log by memory-mapping it.
+     * 
+     * @param file   log written by MorphRecorder
+     * @param target the tuning trajectory to update
+     * @throws IOException if the file cannot be read or is not a morph log
+     */
+    public MorphPlayer(Path file, TuningTrajectory target) throws IOException {
+        this.target = target;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            log = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (log.remaining() < 8 || log.getInt(0) != MorphRecorder.MAGIC 
+                || log.getInt(4) != MorphRecorder.FORMAT_VERSION) {
+            throw new IOException("Not a morph log");
+        }
+        buildIndex();
+        rewind();
+        setRepeatPause(0.01);
+        setRepeats(Integer.MAX_VALUE);
+    }
+    
+    private long getVarint() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = log.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+    
+    // Scans the record headers to find the keyframes and the log's length.
+    // A record cut short, e.g. by a crash while recording, ends the log.
+    private void buildIndex() {
+        log.position(8);
+        long micros = 0;
+        while (log.hasRemaining()) {
+            int offset = log.position();
+            long time;
+            byte type;
+            try {
+                type = log.get();
+                time = micros + getVarint();
+                log.position(log.position() + 9);
+                int n = (int) getVarint();
+                if (type == MorphRecorder.KEYFRAME) {
+                    log.position(log.position() + 8 + 8 * n);
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        getVarint();
+                        log.position(log.position() + 8);
+                    }
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                log.limit(offset);
+                break;
+            }
+            if (type == MorphRecorder.KEYFRAME) {
+                if (keyCount == keyTimes.length) {
+                    keyTimes = Arrays.copyOf(keyTimes, keyCount * 2);
+                    keyOffsets = Arrays.copyOf(keyOffsets, keyCount * 2);
+                }
+                keyTimes[keyCount] = time;
+                keyOffsets[keyCount] = offset;
+                keyCount++;
+            }
+            micros = time;
+        }
+        duration = micros;
+    }
+    
+    // Reads the header of the record at position, setting nextMicros
+    private void peek() {
+        if (position < log.limit()) {
+            log.position(position + 1);
+            nextMicros = currentMicros + getVarint();
+        } else {
+            nextMicros = Long.MAX_VALUE;
+        }
+    }
+    
+    // Decodes the record at position into the replay state
+    private void applyRecord() {
+        log.position(position);
+        byte type = log.get();
+        currentMicros += getVarint();
+        morphIndex = log.getDouble();
+        intType = log.get();
+        if (type == MorphRecorder.KEYFRAME) {
+            steps = (int) getVarint();
+            period = log.getDouble();
+            if (ratios.length != steps) {
+                ratios = new double[steps];
+            }
+            for (int i = 0; i < steps; i++) {
+                ratios[i] = log.getDouble();
+            }
+        } else {
+            int n = (int) getVarint();
+            int degree = 0;
+            for (int i = 0; i < n; i++) {
+                degree += (int) getVarint();
+                ratios[degree] = log.getDouble();
+            }
+        }
+        position = log.position();
+    }
+    
+    /**
+     * Returns to the start of the log without changing the trajectory.
+     */
+    public void rewind() {
+        position = 8;
+        currentMicros = 0;
+        peek();
+    }
+    
+    /**
+     * Applies every record due at or before the given time, and updates the
+     * trajectory if any were applied.
+     * 
+     * @param time seconds from the first record
+     * @return true if the trajectory was updated
+     */
+    public boolean advanceTo(double time) {
+        long micros = Math.round(time * 1e6);
+        boolean changed = false;
+        while (nextMicros <= micros) {
+            applyRecord();
+            peek();
+            changed = true;
+        }
+        if (changed) {
+            publish();
+        }
+        return changed;
+    }
+    
+    /**
+     * Moves to the given time, restoring the tuning in effect then.
+     * 
+     * @param time seconds from the first record
+     */
+    public void seek(double time) {
+        long micros = Math.round(time * 1e6);
+        int k = Arrays.binarySearch(keyTimes, 0, keyCount, micros);
+        if (k < 0) {
+            k = -k - 2;
+        } else {
+            // Use the last keyframe at exactly this time
+            while (k + 1 < keyCount && keyTimes[k + 1] == micros) {
+                k++;
+            }
+        }
+        if (k < 0) {
+            rewind();
+            return;
+        }
+        position = keyOffsets[k];
+        currentMicros = keyTimes[k];
+        // The keyframe's own time delta is re-added when it is applied
+        log.position(position + 1);
+        currentMicros -= getVarint();
+        peek();
+        advanceTo(time);
+    }
+    
+    private void publish() {
+        if (steps > 0) {
+            target.updateTable(ratios, period);
+        }
+    }
+    
+    @Override
+    public double start(double playTime) throws InterruptedException {
+        origin = playTime;
+        rewind();
+        return super.start(playTime);
+    }
+    
+    @Override
+    public double repeat(double playTime) throws InterruptedException {
+        advanceTo(playTime - origin);
+        return playTime;
+    }
+    
+    // Getters
+    public double getDuration() { return duration / 1e6; }
+    public double getTime() { return currentMicros / 1e6; }
+    public double getMorphIndex() { return morphIndex; }
+    public int getInterpolationType() { return intType; }
+    public int getKeyframeCount() { return keyCount; }
+    public TuningTrajectory getTrajectory() { return target; }
+
+}
@@ -0,0 +1,262 @@
+package com.adriantregonning.javamusic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/******************************************************************************
+ * <p>Compilation           : javac MorphRecorder.java</p>
+ * <p>Dependencies          : java.nio</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.MorphPlayer,
+ *                            com.adriantregonning.javamusic.TuningTrajectory
+ *                            </p>
+ *
+ *  <p> Records every tuning change of a trajectory to an append-only binary
+ *  log, for deterministic replay with MorphPlayer; attach it with 
+ *  TuningTrajectory.setRecorder(). Each record holds the time since the 
+ *  previous record, the morph index and interpolation type (NaN and -1 for
+ *  changes not made by a morpher) and only the degrees whose ratio 
+ *  changed. Every KEYFRAME_INTERVAL records
+ *  (and whenever the table size or period changes) a full table is written 
+ *  instead, so that a player can seek without replaying the whole log.</p>
+ *  
+ *  <p>Records are encoded into direct buffers and handed to a background 
+ *  thread that writes them through a FileChannel, so recording costs a 
+ *  comparison of the table and a few buffer writes on the caller's thread.
+ *  Recording never blocks: if the writer falls behind by more than the 
+ *  number of buffers, records are dropped and counted. A dropped change is
+ *  not lost from the table, since the next record written holds every 
+ *  degree changed since the last one written, but the log's timeline is 
+ *  coarser there.</p>
+ *  
+ *  <p>Log format: int magic, int format version, then records. A record is
+ *  a type byte (DELTA or KEYFRAME), a varint time delta in microseconds, 
+ *  the morph index (double) and interpolation type (byte), then either a 
+ *  varint count of changed degrees followed by (varint degree gap, double 
+ *  ratio) pairs, or a varint step count, the period (double) and every 
+ *  ratio (double).</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class MorphRecorder implements AutoCloseable {
+
+    static final int MAGIC = 0x544d524c;        // "TMRL"
+    static final int FORMAT_VERSION = 1;
+    static final byte DELTA = 0;
+    static final byte KEYFRAME = 1;
+    static final int KEYFRAME_INTERVAL = 256;
+    
+    private static final int BUFFER_BYTES = 1 << 18;
+    
+    /** Largest table that fits in a record; larger tables are dropped */
+    public static final int MAX_STEPS = (BUFFER_BYTES - 8 - 32) / 13;
+    private static final int BUFFERS = 4;
+    
+    private final FileChannel channel;
+    private final ArrayBlockingQueue<ByteBuffer> free = 
+            new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+    private final ArrayBlockingQueue<ByteBuffer> full = 
+            new ArrayBlockingQueue<ByteBuffer>(BUFFERS + 1);
+    private final Thread writer;
+    private volatile IOException writeError;
+    
+    // Marks the end of recording for the writer thread
+    private final ByteBuffer endMarker = ByteBuffer.allocate(0);
+    
+    private ByteBuffer current;
+    
+    // State of the previous record, for delta encoding
+    private double[] last = new double[0];
+    private int lastSteps = -1;
+    private double lastPeriod;
+    private long lastMicros;
+    private boolean started;
+    private int sinceKeyframe;
+    
+    private long recordCount;
+    private long droppedCount;
+    private boolean closed;
+    
+    /**
+     * Creates (or truncates) a log file and starts its writer thread.
+     * 
+     * @param file the log file
+     * @throws IOException if the file cannot be opened
+     */
+    public MorphRecorder(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, 
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        for (int i = 0; i < BUFFERS; i++) {
+            free.add(ByteBuffer.allocateDirect(BUFFER_BYTES));
+        }
+        current = free.poll();
+        current.putInt(MAGIC).putInt(FORMAT_VERSION);
+        
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "MorphRecorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    // Writer thread: writes full buffers and returns them to the free queue
+    private void writeLoop() {
+        try {
+            while (true) {
+                ByteBuffer buf = full.take();
+                if (buf == endMarker) {
+                    return;
+                }
+                buf.flip();
+                try {
+                    while (buf.hasRemaining()) {
+                        channel.write(buf);
+                    }
+                } catch (IOException e) {
+                    writeError = e;
+                }
+                buf.clear();
+                free.put(buf);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // Ensures the current buffer has room for a record of the given size,
+    // handing it to the writer for a free one if necessary. Returns false if
+    // there is no room and no free buffer.
+    private boolean reserve(int bytes) {
+        if (current.remaining() >= bytes) {
+            return true;
+        }
+        ByteBuffer next = free.poll();
+        if (next == null) {
+            return false;
+        }
+        // Never full: there are only BUFFERS buffers and the end marker
+        full.add(current);
+        current = next;
+        return true;
+    }
+    
+    static void putVarint(ByteBuffer buf, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buf.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+    
+    /**
+     * Records a tuning change, or drops it if the writer has fallen behind.
+     * Never blocks, and does not allocate unless the table grows. Tables of
+     * more than MAX_STEPS degrees are always dropped.
+     * 
+     * @param time       time of the change in seconds (e.g. JMSL.now())
+     * @param morphIndex morph index
+     * @param intType    interpolation type
+     * @param ratios     the new frequency ratios
+     * @param steps      number of ratios to record
+     * @param period     period of the table
+     * @return true if the change was recorded, false if it was dropped
+     * @throws IOException if an earlier write failed
+     */
+    public synchronized boolean record(double time, double morphIndex, 
+            int intType, double[] ratios, int steps, double period) 
+                    throws IOException {
+        if (closed) {
+            throw new IOException("Recorder is closed");
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+        // Worst case: header plus a varint and a double per degree
+        if (steps > MAX_STEPS || !reserve(32 + steps * 13)) {
+            droppedCount++;
+            return false;
+        }
+        long micros = Math.round(time * 1e6);
+        long delta = started ? Math.max(0, micros - lastMicros) : 0;
+        started = true;
+        lastMicros = micros;
+        
+        boolean keyframe = steps != lastSteps || period != lastPeriod 
+                || sinceKeyframe >= KEYFRAME_INTERVAL;
+        ByteBuffer buf = current;
+        buf.put(keyframe ? KEYFRAME : DELTA);
+        putVarint(buf, delta);
+        buf.putDouble(morphIndex);
+        buf.put((byte) intType);
+        
+        if (keyframe) {
+            if (last.length < steps) {
+                last = new double[steps];
+            }
+            putVarint(buf, steps);
+            buf.putDouble(period);
+            for (int i = 0; i < steps; i++) {
+                buf.putDouble(ratios[i]);
+                last[i] = ratios[i];
+            }
+            lastSteps = steps;
+            lastPeriod = period;
+            sinceKeyframe = 0;
+        } else {
+            int changed = 0;
+            for (int i = 0; i < steps; i++) {
+                if (ratios[i] != last[i]) {
+                    changed++;
+                }
+            }
+            putVarint(buf, changed);
+            int prev = 0;
+            for (int i = 0; i < steps; i++) {
+                if (ratios[i] != last[i]) {
+                    putVarint(buf, i - prev);
+                    buf.putDouble(ratios[i]);
+                    last[i] = ratios[i];
+                    prev = i;
+                }
+            }
+            sinceKeyframe++;
+        }
+        recordCount++;
+        return true;
+    }
+    
+    /**
+     * Writes any buffered records and closes the log.
+     * 
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            full.put(current);
+            full.put(endMarker);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+    
+    // Getters
+    public synchronized long getRecordCount() { return recordCount; }
+    public synchronized long getDroppedCount() { return droppedCount; }
+
+}
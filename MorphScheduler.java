@@ -0,0 +1,215 @@
+package com.adriantregonning.javamusic;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.softsynth.jmsl.JMSL;
+import com.softsynth.jmsl.MusicJob;
+
+/******************************************************************************
+ * <p>Compilation           : javac MorphScheduler.java</p>
+ * <p>Dependencies          : com.softsynth.jmsl</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.MorphEnvelope</p>
+ *
+ *  <p> A JMSL job that automates tuning morphs over time. Envelopes are
+ *  scheduled from any thread and are evaluated at a fixed control rate on
+ *  the JMSL scheduler, so morphs stay in step with score playback. Each
+ *  envelope is evaluated at the job's scheduled play time rather than the 
+ *  time the tick actually ran, which keeps the tuning free of scheduling 
+ *  jitter.</p>
+ *  
+ *  <p>Any number of envelopes (up to the scheduler's capacity) may overlap.
+ *  The number of envelope updates per tick is bounded; if more envelopes
+ *  are active than that, they are updated in rotation over successive 
+ *  ticks. Where envelopes on the same trajectory overlap, the one 
+ *  scheduled last wins, but only on ticks that update it: under rotation
+ *  an older envelope updated on a tick that skips a newer one holds the
+ *  trajectory until the newer one's turn comes round. Ticks that run 
+ *  later than the configured tolerance are counted. Launch the scheduler
+ *  like any other job, e.g. <tt>scheduler.launch(JMSL.now())</tt>.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class MorphScheduler extends MusicJob {
+
+    // Envelopes waiting to be picked up by the scheduler thread
+    private final ConcurrentLinkedQueue<MorphEnvelope> pending = 
+            new ConcurrentLinkedQueue<MorphEnvelope>();
+    
+    // Active envelopes, only touched on the scheduler thread
+    private final MorphEnvelope[] active;
+    private int activeCount;
+    private final boolean[] finished;
+    private int cursor;
+    
+    private final int maxUpdatesPerTick;
+    
+    // Late tolerance in seconds, one control period unless set explicitly
+    private volatile double lateTolerance;
+    private volatile boolean toleranceSet;
+    
+    // Counters, updated by the scheduler thread and reset from any thread,
+    // both under counterLock
+    private final Object counterLock = new Object();
+    private volatile long tickCount;
+    private volatile long lateTickCount;
+    private volatile long droppedCount;
+    private volatile double maxLateness;
+    
+    /**
+     * @param controlRate       number of control ticks per second
+     * @param capacity          maximum number of simultaneous envelopes
+     * @param maxUpdatesPerTick maximum number of envelopes updated per tick
+     */
+    public MorphScheduler(double controlRate, int capacity, 
+            int maxUpdatesPerTick) {
+        if (controlRate <= 0 || capacity < 1 || maxUpdatesPerTick < 1) {
+            throw new IllegalArgumentException("Invalid scheduler settings");
+        }
+        active = new MorphEnvelope[capacity];
+        finished = new boolean[capacity];
+        this.maxUpdatesPerTick = maxUpdatesPerTick;
+        lateTolerance = 1.0 / controlRate;
+        setRepeatPause(1.0 / controlRate);
+        setRepeats(Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Schedules an envelope. Safe to call from any thread.
+     * 
+     * @param envelope the envelope to run
+     */
+    public void schedule(MorphEnvelope envelope) {
+        pending.add(envelope);
+    }
+    
+    /**
+     * Sets how late (in seconds) a tick may run before it is counted as late.
+     * Defaults to one control period.
+     * 
+     * @param seconds late tolerance
+     */
+    public void setLateTolerance(double seconds) {
+        lateTolerance = seconds;
+        toleranceSet = true;
+    }
+    
+    /**
+     * Sets the control rate. Unless a late tolerance has been set, it 
+     * follows the new control period.
+     * 
+     * @param controlRate number of control ticks per second
+     */
+    public void setControlRate(double controlRate) {
+        if (controlRate <= 0) {
+            throw new IllegalArgumentException("Invalid control rate " 
+                    + controlRate);
+        }
+        setRepeatPause(1.0 / controlRate);
+        if (!toleranceSet) {
+            lateTolerance = 1.0 / controlRate;
+        }
+    }
+    
+    // Move newly scheduled envelopes into free slots. Envelopes that do not 
+    // fit are dropped and counted.
+    private void admitPending() {
+        MorphEnvelope env;
+        while ((env = pending.poll()) != null) {
+            if (activeCount < active.length) {
+                active[activeCount++] = env;
+            } else {
+                synchronized (counterLock) {
+                    droppedCount++;
+                }
+            }
+        }
+    }
+    
+    // Remove the envelope at slot i, keeping the remaining envelopes in the
+    // order they were scheduled so that later envelopes win on overlap.
+    private void remove(int i) {
+        System.arraycopy(active, i + 1, active, i, activeCount - i - 1);
+        System.arraycopy(finished, i + 1, finished, i, activeCount - i - 1);
+        active[--activeCount] = null;
+        finished[activeCount] = false;
+        if (cursor > i) {
+            cursor--;
+        }
+    }
+    
+    // Update the envelope at slot i, if it has started
+    private void update(int i, double playTime) {
+        MorphEnvelope env = active[i];
+        if (playTime >= env.getStartTime()) {
+            env.update(playTime);
+            finished[i] = playTime >= env.getEndTime();
+        }
+    }
+    
+    @Override
+    public double repeat(double playTime) throws InterruptedException {
+        double lateness = JMSL.now() - playTime;
+        synchronized (counterLock) {
+            tickCount++;
+            if (lateness > lateTolerance) {
+                lateTickCount++;
+            }
+            if (lateness > maxLateness) {
+                maxLateness = lateness;
+            }
+        }
+        
+        admitPending();
+        
+        // Update in scheduling order so that later envelopes win where they
+        // overlap. If there are more active envelopes than the per-tick 
+        // limit, carry on from where the previous tick stopped; the slots
+        // that wrap round to the start are updated first, so the order 
+        // still holds among the envelopes updated this tick.
+        int updates = Math.min(activeCount, maxUpdatesPerTick);
+        int start = (activeCount <= maxUpdatesPerTick || activeCount == 0) 
+                ? 0 : cursor % activeCount;
+        int wrapped = Math.max(0, start + updates - activeCount);
+        for (int i = 0; i < wrapped; i++) {
+            update(i, playTime);
+        }
+        for (int i = start; i < start + updates - wrapped; i++) {
+            update(i, playTime);
+        }
+        cursor = start + updates;
+        
+        // Retire envelopes that received their final update this tick
+        for (int i = activeCount - 1; i >= 0; i--) {
+            if (finished[i]) {
+                finished[i] = false;
+                remove(i);
+            }
+        }
+        return playTime;
+    }
+    
+    /**
+     * Resets the tick counters. Safe to call from any thread while the 
+     * scheduler is running.
+     */
+    public void resetCounters() {
+        synchronized (counterLock) {
+            tickCount = 0;
+            lateTickCount = 0;
+            droppedCount = 0;
+            maxLateness = 0;
+        }
+    }
+    
+    // Getters
+    public int getActiveCount() { return activeCount; }
+    public long getTickCount() { return tickCount; }
+    public long getLateTickCount() { return lateTickCount; }
+    public long getDroppedCount() { return droppedCount; }
+    public double getMaxLateness() { return maxLateness; }
+    public double getLateTolerance() { return lateTolerance; }
+    public int getMaxUpdatesPerTick() { return maxUpdatesPerTick; }
+
+}
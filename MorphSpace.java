@@ -0,0 +1,376 @@
+package com.adriantregonning.javamusic;
+
+import java.util.Arrays;
+
+/******************************************************************************
+ * <p>Compilation           : javac MorphSpace.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningTrajectory,
+ *                            com.adriantregonning.javamusic.MorphSpacePad</p>
+ *
+ *  <p> A morph space of any number of dimensions in which tunings are placed
+ *  as anchors. Where makeInterpolatedTuning() blends two tables along a
+ *  single index, a control position here blends all the anchors, weighted
+ *  by inverse distance. Weights sum to one and a position on an anchor, to
+ *  within the cache quantum, gives exactly its table. With neighbours set,
+ *  only that many of the nearest anchors contribute, and weights fall to
+ *  zero at the next nearest anchor so the blend stays continuous.</p>
+ *
+ *  <p>Anchors are resampled to a common number of degrees and stored flat,
+ *  as ratios and as log-ratios. Weights are cached per position, with
+ *  positions rounded to a quantum (0.001 by default), so a control that
+ *  revisits positions, such as an XY pad, only pays for the blend: a fused
+ *  multiply-add pass over the anchors with non-zero weight, into a
+ *  preallocated table. The LINEAR blend mixes ratios; the EXPONENTIAL
+ *  blend mixes log-ratios, i.e. pitch. A space is not thread-safe.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class MorphSpace {
+
+    // Blend types, as in TuningMorpher
+    public static final int LINEAR = TuningMorpher.LINEAR;
+    public static final int EXPONENTIAL = TuningMorpher.EXPONENTIAL;
+
+    private static final int CACHE_SIZE = 1024;
+
+    private final int dims;
+    private final int steps;
+
+    // Anchors: positions [k * dims + d], tables [k * steps + i]
+    private int count;
+    private double[] positions = new double[0];
+    private double[] ratios = new double[0];
+    private double[] logRatios = new double[0];
+    private double[] periods = new double[0];
+
+    private double power = 2;
+    private int neighbours;             // 0 for all anchors
+    private double quantum = 0.001;
+
+    // Weight cache: quantised positions [slot * dims + d], and the anchors
+    // with non-zero weight [slot * capacity + j] and their weights
+    private final long[] keys;
+    private final boolean[] used = new boolean[CACHE_SIZE];
+    private final int[] cacheCount = new int[CACHE_SIZE];
+    private int[] cacheAnchors = new int[0];
+    private double[] cacheWeights = new double[0];
+    private int cacheCapacity;
+    private int cacheSize;
+
+    // Work space
+    private final long[] quantised;
+    private final double[] point;
+    private double[] distances = new double[0];
+    private double[] sorted = new double[0];
+    private final double[] out;
+
+    /**
+     * @param dims  number of dimensions
+     * @param steps number of degrees of the blended tables
+     */
+    public MorphSpace(int dims, int steps) {
+        if (dims < 1 || steps < 1) {
+            throw new IllegalArgumentException("Invalid morph space size");
+        }
+        this.dims = dims;
+        this.steps = steps;
+        quantised = new long[dims];
+        point = new double[dims];
+        out = new double[steps];
+        keys = new long[CACHE_SIZE * dims];
+    }
+
+    /**
+     * Places a tuning in the space.
+     *
+     * @param position position, one coordinate per dimension
+     * @param tuning   the tuning
+     * @return The anchor's index
+     */
+    public int addAnchor(double[] position, TuningProvider tuning) {
+        return addAnchor(position, tuning.ratios(), tuning.period());
+    }
+
+    /**
+     * Places a table in the space. Tables of a different size are resampled
+     * (see TuningResampler).
+     *
+     * @param position position, one coordinate per dimension
+     * @param table    frequency ratios
+     * @param period   period as a frequency ratio
+     * @return The anchor's index
+     */
+    public int addAnchor(double[] position, double[] table, double period) {
+        if (position.length != dims) {
+            throw new IllegalArgumentException("Position has "
+                    + position.length + " coordinates, not " + dims);
+        }
+        int k = count++;
+        positions = Arrays.copyOf(positions, count * dims);
+        ratios = Arrays.copyOf(ratios, count * steps);
+        logRatios = Arrays.copyOf(logRatios, count * steps);
+        periods = Arrays.copyOf(periods, count);
+        distances = new double[count];
+        sorted = new double[count];
+
+        System.arraycopy(position, 0, positions, k * dims, dims);
+        double[] r = new double[steps];
+        TuningResampler.resample(table, table.length, period, r, steps);
+        System.arraycopy(r, 0, ratios, k * steps, steps);
+        for (int i = 0; i < steps; i++) {
+            logRatios[k * steps + i] = Math.log(r[i]);
+        }
+        periods[k] = period;
+        invalidate();
+        return k;
+    }
+
+    /**
+     * Moves an anchor.
+     *
+     * @param anchor   index of the anchor
+     * @param position new position
+     */
+    public void moveAnchor(int anchor, double[] position) {
+        System.arraycopy(position, 0, positions, anchor * dims, dims);
+        invalidate();
+    }
+
+    /**
+     * Sets the inverse distance power. Higher powers make anchors dominate
+     * more of the space around them. Defaults to 2.
+     *
+     * @param power weight power
+     */
+    public void setPower(double power) {
+        this.power = power;
+        invalidate();
+    }
+
+    /**
+     * Limits blends to the nearest anchors.
+     *
+     * @param neighbours number of anchors that contribute, 0 for all
+     */
+    public void setNeighbours(int neighbours) {
+        this.neighbours = neighbours;
+        invalidate();
+    }
+
+    /**
+     * Sets the grid to which positions are rounded for weight caching.
+     *
+     * @param quantum grid spacing, in position units
+     */
+    public void setQuantum(double quantum) {
+        this.quantum = quantum;
+        invalidate();
+    }
+
+    /**
+     * Empties the weight cache.
+     */
+    public void invalidate() {
+        Arrays.fill(used, false);
+        cacheSize = 0;
+        int capacity = neighbours > 0 && neighbours < count
+                ? neighbours : count;
+        if (capacity != cacheCapacity) {
+            cacheCapacity = capacity;
+            cacheAnchors = new int[CACHE_SIZE * capacity];
+            cacheWeights = new double[CACHE_SIZE * capacity];
+        }
+    }
+
+    // Returns the cache slot holding the weights at a position, computing
+    // them if necessary
+    private int weights(double[] position) {
+        long h = 0;
+        for (int d = 0; d < dims; d++) {
+            quantised[d] = Math.round(position[d] / quantum);
+            h = (h + quantised[d]) * 0x9e3779b97f4a7c15L;
+        }
+        int slot = (int) (h >>> 54);
+        while (used[slot]) {
+            boolean match = true;
+            for (int d = 0; d < dims && match; d++) {
+                match = keys[slot * dims + d] == quantised[d];
+            }
+            if (match) {
+                return slot;
+            }
+            slot = (slot + 1) & (CACHE_SIZE - 1);
+        }
+        if (cacheSize >= CACHE_SIZE / 2) {
+            invalidate();
+            return weights(position);
+        }
+        used[slot] = true;
+        cacheSize++;
+        System.arraycopy(quantised, 0, keys, slot * dims, dims);
+        computeWeights(slot);
+        return slot;
+    }
+
+    // Computes inverse distance weights at the quantised position into a
+    // cache slot
+    private void computeWeights(int slot) {
+        for (int d = 0; d < dims; d++) {
+            point[d] = quantised[d] * quantum;
+        }
+        for (int k = 0; k < count; k++) {
+            double sum = 0;
+            for (int d = 0; d < dims; d++) {
+                double diff = positions[k * dims + d] - point[d];
+                sum += diff * diff;
+            }
+            distances[k] = Math.sqrt(sum);
+        }
+        int base = slot * cacheCapacity;
+
+        // On an anchor, that anchor alone. Anchors are compared on the grid
+        // of the cache keys, so an anchor off the grid is still matched
+        // exactly by the cached cell it falls in.
+        for (int k = 0; k < count; k++) {
+            boolean on = true;
+            for (int d = 0; d < dims && on; d++) {
+                on = Math.round(positions[k * dims + d] / quantum) 
+                        == quantised[d];
+            }
+            if (on) {
+                cacheAnchors[base] = k;
+                cacheWeights[base] = 1;
+                cacheCount[slot] = 1;
+                return;
+            }
+        }
+
+        // Weights fall to zero at the radius of the first anchor left out
+        double radius = Double.POSITIVE_INFINITY;
+        if (cacheCapacity < count) {
+            System.arraycopy(distances, 0, sorted, 0, count);
+            Arrays.sort(sorted, 0, count);
+            radius = sorted[cacheCapacity];
+        }
+        int n = 0;
+        double total = 0;
+        for (int k = 0; k < count && n < cacheCapacity; k++) {
+            double dist = distances[k];
+            if (dist >= radius) {
+                continue;
+            }
+            double w = radius == Double.POSITIVE_INFINITY
+                    ? 1 / dist : (radius - dist) / (radius * dist);
+            w = Math.pow(w, power);
+            cacheAnchors[base + n] = k;
+            cacheWeights[base + n] = w;
+            total += w;
+            n++;
+        }
+        // If the nearest anchors all tie with the first one left out, as at
+        // the centre of a square of anchors, the tied anchors share the 
+        // weight equally
+        if (n == 0) {
+            for (int k = 0; k < count && n < cacheCapacity; k++) {
+                if (distances[k] == radius) {
+                    cacheAnchors[base + n] = k;
+                    cacheWeights[base + n] = 1;
+                    n++;
+                }
+            }
+            total = n;
+        }
+        for (int j = 0; j < n; j++) {
+            cacheWeights[base + j] /= total;
+        }
+        cacheCount[slot] = n;
+    }
+
+    /**
+     * Blends the anchors at a position. Does not allocate once the weights
+     * at the position are cached.
+     *
+     * @param position control position
+     * @param type     LINEAR or EXPONENTIAL
+     * @param result   array of at least getSteps() elements that receives
+     *                 the blended ratios
+     * @return The blended period
+     */
+    public double blend(double[] position, int type, double[] result) {
+        if (count == 0) {
+            throw new IllegalStateException("No anchors have been added");
+        }
+        int slot = weights(position);
+        int base = slot * cacheCapacity;
+        int n = cacheCount[slot];
+        double[] tables = type == EXPONENTIAL ? logRatios : ratios;
+
+        Arrays.fill(result, 0, steps, 0);
+        double logPeriod = 0;
+        for (int j = 0; j < n; j++) {
+            int k = cacheAnchors[base + j];
+            double w = cacheWeights[base + j];
+            int offset = k * steps;
+            for (int i = 0; i < steps; i++) {
+                result[i] = Math.fma(w, tables[offset + i], result[i]);
+            }
+            logPeriod = Math.fma(w, Math.log(periods[k]), logPeriod);
+        }
+        if (type == EXPONENTIAL) {
+            for (int i = 0; i < steps; i++) {
+                result[i] = Math.exp(result[i]);
+            }
+        }
+        return Math.exp(logPeriod);
+    }
+
+    /**
+     * Blends the anchors at a position and updates the target trajectory in
+     * place.
+     *
+     * @param target   the live tuning trajectory to update
+     * @param position control position
+     * @param type     LINEAR or EXPONENTIAL
+     */
+    public void blendInto(TuningTrajectory target, double[] position,
+            int type) {
+        double period = blend(position, type, out);
+        target.updateTable(out, period);
+    }
+
+    /**
+     * Returns the weight of each anchor at a position.
+     *
+     * @param position control position
+     * @param weights  array of at least getAnchorCount() elements
+     */
+    public void getWeights(double[] position, double[] weights) {
+        Arrays.fill(weights, 0, count, 0);
+        int slot = weights(position);
+        int base = slot * cacheCapacity;
+        for (int j = 0; j < cacheCount[slot]; j++) {
+            weights[cacheAnchors[base + j]] = cacheWeights[base + j];
+        }
+    }
+
+    /**
+     * Returns an anchor's position.
+     *
+     * @param anchor index of the anchor
+     * @param d      dimension
+     * @return The coordinate
+     */
+    public double getPosition(int anchor, int d) {
+        return positions[anchor * dims + d];
+    }
+
+    // Getters
+    public int getDimensions() { return dims; }
+    public int getSteps() { return steps; }
+    public int getAnchorCount() { return count; }
+    public double[] getBlendedRatios() { return out; }
+
+}
@@ -0,0 +1,133 @@
+package com.adriantregonning.javamusic;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+import javax.swing.JPanel;
+
+/******************************************************************************
+ * <p>Compilation           : javac MorphSpacePad.java</p>
+ * <p>Dependencies          : javax.swing</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.MorphSpace,
+ *                            com.adriantregonning.javamusic.TuningTrajectoryGUI
+ *                            </p>
+ *
+ *  <p> An XY pad for a two-dimensional MorphSpace whose anchors lie in the 
+ *  unit square. The anchors are drawn with their labels, and clicking or 
+ *  dragging moves the control position. The pad only records the position;
+ *  a control-rate timer or thread collects it with takePosition(), so 
+ *  however fast the mouse moves, the tuning is blended at most once per 
+ *  control period.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+@SuppressWarnings("serial")
+public class MorphSpacePad extends JPanel {
+
+    private static final int MARGIN = 20;
+    private static final int DOT = 8;
+    
+    private final MorphSpace space;
+    private final String[] labels;
+    
+    // Control position in the unit square, and whether it has moved since 
+    // it was last taken
+    private double x = 0.5;
+    private double y = 0.5;
+    private boolean moved;
+    
+    /**
+     * @param space  a two-dimensional morph space
+     * @param labels anchor labels, in anchor order
+     */
+    public MorphSpacePad(MorphSpace space, String[] labels) {
+        if (space.getDimensions() != 2) {
+            throw new IllegalArgumentException("The pad needs a 2-D space");
+        }
+        this.space = space;
+        this.labels = labels;
+        setPreferredSize(new Dimension(300, 300));
+        setBackground(Color.WHITE);
+        
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                moveTo(e.getX(), e.getY());
+            }
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                moveTo(e.getX(), e.getY());
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+    }
+    
+    private int width() {
+        return Math.max(1, getWidth() - 2 * MARGIN);
+    }
+    
+    private int height() {
+        return Math.max(1, getHeight() - 2 * MARGIN);
+    }
+    
+    // Moves the control position to a point on the pad
+    private void moveTo(int px, int py) {
+        synchronized (this) {
+            x = Math.max(0, Math.min(1, (double) (px - MARGIN) / width()));
+            y = Math.max(0, Math.min(1, (double) (py - MARGIN) / height()));
+            moved = true;
+        }
+        repaint();
+    }
+    
+    /**
+     * Copies the control position if it has moved since it was last taken.
+     * 
+     * @param position array of two elements that receives the position
+     * @return true if the position has moved
+     */
+    public synchronized boolean takePosition(double[] position) {
+        if (!moved) {
+            return false;
+        }
+        position[0] = x;
+        position[1] = y;
+        moved = false;
+        return true;
+    }
+    
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        int w = width();
+        int h = height();
+        g.setColor(Color.LIGHT_GRAY);
+        g.drawRect(MARGIN, MARGIN, w, h);
+        
+        g.setColor(Color.BLACK);
+        for (int k = 0; k < space.getAnchorCount(); k++) {
+            int ax = MARGIN + (int) (space.getPosition(k, 0) * w);
+            int ay = MARGIN + (int) (space.getPosition(k, 1) * h);
+            g.fillOval(ax - DOT / 2, ay - DOT / 2, DOT, DOT);
+            if (k < labels.length) {
+                g.drawString(labels[k], ax + DOT, ay);
+            }
+        }
+        
+        double cx, cy;
+        synchronized (this) {
+            cx = x;
+            cy = y;
+        }
+        g.setColor(Color.RED);
+        g.drawOval(MARGIN + (int) (cx * w) - DOT, MARGIN + (int) (cy * h) 
+                - DOT, 2 * DOT, 2 * DOT);
+    }
+
+}
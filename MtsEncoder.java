@@ -0,0 +1,315 @@
+package com.adriantregonning.javamusic;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.SysexMessage;
+
+/******************************************************************************
+ * <p>Compilation           : javac MtsEncoder.java</p>
+ * <p>Dependencies          : javax.sound.midi</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningTrajectory,
+ *                            com.adriantregonning.javamusic.MtsLoopbackReceiver
+ *                            </p>
+ *
+ *  <p> Encodes a TuningTrajectory as MIDI Tuning Standard (MTS) system
+ *  exclusive messages, for synths outside JMSL. bulkDump() writes the
+ *  frequencies of all 128 MIDI notes as a non-real-time bulk tuning dump.
+ *  writeChanges() writes real-time single note tuning change messages for
+ *  only the notes that have moved by more than a threshold (1 cent by
+ *  default) since they were last sent, so a continuous morph costs a
+ *  fraction of the bytes of repeated dumps.</p>
+ *
+ *  <p>Messages are written into caller-supplied ByteBuffers, which can be
+ *  reused; send() and sendChanges() write through an internal buffer to a
+ *  javax.sound.midi Receiver. Frequencies are read straight from the
+ *  trajectory's published table, so encoding does not count as playing
+ *  notes. An encoder is not thread-safe.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class MtsEncoder {
+
+    public static final int NOTES = 128;
+    public static final int ALL_DEVICES = 0x7F;
+
+    // Message lengths in bytes
+    public static final int BULK_DUMP_LENGTH = 408;
+    public static final int MAX_CHANGES_PER_MESSAGE = 127;
+    public static final int MAX_CHANGE_MESSAGE_LENGTH =
+            8 + 4 * MAX_CHANGES_PER_MESSAGE;
+
+    // Frequency of MIDI note 0 in 12-TET, from which MTS counts
+    private static final double NOTE_ZERO_FREQ = 440 * Math.pow(2, -69 / 12.0);
+
+    private final TuningTrajectory traj;
+    private final int device;
+    private final int program;
+    private double threshold = 1.0;
+
+    // Frequencies read from the trajectory, and the encoded tunings (in
+    // units of 100/16384 cents above note 0) and cents last sent
+    private final double[] freqs = new double[NOTES];
+    private final int[] encoded = new int[NOTES];
+    private final double[] sentCents = new double[NOTES];
+    private boolean sent;
+
+    // Notes written but not yet committed as sent, with their tunings
+    private final int[] changed = new int[NOTES];
+    private final int[] pendingEncoded = new int[NOTES];
+    private final double[] pendingCents = new double[NOTES];
+    private int pendingCount;
+
+    // Buffer and message reused by send() and sendChanges()
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(
+            Math.max(BULK_DUMP_LENGTH, 2 * MAX_CHANGE_MESSAGE_LENGTH));
+    private final byte[] message = new byte[
+            Math.max(BULK_DUMP_LENGTH, MAX_CHANGE_MESSAGE_LENGTH)];
+    private final SysexMessage sysex = new SysexMessage();
+
+    /**
+     * @param traj    the trajectory to encode
+     * @param device  MIDI device ID, or ALL_DEVICES
+     * @param program tuning program number, 0-127
+     */
+    public MtsEncoder(TuningTrajectory traj, int device, int program) {
+        if (device < 0 || device > 0x7F || program < 0 || program > 0x7F) {
+            throw new IllegalArgumentException("Device and program must be "
+                    + "0-127");
+        }
+        this.traj = traj;
+        this.device = device;
+        this.program = program;
+    }
+
+    /**
+     * Sets the smallest change in cents that writeChanges() sends.
+     *
+     * @param cents threshold in cents
+     */
+    public void setThreshold(double cents) {
+        threshold = cents;
+    }
+
+    // Reads a consistent set of note frequencies from the trajectory
+    private void readFrequencies() {
+        while (true) {
+            TuningSnapshot snap = traj.getSnapshot();
+            if (snap == null) {
+                throw new IllegalStateException("No table has been set");
+            }
+            int seq = snap.beginRead();
+            for (int n = 0; n < NOTES; n++) {
+                freqs[n] = snap.lookup(n);
+            }
+            if (snap.validate(seq)) {
+                return;
+            }
+        }
+    }
+
+    private static double toCents(double freq) {
+        return 1200 * Math.log(freq / NOTE_ZERO_FREQ) / Math.log(2);
+    }
+
+    /**
+     * Encodes a frequency as an MTS semitone and 14-bit fraction, packed as
+     * <tt>semitone << 14 | fraction</tt>. Frequencies outside the range of
+     * MIDI notes are clamped.
+     *
+     * @param freq frequency in Hz
+     * @return packed tuning
+     */
+    public static int encode(double freq) {
+        long units = Math.round(toCents(freq) * 16384 / 100);
+        // 0x7F 0x7F 0x7F means "no change", so stop one short of it
+        return (int) Math.max(0, Math.min((127 << 14) | 0x3FFE, units));
+    }
+
+    /**
+     * Decodes a packed MTS tuning.
+     *
+     * @param packed <tt>semitone << 14 | fraction</tt>
+     * @return frequency in Hz
+     */
+    public static double decode(int packed) {
+        return NOTE_ZERO_FREQ * Math.pow(2, packed / (16384.0 * 12));
+    }
+
+    private static void putTuning(ByteBuffer out, int packed) {
+        out.put((byte) (packed >>> 14));
+        out.put((byte) ((packed >>> 7) & 0x7F));
+        out.put((byte) (packed & 0x7F));
+    }
+
+    /**
+     * Writes a bulk tuning dump of all 128 notes, and marks them as sent.
+     *
+     * @param out  buffer with at least BULK_DUMP_LENGTH bytes remaining
+     * @param name tuning name, truncated or padded to 16 ASCII characters
+     */
+    public void bulkDump(ByteBuffer out, String name) {
+        writeBulkDump(out, name);
+        commit();
+    }
+
+    // Writes a bulk tuning dump, leaving every note pending
+    private void writeBulkDump(ByteBuffer out, String name) {
+        readFrequencies();
+        int start = out.position();
+        out.put((byte) 0xF0);
+        out.put((byte) 0x7E);
+        out.put((byte) device);
+        out.put((byte) 0x08);
+        out.put((byte) 0x01);
+        out.put((byte) program);
+        byte[] chars = name.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < 16; i++) {
+            out.put(i < chars.length ? (byte) (chars[i] & 0x7F) : (byte) ' ');
+        }
+        for (int n = 0; n < NOTES; n++) {
+            changed[n] = n;
+            pendingEncoded[n] = encode(freqs[n]);
+            pendingCents[n] = toCents(freqs[n]);
+            putTuning(out, pendingEncoded[n]);
+        }
+        pendingCount = NOTES;
+        // Checksum: exclusive OR of the bytes after 0xF0
+        int sum = 0;
+        for (int i = start + 1; i < out.position(); i++) {
+            sum ^= out.get(i);
+        }
+        out.put((byte) (sum & 0x7F));
+        out.put((byte) 0xF7);
+    }
+
+    // Marks the pending notes as sent
+    private void commit() {
+        for (int i = 0; i < pendingCount; i++) {
+            int n = changed[i];
+            encoded[n] = pendingEncoded[n];
+            sentCents[n] = pendingCents[n];
+        }
+        pendingCount = 0;
+        sent = true;
+    }
+
+    /**
+     * Writes real-time single note tuning changes for the notes that have
+     * moved by more than the threshold since they were last sent, in
+     * messages of up to 127 notes, and marks them as sent. If nothing has
+     * been sent yet, every note counts as changed.
+     *
+     * @param out buffer to write to; 2 * MAX_CHANGE_MESSAGE_LENGTH bytes are
+     *            always enough
+     * @return the number of notes written
+     */
+    public int writeChanges(ByteBuffer out) {
+        int count = writePendingChanges(out);
+        commit();
+        return count;
+    }
+
+    // Writes single note tuning changes, leaving the notes pending
+    private int writePendingChanges(ByteBuffer out) {
+        readFrequencies();
+        int count = 0;
+        for (int n = 0; n < NOTES; n++) {
+            double cents = toCents(freqs[n]);
+            if (!sent || Math.abs(cents - sentCents[n]) > threshold) {
+                int packed = encode(freqs[n]);
+                if (!sent || packed != encoded[n]) {
+                    pendingEncoded[n] = packed;
+                    pendingCents[n] = cents;
+                    changed[count++] = n;
+                }
+            }
+        }
+        pendingCount = count;
+        for (int from = 0; from < count; from += MAX_CHANGES_PER_MESSAGE) {
+            int notes = Math.min(MAX_CHANGES_PER_MESSAGE, count - from);
+            out.put((byte) 0xF0);
+            out.put((byte) 0x7F);
+            out.put((byte) device);
+            out.put((byte) 0x08);
+            out.put((byte) 0x02);
+            out.put((byte) program);
+            out.put((byte) notes);
+            for (int i = from; i < from + notes; i++) {
+                int n = changed[i];
+                out.put((byte) n);
+                putTuning(out, pendingEncoded[n]);
+            }
+            out.put((byte) 0xF7);
+        }
+        return count;
+    }
+
+    /**
+     * Sends a bulk tuning dump to a receiver. The notes only count as sent
+     * once the message has been accepted.
+     *
+     * @param receiver the receiver
+     * @param name     tuning name
+     * @throws InvalidMidiDataException if the message is rejected
+     */
+    public void send(Receiver receiver, String name)
+            throws InvalidMidiDataException {
+        sendBuffer.clear();
+        writeBulkDump(sendBuffer, name);
+        sendMessages(receiver);
+        commit();
+    }
+
+    /**
+     * Sends single note tuning changes to a receiver (see writeChanges()).
+     * If a message is rejected no note counts as sent, so the next call
+     * sends them all again.
+     *
+     * @param receiver the receiver
+     * @return the number of notes sent
+     * @throws InvalidMidiDataException if a message is rejected
+     */
+    public int sendChanges(Receiver receiver)
+            throws InvalidMidiDataException {
+        sendBuffer.clear();
+        int count = writePendingChanges(sendBuffer);
+        sendMessages(receiver);
+        commit();
+        return count;
+    }
+
+    // Sends each system exclusive message in the send buffer
+    private void sendMessages(Receiver receiver)
+            throws InvalidMidiDataException {
+        byte[] data = sendBuffer.array();
+        int end = sendBuffer.position();
+        int start = 0;
+        for (int i = 0; i < end; i++) {
+            if (data[i] == (byte) 0xF7) {
+                int length = i + 1 - start;
+                System.arraycopy(data, start, message, 0, length);
+                sysex.setMessage(message, length);
+                receiver.send(sysex, -1);
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Forgets what has been sent, so that the next writeChanges() sends
+     * every note.
+     */
+    public void reset() {
+        sent = false;
+    }
+
+    // Getters
+    public TuningTrajectory getTrajectory() { return traj; }
+    public double getThreshold() { return threshold; }
+
+}
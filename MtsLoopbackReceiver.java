@@ -0,0 +1,155 @@
+package com.adriantregonning.javamusic;
+
+import java.nio.ByteBuffer;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+/******************************************************************************
+ * <p>Compilation           : javac MtsLoopbackReceiver.java</p>
+ * <p>Dependencies          : javax.sound.midi</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.MtsEncoder</p>
+ *
+ *  <p> A local stand-in for a synth that understands the MIDI Tuning 
+ *  Standard. It decodes bulk tuning dumps and single note tuning changes,
+ *  sent as MIDI messages or read from a ByteBuffer, into the frequency of 
+ *  each MIDI note, so that MtsEncoder output can be checked without 
+ *  hardware. Messages for other devices or programs, and malformed 
+ *  messages, are counted and ignored.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class MtsLoopbackReceiver implements Receiver {
+
+    private final int device;
+    private final int program;
+    
+    // Current tuning of each note, packed as in MtsEncoder.encode()
+    private final int[] tunings = new int[MtsEncoder.NOTES];
+    
+    private long messages;
+    private long bytes;
+    private long rejected;
+    
+    /**
+     * Creates a receiver with 12-TET tuning.
+     * 
+     * @param device  MIDI device ID to respond to (ALL_DEVICES messages are 
+     *                always accepted)
+     * @param program tuning program to respond to
+     */
+    public MtsLoopbackReceiver(int device, int program) {
+        this.device = device;
+        this.program = program;
+        for (int n = 0; n < MtsEncoder.NOTES; n++) {
+            tunings[n] = n << 14;
+        }
+    }
+    
+    @Override
+    public synchronized void send(MidiMessage message, long timeStamp) {
+        accept(ByteBuffer.wrap(message.getMessage(), 0, message.getLength()));
+    }
+    
+    @Override
+    public void close() {
+    }
+    
+    private static int getTuning(ByteBuffer in) {
+        return (in.get() & 0x7F) << 14 | (in.get() & 0x7F) << 7 
+                | (in.get() & 0x7F);
+    }
+    
+    /**
+     * Decodes all the messages remaining in a buffer.
+     * 
+     * @param in buffer of system exclusive messages
+     */
+    public synchronized void accept(ByteBuffer in) {
+        while (in.remaining() >= 6) {
+            int start = in.position();
+            if (!acceptMessage(in)) {
+                rejected++;
+                // Skip to the end of the message
+                in.position(start + 1);
+                while (in.hasRemaining() && in.get() != (byte) 0xF7) {
+                }
+            }
+            bytes += in.position() - start;
+        }
+    }
+    
+    private boolean acceptMessage(ByteBuffer in) {
+        int start = in.position();
+        if (in.get() != (byte) 0xF0) {
+            return false;
+        }
+        int kind = in.get() & 0xFF;
+        int dev = in.get() & 0xFF;
+        if (in.get() != 0x08 || (dev != device 
+                && dev != MtsEncoder.ALL_DEVICES)) {
+            return false;
+        }
+        int format = in.get();
+        if (kind == 0x7E && format == 0x01) {
+            if (in.remaining() < 1 + 16 + 3 * MtsEncoder.NOTES + 2 
+                    || in.get() != program) {
+                return false;
+            }
+            in.position(in.position() + 16);
+            int[] dump = new int[MtsEncoder.NOTES];
+            for (int n = 0; n < MtsEncoder.NOTES; n++) {
+                dump[n] = getTuning(in);
+            }
+            int sum = 0;
+            for (int i = start + 1; i < in.position(); i++) {
+                sum ^= in.get(i);
+            }
+            if ((in.get() & 0x7F) != (sum & 0x7F) || in.get() != (byte) 0xF7) {
+                return false;
+            }
+            System.arraycopy(dump, 0, tunings, 0, MtsEncoder.NOTES);
+        } else if (kind == 0x7F && format == 0x02) {
+            if (in.remaining() < 2 || in.get() != program) {
+                return false;
+            }
+            int count = in.get();
+            if (in.remaining() < 4 * count + 1) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                int note = in.get() & 0x7F;
+                int tuning = getTuning(in);
+                // 0x7F 0x7F 0x7F leaves the note unchanged
+                if (tuning != 0x1FFFFF) {
+                    tunings[note] = tuning;
+                }
+            }
+            if (in.get() != (byte) 0xF7) {
+                return false;
+            }
+        } else {
+            return false;
+        }
+        messages++;
+        return true;
+    }
+    
+    /**
+     * Returns the frequency the receiver would play for a MIDI note.
+     * 
+     * @param note MIDI note, 0-127
+     * @return frequency in Hz
+     */
+    public synchronized double getFrequency(int note) {
+        return MtsEncoder.decode(tunings[note]);
+    }
+    
+    // Getters
+    public synchronized long getMessageCount() { return messages; }
+    public synchronized long getByteCount() { return bytes; }
+    public synchronized long getRejectedCount() { return rejected; }
+
+}
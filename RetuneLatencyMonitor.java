@@ -0,0 +1,253 @@
+package com.adriantregonning.javamusic;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/******************************************************************************
+ * <p>Compilation           : javac RetuneLatencyMonitor.java</p>
+ * <p>Dependencies          : javax.management</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.LatencyHistogram,
+ *                            com.adriantregonning.javamusic.TuningTrajectory</p>
+ *
+ *  <p> Measures end-to-end retune latency, from a change of the morph fader
+ *  to the first note played at the new tuning. begin() is called when a 
+ *  retune starts and mark() as it passes each stage. The TuningTrajectory
+ *  the monitor is attached to marks INTERPOLATED when it is handed the 
+ *  new table, ORCHESTRA once the table is live, and FIRST_NOTE on the 
+ *  first frequency lookup after that. The time from begin() to each stage
+ *  is recorded in a LatencyHistogram, without allocation.</p>
+ *  
+ *  <p>The histograms are available through JMX (see register()) and can be
+ *  printed periodically (see startDump()).</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class RetuneLatencyMonitor implements RetuneLatencyMonitorMBean {
+
+    /**
+     * Stages of a retune, in the order they are passed.
+     */
+    public enum Stage {
+        ACTION,         // Retune requested, e.g. actionPerformed()
+        INTERPOLATED,   // New table computed, as by makeInterpolatedTuning()
+        ORCHESTRA,      // New table live in the orchestra's tuning, as 
+                        // set by setOrchestraTuning()
+        DISPLAYED,      // New table shown in the GUI
+        FIRST_NOTE      // First frequency lookup at the new tuning
+    }
+    
+    private static final Stage[] STAGES = Stage.values();
+    
+    // Start time while no retune is being timed. System.nanoTime() may be 
+    // 0 or negative, so no ordinary time can serve.
+    private static final long IDLE = Long.MIN_VALUE;
+    
+    private final LatencyHistogram[] histograms = 
+            new LatencyHistogram[STAGES.length];
+    
+    // Start of the retune in progress, IDLE if none
+    private final AtomicLong start = new AtomicLong(IDLE);
+    // Set when a table has been published and no note has been played yet
+    private final AtomicBoolean awaitingNote = new AtomicBoolean();
+    
+    private ScheduledExecutorService dumper;
+    
+    public RetuneLatencyMonitor() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+    
+    /**
+     * Starts timing a retune, e.g. when the fader moves. If a retune is 
+     * already being timed and has not been published yet, its start time 
+     * is kept, so a burst of fader events is measured from the first event.
+     * A published retune still waiting for its first note is abandoned.
+     */
+    public void begin() {
+        begin(System.nanoTime());
+    }
+    
+    private void begin(long now) {
+        if (awaitingNote.getAndSet(false)) {
+            start.set(now);
+        } else {
+            start.compareAndSet(IDLE, now);
+        }
+    }
+    
+    /**
+     * Records that the current retune has reached a stage. If no retune is
+     * being timed, marking ACTION starts one.
+     * 
+     * @param stage the stage reached
+     */
+    public void mark(Stage stage) {
+        long now = System.nanoTime();
+        if (stage == Stage.ACTION) {
+            begin(now);
+        }
+        long t0 = start.get();
+        if (t0 == IDLE) {
+            return;
+        }
+        histograms[stage.ordinal()].record(now - t0);
+        if (stage == Stage.ORCHESTRA) {
+            awaitingNote.set(true);
+        }
+    }
+    
+    /**
+     * Called on every frequency lookup. Records FIRST_NOTE for the first 
+     * lookup after a table has gone live and ends the retune.
+     */
+    public void notePlayed() {
+        if (awaitingNote.get() && awaitingNote.compareAndSet(true, false)) {
+            long t0 = start.getAndSet(IDLE);
+            if (t0 != IDLE) {
+                histograms[Stage.FIRST_NOTE.ordinal()].record(
+                        System.nanoTime() - t0);
+            }
+        }
+    }
+    
+    /**
+     * Returns the histogram for a stage.
+     * 
+     * @param stage the stage
+     * @return The stage's latency histogram
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+    
+    /**
+     * Registers the monitor with the platform MBean server.
+     * 
+     * @param name name to register under, e.g. 
+     *             "com.adriantregonning.javamusic:type=RetuneLatency"
+     * @throws JMException if the monitor cannot be registered
+     */
+    public void register(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, 
+                new ObjectName(name));
+    }
+    
+    /**
+     * Prints a report to the given stream at a fixed period, from a daemon
+     * thread.
+     * 
+     * @param periodSeconds time between reports
+     * @param out           stream to print to
+     */
+    public synchronized void startDump(long periodSeconds, 
+            final PrintStream out) {
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RetuneLatencyMonitor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        dumper.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                out.print(dump());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Stops periodic reports.
+     */
+    public synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdown();
+            dumper = null;
+        }
+    }
+    
+    // Converts a value per stage to microseconds
+    private interface Metric {
+        double get(LatencyHistogram h);
+    }
+    
+    private double[] micros(Metric m) {
+        double[] values = new double[histograms.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = m.get(histograms[i]) / 1000.0;
+        }
+        return values;
+    }
+    
+    public String[] getStages() {
+        String[] names = new String[STAGES.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = STAGES[i].name();
+        }
+        return names;
+    }
+    
+    public long[] getCounts() {
+        long[] counts = new long[histograms.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = histograms[i].getCount();
+        }
+        return counts;
+    }
+    
+    public double[] getMeanMicros() {
+        return micros(new Metric() {
+            public double get(LatencyHistogram h) { return h.getMean(); }
+        });
+    }
+    
+    public double[] getMedianMicros() {
+        return micros(new Metric() {
+            public double get(LatencyHistogram h) { return h.percentile(0.5); }
+        });
+    }
+    
+    public double[] getPercentile99Micros() {
+        return micros(new Metric() {
+            public double get(LatencyHistogram h) { return h.percentile(0.99); }
+        });
+    }
+    
+    public double[] getMaxMicros() {
+        return micros(new Metric() {
+            public double get(LatencyHistogram h) { return h.getMax(); }
+        });
+    }
+    
+    public String dump() {
+        StringBuilder sb = new StringBuilder("Retune latency (us):\n");
+        for (int i = 0; i < STAGES.length; i++) {
+            LatencyHistogram h = histograms[i];
+            sb.append(String.format("  %-10s n=%-8d mean=%-10.1f p50=%-10.1f "
+                    + "p99=%-10.1f max=%.1f%n", STAGES[i], h.getCount(), 
+                    h.getMean() / 1000, h.percentile(0.5) / 1000.0, 
+                    h.percentile(0.99) / 1000.0, h.getMax() / 1000.0));
+        }
+        return sb.toString();
+    }
+    
+    public void reset() {
+        for (LatencyHistogram h : histograms) {
+            h.reset();
+        }
+    }
+
+}
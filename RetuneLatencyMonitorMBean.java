@@ -0,0 +1,37 @@
+package com.adriantregonning.javamusic;
+
+/******************************************************************************
+ * <p>Compilation           : javac RetuneLatencyMonitorMBean.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.
+ *                            RetuneLatencyMonitor</p>
+ *
+ *  <p> JMX management interface of the RetuneLatencyMonitor. Latencies are
+ *  measured from the start of a retune (normally the fader movement) to 
+ *  each stage, and are reported in microseconds, one array element per 
+ *  stage in the order given by getStages().</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public interface RetuneLatencyMonitorMBean {
+
+    String[] getStages();
+    long[] getCounts();
+    double[] getMeanMicros();
+    double[] getMedianMicros();
+    double[] getPercentile99Micros();
+    double[] getMaxMicros();
+    
+    /**
+     * @return A text report of all stages
+     */
+    String dump();
+    
+    /**
+     * Clears all histograms.
+     */
+    void reset();
+
+}
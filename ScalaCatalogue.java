@@ -0,0 +1,292 @@
+package com.adriantregonning.javamusic;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/******************************************************************************
+ * <p>Compilation           : javac ScalaCatalogue.java</p>
+ * <p>Dependencies          : java.nio</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.ScalaScale</p>
+ *
+ *  <p> A compact binary catalogue of Scala scales. The catalogue is built 
+ *  once from a directory of <tt>.scl</tt> files (such as the Scala scale 
+ *  archive) and is then memory-mapped when opened, so any scale can be 
+ *  listed and loaded without parsing text files.</p>
+ *  
+ *  <p>File layout (big-endian):</p>
+ *  <pre>
+ *  header  : int magic, int format version, int scale count
+ *  index   : per scale, sorted by name -
+ *            int name offset, int name length (bytes), 
+ *            int ratio offset (in doubles), int steps, double period
+ *  names   : UTF-8 scale names (file names without ".scl")
+ *  ratios  : doubles, steps per scale
+ *  </pre>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class ScalaCatalogue {
+
+    private static final int MAGIC = 0x53434c43;       // "SCLC"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+    private static final int ENTRY_BYTES = 24;
+    
+    private final MappedByteBuffer map;
+    private final DoubleBuffer ratioData;
+    private final int count;
+    private final int namesStart;
+    
+    // Scale names, decoded on first use
+    private String[] names;
+    
+    private ScalaCatalogue(MappedByteBuffer map) throws IOException {
+        this.map = map;
+        if (map.getInt(0) != MAGIC || map.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a scale catalogue");
+        }
+        count = map.getInt(8);
+        namesStart = HEADER_BYTES + count * ENTRY_BYTES;
+        
+        // Names are stored in index order and the ratio block follows the 
+        // last of them, aligned to 8 bytes
+        int namesEnd = namesStart;
+        if (count > 0) {
+            int last = entry(count - 1);
+            namesEnd = map.getInt(last) + map.getInt(last + 4);
+        }
+        int ratiosStart = align8(namesEnd);
+        ByteBuffer dup = map.duplicate();
+        dup.position(ratiosStart);
+        ratioData = dup.slice().order(ByteOrder.BIG_ENDIAN).asDoubleBuffer();
+    }
+    
+    private static int align8(int n) {
+        return (n + 7) & ~7;
+    }
+    
+    // Byte offset of an index entry
+    private int entry(int i) {
+        return HEADER_BYTES + i * ENTRY_BYTES;
+    }
+    
+    /**
+     * Builds a catalogue from all <tt>.scl</tt> files in a directory. Files
+     * that cannot be parsed are reported and skipped.
+     * 
+     * @param sclDir directory containing <tt>.scl</tt> files
+     * @param out    catalogue file to write
+     * @return The number of scales written
+     * @throws IOException if the directory or output cannot be accessed
+     */
+    public static int build(Path sclDir, Path out) throws IOException {
+        final List<String> names = new ArrayList<String>();
+        final List<ScalaScale> scales = new ArrayList<ScalaScale>();
+        List<Integer> order = new ArrayList<Integer>();
+        
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(sclDir, 
+                "*.scl")) {
+            for (Path file : dir) {
+                // Scala archive files are Latin-1 rather than UTF-8
+                try (Reader in = Files.newBufferedReader(file, 
+                        StandardCharsets.ISO_8859_1)) {
+                    scales.add(ScalaScale.readScl(in));
+                    String name = file.getFileName().toString();
+                    names.add(name.substring(0, name.length() - 4));
+                    order.add(order.size());
+                } catch (IOException e) {
+                    System.err.println("Error: skipping " + file + " - " 
+                            + e.getMessage());
+                }
+            }
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return names.get(a).compareTo(names.get(b));
+            }
+        });
+        
+        int count = order.size();
+        byte[][] nameBytes = new byte[count][];
+        int nameTotal = 0;
+        int ratioTotal = 0;
+        for (int i = 0; i < count; i++) {
+            nameBytes[i] = names.get(order.get(i)).getBytes(
+                    StandardCharsets.UTF_8);
+            nameTotal += nameBytes[i].length;
+            ratioTotal += scales.get(order.get(i)).getSteps();
+        }
+        int ratiosStart = align8(HEADER_BYTES + count * ENTRY_BYTES + nameTotal);
+        ByteBuffer buf = ByteBuffer.allocate(ratiosStart + 8 * ratioTotal);
+        
+        buf.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(count);
+        int nameOffset = HEADER_BYTES + count * ENTRY_BYTES;
+        int ratioOffset = 0;
+        for (int i = 0; i < count; i++) {
+            ScalaScale scale = scales.get(order.get(i));
+            buf.putInt(nameOffset).putInt(nameBytes[i].length)
+                    .putInt(ratioOffset).putInt(scale.getSteps())
+                    .putDouble(scale.getPeriod());
+            nameOffset += nameBytes[i].length;
+            ratioOffset += scale.getSteps();
+        }
+        for (int i = 0; i < count; i++) {
+            buf.put(nameBytes[i]);
+        }
+        buf.position(ratiosStart);
+        for (int i = 0; i < count; i++) {
+            for (double r : scales.get(order.get(i)).getRatios()) {
+                buf.putDouble(r);
+            }
+        }
+        buf.flip();
+        
+        try (FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Opens a catalogue by memory-mapping it.
+     * 
+     * @param file catalogue file written by build()
+     * @return The opened catalogue
+     * @throws IOException if the file cannot be read or is not a catalogue
+     */
+    public static ScalaCatalogue open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new ScalaCatalogue(
+                    ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+    
+    /**
+     * Returns the name of a scale.
+     * 
+     * @param i index of the scale
+     * @return The scale's name
+     */
+    public String getName(int i) {
+        return getNames()[i];
+    }
+    
+    /**
+     * Returns the names of all scales, in index order (sorted by name).
+     * 
+     * @return array of scale names
+     */
+    public synchronized String[] getNames() {
+        if (names == null) {
+            String[] decoded = new String[count];
+            for (int i = 0; i < count; i++) {
+                int e = entry(i);
+                byte[] bytes = new byte[map.getInt(e + 4)];
+                ByteBuffer dup = map.duplicate();
+                dup.position(map.getInt(e));
+                dup.get(bytes);
+                decoded[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            names = decoded;
+        }
+        return names;
+    }
+    
+    /**
+     * Finds a scale by name.
+     * 
+     * @param name the scale's name (file name without ".scl")
+     * @return index of the scale, or a negative value if not found
+     */
+    public int find(String name) {
+        return Arrays.binarySearch(getNames(), name);
+    }
+    
+    /**
+     * Returns the number of degrees of a scale.
+     * 
+     * @param i index of the scale
+     * @return number of degrees
+     */
+    public int getSteps(int i) {
+        return map.getInt(entry(i) + 12);
+    }
+    
+    /**
+     * Returns the period ratio of a scale.
+     * 
+     * @param i index of the scale
+     * @return period ratio (2.0 for an octave)
+     */
+    public double getPeriod(int i) {
+        return map.getDouble(entry(i) + 16);
+    }
+    
+    /**
+     * Copies a scale's ratios into the supplied array.
+     * 
+     * @param i   index of the scale
+     * @param out array of at least getSteps(i) elements
+     */
+    public void getRatios(int i, double[] out) {
+        int e = entry(i);
+        int offset = map.getInt(e + 8);
+        int steps = map.getInt(e + 12);
+        for (int k = 0; k < steps; k++) {
+            out[k] = ratioData.get(offset + k);
+        }
+    }
+    
+    /**
+     * Returns a scale from the catalogue.
+     * 
+     * @param i index of the scale
+     * @return The scale
+     */
+    public ScalaScale getScale(int i) {
+        double[] ratios = new double[getSteps(i)];
+        getRatios(i, ratios);
+        return new ScalaScale(getName(i), ratios, getPeriod(i));
+    }
+    
+    // Getter
+    public int size() { return count; }
+    
+    /**
+     * Builds a catalogue from the command line.
+     * 
+     * @param args directory of <tt>.scl</tt> files, output file
+     * @throws IOException if the catalogue cannot be built
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ScalaCatalogue <scl directory> <output>");
+            System.exit(1);
+        }
+        int n = build(Paths.get(args[0]), 
+                Paths.get(args[1]));
+        System.out.println("Wrote " + n + " scales to " + args[1]);
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.adriantregonning.javamusic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/******************************************************************************
+ * <p>Compilation           : javac ScalaScale.java</p>
+ * <p>Dependencies          : java.io</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.ScalaCatalogue,
+ *                            com.adriantregonning.javamusic.TuningTrajectory</p>
+ *
+ *  <p> A scale read from a Scala <tt>.scl</tt> file, optionally with the
+ *  reference pitch and frequency from a Scala <tt>.kbm</tt> keyboard 
+ *  mapping. Files are parsed line by line from a Reader, and the result can
+ *  be applied directly to a TuningTrajectory.</p>
+ *  
+ *  <p>A <tt>.scl</tt> file lists the pitches of scale degrees 1..n in cents
+ *  (any value containing a '.') or as ratios ("3/2", or "2" for 2/1); the
+ *  last pitch is the period of the scale. The ratios held here start with 
+ *  the implied 1/1 of degree 0 and exclude the period, so a twelve-note
+ *  scale gives twelve ratios. Of a <tt>.kbm</tt> file only the middle note,
+ *  reference note and reference frequency are used; the per-key mapping is
+ *  ignored and the scale is mapped linearly.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class ScalaScale {
+
+    private final String description;
+    private final double[] ratios;
+    private final double period;
+    
+    // Keyboard mapping: pitch of degree 0 and its frequency in Hz
+    private double refPitch = TuningTrajectory.Tunings.refPitch;
+    private double refFreq = TuningTrajectory.Tunings.refFreq;
+    
+    /**
+     * @param description scale description
+     * @param ratios      ratios of degrees 0..n-1, starting with 1.0
+     * @param period      ratio of the scale period (2.0 for an octave)
+     */
+    public ScalaScale(String description, double[] ratios, double period) {
+        this.description = description;
+        this.ratios = ratios;
+        this.period = period;
+    }
+    
+    // Returns the next line that is not a comment, or null at end of input
+    private static String nextLine(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!line.startsWith("!")) {
+                return line;
+            }
+        }
+        return null;
+    }
+    
+    // Returns the next non-comment line, failing at end of input
+    private static String requireLine(BufferedReader in, String what) 
+            throws IOException {
+        String line = nextLine(in);
+        if (line == null) {
+            throw new IOException("Unexpected end of file, expected " + what);
+        }
+        return line.trim();
+    }
+    
+    // Returns the first whitespace-separated token of a line
+    private static String firstToken(String line) {
+        int end = 0;
+        while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+            end++;
+        }
+        return line.substring(0, end);
+    }
+    
+    /**
+     * Parses a pitch value from a <tt>.scl</tt> file.
+     * 
+     * @param token pitch in cents (containing '.') or as a ratio
+     * @return The frequency ratio
+     * @throws NumberFormatException if the token is not a finite pitch, or
+     *         is a ratio that is not positive
+     */
+    public static double parsePitch(String token) {
+        double ratio;
+        if (token.indexOf('.') >= 0) {
+            ratio = Math.pow(2.0, Double.parseDouble(token) / 1200.0);
+        } else {
+            int slash = token.indexOf('/');
+            if (slash < 0) {
+                ratio = Double.parseDouble(token);
+            } else {
+                double num = Double.parseDouble(token.substring(0, slash));
+                double den = Double.parseDouble(token.substring(slash + 1));
+                if (!(num > 0) || !(den > 0)) {
+                    throw new NumberFormatException("Invalid ratio " + token);
+                }
+                ratio = num / den;
+            }
+        }
+        if (!(ratio > 0) || Double.isInfinite(ratio)) {
+            throw new NumberFormatException("Invalid pitch " + token);
+        }
+        return ratio;
+    }
+    
+    /**
+     * Reads a scale from <tt>.scl</tt> data. The reader is not closed.
+     * 
+     * @param reader source of <tt>.scl</tt> data
+     * @return The parsed scale
+     * @throws IOException if the data cannot be read or is malformed
+     */
+    public static ScalaScale readScl(Reader reader) throws IOException {
+        BufferedReader in = reader instanceof BufferedReader 
+                ? (BufferedReader) reader : new BufferedReader(reader);
+        String description = nextLine(in);
+        if (description == null) {
+            throw new IOException("Empty scale file");
+        }
+        int notes;
+        try {
+            notes = Integer.parseInt(firstToken(requireLine(in, "note count")));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid note count - " + e.getMessage());
+        }
+        if (notes < 1) {
+            throw new IOException("Scale must have at least one note");
+        }
+        
+        double[] ratios = new double[notes];
+        ratios[0] = 1.0;
+        double period = 2.0;
+        for (int i = 1; i <= notes; i++) {
+            String token = firstToken(requireLine(in, "pitch " + i));
+            double ratio;
+            try {
+                ratio = parsePitch(token);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid pitch (degree " + i + " - " 
+                        + e.getMessage() + ")");
+            }
+            if (i < notes) {
+                ratios[i] = ratio;
+            } else {
+                period = ratio;
+            }
+        }
+        if (period <= 1) {
+            throw new IOException("Invalid period " + period 
+                    + ", must be greater than 1/1");
+        }
+        return new ScalaScale(description.trim(), ratios, period);
+    }
+    
+    /**
+     * Reads the reference pitch and frequency from <tt>.kbm</tt> data and
+     * applies them to this scale. The reader is not closed.
+     * 
+     * @param reader source of <tt>.kbm</tt> data
+     * @throws IOException if the data cannot be read or is malformed
+     */
+    public void readKbm(Reader reader) throws IOException {
+        BufferedReader in = reader instanceof BufferedReader 
+                ? (BufferedReader) reader : new BufferedReader(reader);
+        try {
+            requireLine(in, "map size");
+            requireLine(in, "first note");
+            requireLine(in, "last note");
+            int middleNote = Integer.parseInt(
+                    firstToken(requireLine(in, "middle note")));
+            int referenceNote = Integer.parseInt(
+                    firstToken(requireLine(in, "reference note")));
+            double referenceFreq = Double.parseDouble(
+                    firstToken(requireLine(in, "reference frequency")));
+            
+            // Work back from the reference note to the frequency of degree 0
+            // at the middle note, using the linear mapping
+            int steps = ratios.length;
+            int k = referenceNote - middleNote;
+            int octave = Math.floorDiv(k, steps);
+            int degree = k - octave * steps;
+            refPitch = middleNote;
+            refFreq = referenceFreq / (ratios[degree] * Math.pow(period, octave));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid keyboard mapping - " 
+                    + e.getMessage());
+        }
+    }
+    
+    /**
+     * Sets the tuning trajectory's reference and table to this scale.
+     * 
+     * @param traj the tuning trajectory to update
+     */
+    public void applyTo(TuningTrajectory traj) {
+        traj.setTuning(ratios, period, refFreq, refPitch);
+    }
+    
+    // Getters
+    public String getDescription() { return description; }
+    public double[] getRatios() { return ratios; }
+    public double getPeriod() { return period; }
+    public int getSteps() { return ratios.length; }
+    public double getReferencePitch() { return refPitch; }
+    public double getReferenceFrequency() { return refFreq; }
+
+}
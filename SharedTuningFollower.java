@@ -0,0 +1,81 @@
+package com.adriantregonning.javamusic;
+
+import com.softsynth.jmsl.MusicJob;
+
+/******************************************************************************
+ * <p>Compilation           : javac SharedTuningFollower.java</p>
+ * <p>Dependencies          : com.softsynth.jmsl</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.SharedTuningSegment,
+ *                            com.adriantregonning.javamusic.TuningTrajectory
+ *                            </p>
+ *
+ *  <p> Keeps a trajectory in a reader process in step with a shared tuning
+ *  segment. Each repeat polls the segment's version, a single read of
+ *  shared memory, and copies the table into the trajectory only when it
+ *  has changed, so the retune lag is at most one poll interval (1 ms by
+ *  default) and idle polls cost almost nothing. Launch it like any other
+ *  job, e.g. <tt>follower.launch(JMSL.now())</tt>, or call poll()
+ *  directly.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class SharedTuningFollower extends MusicJob {
+
+    private final SharedTuningSegment segment;
+    private final TuningTrajectory target;
+    private int updates;
+
+    /**
+     * Follows a segment, polling every millisecond.
+     *
+     * @param segment segment opened for reading
+     * @param target  trajectory to keep in step
+     */
+    public SharedTuningFollower(SharedTuningSegment segment,
+            TuningTrajectory target) {
+        this(segment, target, 0.001);
+    }
+
+    /**
+     * @param segment  segment opened for reading
+     * @param target   trajectory to keep in step
+     * @param interval poll interval in seconds
+     */
+    public SharedTuningFollower(SharedTuningSegment segment,
+            TuningTrajectory target, double interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Invalid poll interval");
+        }
+        this.segment = segment;
+        this.target = target;
+        setRepeatPause(interval);
+        setRepeats(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Copies the segment's table into the trajectory if it has changed.
+     *
+     * @return true if the trajectory was updated
+     */
+    public boolean poll() {
+        if (segment.sync(target)) {
+            updates++;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public double repeat(double playTime) throws InterruptedException {
+        poll();
+        return playTime;
+    }
+
+    // Getters
+    public SharedTuningSegment getSegment() { return segment; }
+    public TuningTrajectory getTrajectory() { return target; }
+    public int getUpdateCount() { return updates; }
+
+}
@@ -0,0 +1,321 @@
+package com.adriantregonning.javamusic;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/******************************************************************************
+ * <p>Compilation           : javac SharedTuningSegment.java</p>
+ * <p>Dependencies          : java.nio</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningTrajectory,
+ *                            com.adriantregonning.javamusic.SharedTuningFollower
+ *                            </p>
+ *
+ *  <p> A tuning table shared between processes through a memory-mapped
+ *  file, so that several JVMs (for example JMSL render processes and a
+ *  control UI) play the same live tuning. One process creates the segment
+ *  and publishes tables into it, usually by attaching it to a trajectory
+ *  with TuningTrajectory.setSharedSegment(); any number of processes open
+ *  the same file and read from it.</p>
+ *
+ *  <p>The segment uses the same seqlock as TuningSnapshot, with the
+ *  sequence counter in the mapped memory: it is odd while a table is being
+ *  written, and readers take it before and after reading and retry if it
+ *  changed. The counter is accessed through a VarHandle view of the
+ *  buffer, with acquire and release ordering, and the table through plain
+ *  reads and writes of mapped memory, so neither publishing nor reading
+ *  makes a system call. Half the counter is the table version, which
+ *  readers can poll cheaply.</p>
+ *
+ *  <p>The layout is a 56-byte header (magic, format version, capacity,
+ *  sequence, number of degrees, period, reference frequency and pitch)
+ *  followed by the ratios, in the platform's byte order, since all the
+ *  processes share a machine. Only one process may publish to a file at a
+ *  time.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class SharedTuningSegment {
+
+    public static final int MAGIC = 0x54534547;        // "TSEG"
+    public static final int FORMAT_VERSION = 1;
+
+    // Header offsets
+    private static final int MAGIC_OFFSET = 0;
+    private static final int FORMAT_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SEQ_OFFSET = 16;
+    private static final int STEPS_OFFSET = 24;
+    private static final int PERIOD_OFFSET = 32;
+    private static final int REF_FREQ_OFFSET = 40;
+    private static final int REF_PITCH_OFFSET = 48;
+    private static final int RATIOS_OFFSET = 56;
+
+    // Attempts a read makes before giving up on a write in progress
+    private static final int MAX_READ_ATTEMPTS = 1000;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(
+            int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(
+            long[].class, ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer buf;
+    private final int capacity;
+    private final boolean writer;
+
+    // Header of the last table read
+    private int steps;
+    private double period = 2.0;
+    private double refFreq;
+    private double refPitch;
+    private long lastVersion = -1;
+
+    // Buffers used by sync(): every slot, and the table read
+    private final double[] scratch;
+    private double[] table = new double[0];
+
+    private SharedTuningSegment(MappedByteBuffer buf, int capacity,
+            boolean writer) {
+        this.buf = buf;
+        this.capacity = capacity;
+        this.writer = writer;
+        scratch = new double[capacity];
+    }
+
+    private static long size(int capacity) {
+        return RATIOS_OFFSET + 8L * capacity;
+    }
+
+    /**
+     * Creates a segment to publish to, or takes over an existing segment of
+     * the same capacity, keeping its version so that readers see the next
+     * table as new. A table left half-written by a previous publisher is 
+     * withdrawn.
+     *
+     * @param file     the shared file, e.g. on a RAM-backed file system
+     * @param capacity largest number of degrees the segment holds
+     * @return The segment
+     * @throws IOException if the file cannot be mapped or holds a segment of
+     *                     another capacity
+     */
+    public static SharedTuningSegment create(Path file, int capacity)
+            throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long existing = ch.size();
+            buf = ch.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(existing, size(capacity)));
+        }
+        buf.order(ByteOrder.nativeOrder());
+        if ((int) INT.getAcquire(buf, MAGIC_OFFSET) == MAGIC) {
+            if (buf.getInt(FORMAT_OFFSET) != FORMAT_VERSION
+                    || buf.getInt(CAPACITY_OFFSET) != capacity) {
+                throw new IOException("File holds a different tuning segment");
+            }
+            // A publisher that stopped mid-write leaves the counter odd and
+            // the table possibly torn, so it is withdrawn until the next
+            // publish
+            long seq = (long) LONG.getVolatile(buf, SEQ_OFFSET);
+            if ((seq & 1) != 0) {
+                buf.putInt(STEPS_OFFSET, 0);
+                LONG.setRelease(buf, SEQ_OFFSET, seq + 1);
+            }
+        } else {
+            buf.putInt(FORMAT_OFFSET, FORMAT_VERSION);
+            buf.putInt(CAPACITY_OFFSET, capacity);
+            buf.putLong(SEQ_OFFSET, 0);
+            buf.putInt(STEPS_OFFSET, 0);
+            // Readers check the magic last
+            INT.setRelease(buf, MAGIC_OFFSET, MAGIC);
+        }
+        return new SharedTuningSegment(buf, capacity, true);
+    }
+
+    /**
+     * Opens an existing segment to read from.
+     *
+     * @param file the shared file
+     * @return The segment
+     * @throws IOException if the file cannot be mapped or is not a tuning
+     *                     segment
+     */
+    public static SharedTuningSegment open(Path file) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < RATIOS_OFFSET) {
+                throw new IOException("Not a tuning segment");
+            }
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        buf.order(ByteOrder.nativeOrder());
+        if ((int) INT.getAcquire(buf, MAGIC_OFFSET) != MAGIC
+                || buf.getInt(FORMAT_OFFSET) != FORMAT_VERSION) {
+            throw new IOException("Not a tuning segment");
+        }
+        int capacity = buf.getInt(CAPACITY_OFFSET);
+        if (capacity < 1 || buf.capacity() < size(capacity)) {
+            throw new IOException("Truncated tuning segment");
+        }
+        return new SharedTuningSegment(buf, capacity, false);
+    }
+
+    /**
+     * Publishes a table. Readers see either the previous table or this one,
+     * never a mixture.
+     *
+     * @param ratios   frequency ratios
+     * @param steps    number of ratios
+     * @param period   period as a frequency ratio
+     * @param refFreq  frequency of the first degree in Hz
+     * @param refPitch pitch of the first degree
+     */
+    public synchronized void publish(double[] ratios, int steps,
+            double period, double refFreq, double refPitch) {
+        checkWriter();
+        if (steps > capacity) {
+            throw new IllegalArgumentException(steps + " degrees exceed the "
+                    + "segment's capacity of " + capacity);
+        }
+        long seq = beginWrite();
+        buf.putInt(STEPS_OFFSET, steps);
+        buf.putDouble(PERIOD_OFFSET, period);
+        buf.putDouble(REF_FREQ_OFFSET, refFreq);
+        buf.putDouble(REF_PITCH_OFFSET, refPitch);
+        for (int i = 0; i < steps; i++) {
+            buf.putDouble(RATIOS_OFFSET + 8 * i, ratios[i]);
+        }
+        endWrite(seq);
+    }
+
+    /**
+     * Publishes a change to one degree of the last table published.
+     *
+     * @param degree the degree, from 0
+     * @param ratio  its new frequency ratio
+     */
+    public synchronized void publishDegree(int degree, double ratio) {
+        checkWriter();
+        if (degree < 0 || degree >= buf.getInt(STEPS_OFFSET)) {
+            throw new IndexOutOfBoundsException("Degree " + degree);
+        }
+        long seq = beginWrite();
+        buf.putDouble(RATIOS_OFFSET + 8 * degree, ratio);
+        endWrite(seq);
+    }
+
+    private void checkWriter() {
+        if (!writer) {
+            throw new IllegalStateException("Segment was opened for reading");
+        }
+    }
+
+    // Writer side, as in TuningSnapshot
+    private long beginWrite() {
+        long seq = (long) LONG.getOpaque(buf, SEQ_OFFSET);
+        LONG.setOpaque(buf, SEQ_OFFSET, seq + 1);
+        VarHandle.storeStoreFence();
+        return seq + 1;
+    }
+
+    private void endWrite(long seq) {
+        LONG.setRelease(buf, SEQ_OFFSET, seq + 1);
+    }
+
+    /**
+     * Returns the number of tables published, counting single-degree
+     * changes. Reads one word of shared memory.
+     *
+     * @return The version
+     */
+    public long getVersion() {
+        return (long) LONG.getAcquire(buf, SEQ_OFFSET) >>> 1;
+    }
+
+    /**
+     * Reads a consistent copy of the current table, retrying for a while
+     * if it is being published. The period and reference of the table read
+     * are then available from this segment's getters. Never blocks, even if
+     * the publishing process stopped in the middle of a write. Does not 
+     * allocate.
+     *
+     * @param out array of at least getCapacity() elements, or of at least
+     *            the number of degrees published
+     * @return The number of ratios read, 0 if no table has been published
+     *         or none could be read; a later read may succeed
+     */
+    public int read(double[] out) {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            long seq = (long) LONG.getAcquire(buf, SEQ_OFFSET);
+            if ((seq & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            // Values read during a write may be torn, so only bounds are
+            // trusted until the read is validated
+            int n = Math.max(0, Math.min(buf.getInt(STEPS_OFFSET),
+                    Math.min(capacity, out.length)));
+            double p = buf.getDouble(PERIOD_OFFSET);
+            double freq = buf.getDouble(REF_FREQ_OFFSET);
+            double pitch = buf.getDouble(REF_PITCH_OFFSET);
+            for (int i = 0; i < n; i++) {
+                out[i] = buf.getDouble(RATIOS_OFFSET + 8 * i);
+            }
+            VarHandle.loadLoadFence();
+            if ((long) LONG.getOpaque(buf, SEQ_OFFSET) == seq) {
+                steps = n;
+                period = p;
+                refFreq = freq;
+                refPitch = pitch;
+                lastVersion = seq >>> 1;
+                return n;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Copies the current table and reference into a trajectory, in a single
+     * update, if they have changed since the last read. If no table can be read, the trajectory is left as it
+     * is and the next call tries again. Only allocates when the number of 
+     * degrees changes.
+     *
+     * @param target trajectory to update
+     * @return true if the trajectory was updated
+     */
+    public boolean sync(TuningTrajectory target) {
+        if (getVersion() == lastVersion) {
+            return false;
+        }
+        int n = read(scratch);
+        if (n == 0) {
+            return false;
+        }
+        if (table.length != n) {
+            table = new double[n];
+        }
+        System.arraycopy(scratch, 0, table, 0, n);
+        // Reference and table together, so the target publishes once
+        target.setTuning(table, period, refFreq, refPitch);
+        return true;
+    }
+
+    // Getters
+    public int getCapacity() { return capacity; }
+    public boolean isWriter() { return writer; }
+    public int getSteps() { return steps; }
+    public double getPeriod() { return period; }
+    public double getRefFreq() { return refFreq; }
+    public double getRefPitch() { return refPitch; }
+
+}
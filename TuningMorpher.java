@@ -0,0 +1,272 @@
+package com.adriantregonning.javamusic;
+
+import java.util.Arrays;
+
+import com.softsynth.jmsl.util.*;
+
+/******************************************************************************
+ * <p>Compilation           : javac TuningMorpher.java</p>
+ * <p>Dependencies          : com.softsynth.jmsl.util</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningTrajectory</p>
+ *
+ *  <p> A reusable morphing engine for tuning trajectories. Where
+ *  TuningTrajectory.makeInterpolatedTuning() builds a new interpolator, new
+ *  arrays and a new trajectory on every call, a TuningMorpher owns its
+ *  source, destination and output buffers and updates a single live
+ *  TuningTrajectory in place. Once the source and destination ratios have
+ *  been set, calls to morph() do not allocate, so morphs can be driven many
+ *  times per second during a performance without creating garbage.</p>
+ *
+ *  <p>Morphed ratios can optionally be snapped to the simplest just ratio
+ *  of a prime limit within a tolerance in cents (see setJustSnap() and
+ *  JustRatioIndex), so that a morph passes through, and settles on, simple
+ *  ratios rather than arbitrary decimals. The index must be built for the
+ *  period of both the source and the destination.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class TuningMorpher {
+
+    // Interpolation types, matching the order used by makeInterpolatedTuning()
+    public static final int LINEAR = 0;
+    public static final int HALF_COSINE = 1;
+    public static final int EXPONENTIAL = 2;
+
+    // The live tuning trajectory updated by this morpher
+    private final TuningTrajectory target;
+
+    // Source and destination tables as supplied, with their periods
+    private double[] sourceTable;
+    private double[] destTable;
+    private int sourceSteps;
+    private int destSteps;
+    private double sourcePeriod = 2.0;
+    private double destPeriod = 2.0;
+
+    // Preallocated ratio buffers on the common grid of the two tables
+    private double[] sourceRatios;
+    private double[] destRatios;
+    private double[] morphRatios;
+    private double morphPeriod = 2.0;
+
+    // One interpolator per interpolation type, created once and reused
+    private final Interpolator[] interpolators = {
+            new LinearInterpolator(0, 0, 1, 1),
+            new HalfCosineInterpolator(0, 0, 1, 1),
+            new ExponentialInterpolator(0, 0, 1, 1)
+    };
+
+    private int interpType = LINEAR;
+    private double morphIndex;
+    
+    // Optional snapping of morphed ratios to just ratios, and the index of
+    // the ratio each degree was snapped to, or -1
+    private JustRatioIndex just;
+    private double justTolerance;
+    private int[] justIndices;
+
+    /**
+     * Creates a morpher that updates the given trajectory, with buffers sized
+     * for the given number of scale degrees.
+     *
+     * @param target the live tuning trajectory to update
+     * @param steps  number of scale degrees
+     */
+    public TuningMorpher(TuningTrajectory target, int steps) {
+        this.target = target;
+        sourceTable = new double[steps];
+        destTable = new double[steps];
+        sourceSteps = steps;
+        destSteps = steps;
+        sourceRatios = new double[steps];
+        destRatios = new double[steps];
+        morphRatios = new double[steps];
+        justIndices = new int[steps];
+        Arrays.fill(justIndices, -1);
+    }
+
+    // Resamples the source and destination tables onto their common grid. 
+    // This only allocates when a table of a different size is supplied.
+    private void prepare() {
+        int steps = TuningResampler.commonSteps(sourceSteps, destSteps);
+        if (morphRatios.length != steps) {
+            sourceRatios = new double[steps];
+            destRatios = new double[steps];
+            morphRatios = new double[steps];
+            justIndices = new int[steps];
+            Arrays.fill(justIndices, -1);
+        }
+        TuningResampler.resample(sourceTable, sourceSteps, sourcePeriod, 
+                sourceRatios, steps);
+        TuningResampler.resample(destTable, destSteps, destPeriod, 
+                destRatios, steps);
+    }
+
+    /**
+     * Copies the supplied ratios into the source buffer. The source repeats
+     * every octave.
+     *
+     * @param ratios array of source frequency ratios
+     */
+    public void setSource(double[] ratios) {
+        setSource(ratios, 2.0);
+    }
+
+    /**
+     * Copies the supplied ratios into the source buffer. If the source and 
+     * destination have different numbers of degrees, both are resampled 
+     * onto a common grid (see TuningResampler).
+     *
+     * @param ratios array of source frequency ratios
+     * @param period period of the source as a frequency ratio
+     */
+    public void setSource(double[] ratios, double period) {
+        checkJustPeriod(period);
+        if (sourceTable.length < ratios.length) {
+            sourceTable = new double[ratios.length];
+        }
+        System.arraycopy(ratios, 0, sourceTable, 0, ratios.length);
+        sourceSteps = ratios.length;
+        sourcePeriod = period;
+        prepare();
+    }
+
+    /**
+     * Copies the supplied ratios into the destination buffer. The 
+     * destination repeats every octave.
+     *
+     * @param ratios array of destination frequency ratios
+     */
+    public void setDestination(double[] ratios) {
+        setDestination(ratios, 2.0);
+    }
+
+    /**
+     * Copies the supplied ratios into the destination buffer. If the source
+     * and destination have different numbers of degrees, both are resampled
+     * onto a common grid (see TuningResampler).
+     *
+     * @param ratios array of destination frequency ratios
+     * @param period period of the destination as a frequency ratio
+     */
+    public void setDestination(double[] ratios, double period) {
+        checkJustPeriod(period);
+        if (destTable.length < ratios.length) {
+            destTable = new double[ratios.length];
+        }
+        System.arraycopy(ratios, 0, destTable, 0, ratios.length);
+        destSteps = ratios.length;
+        destPeriod = period;
+        prepare();
+    }
+
+    /**
+     * Sets the type of interpolation used by subsequent morphs.
+     *
+     * @param intType one of LINEAR, HALF_COSINE or EXPONENTIAL
+     */
+    public void setInterpolationType(int intType) {
+        if (intType < 0 || intType >= interpolators.length) {
+            throw new IllegalArgumentException("Unknown interpolation type "
+                    + intType);
+        }
+        interpType = intType;
+    }
+
+    /**
+     * Morphs between the source and destination ratios and updates the live
+     * tuning trajectory in place. Does not allocate.
+     *
+     * @param index describes the percentage mix between the source and
+     *              destination ratios
+     */
+    public void morph(double index) {
+        Interpolator interpol = interpolators[interpType];
+        int steps = morphRatios.length;
+
+        for (int i = 0; i < steps; i++) {
+            interpol.setInterp(0, sourceRatios[i], 1, destRatios[i]);
+            morphRatios[i] = interpol.interp(index);
+        }
+        if (just != null) {
+            just.snapTable(morphRatios, morphRatios, steps, justTolerance, 
+                    justIndices);
+        }
+        interpol.setInterp(0, sourcePeriod, 1, destPeriod);
+        morphPeriod = interpol.interp(index);
+        morphIndex = index;
+        target.updateTable(morphRatios, morphPeriod, index, interpType);
+    }
+    
+    // Snapping reduces ratios into the index's period, so a table of 
+    // another period would be snapped to the wrong ratios
+    private void checkJustPeriod(double period) {
+        if (just != null && period != just.getPeriod()) {
+            throw new IllegalArgumentException("Period " + period 
+                    + " does not match the just ratio index's period " 
+                    + just.getPeriod());
+        }
+    }
+
+    /**
+     * Snaps the ratios of subsequent morphs to the simplest just ratio 
+     * within a tolerance. Ratios with none are left as morphed. While an
+     * index is set, the source and destination must have its period.
+     * 
+     * @param index     index of just ratios, built for the period of the
+     *                  source and destination, or <tt>null</tt> to stop 
+     *                  snapping
+     * @param tolerance largest distance in cents a ratio is moved
+     */
+    public void setJustSnap(JustRatioIndex index, double tolerance) {
+        if (index != null && (sourcePeriod != index.getPeriod() 
+                || destPeriod != index.getPeriod())) {
+            throw new IllegalArgumentException("The just ratio index's "
+                    + "period " + index.getPeriod() + " does not match the "
+                    + "morph's periods " + sourcePeriod + " and " 
+                    + destPeriod);
+        }
+        just = index;
+        justTolerance = tolerance;
+        Arrays.fill(justIndices, -1);
+    }
+
+    /**
+     * Returns the just ratio a degree was snapped to in the last morph, 
+     * e.g. "5/4".
+     * 
+     * @param degree the degree, from 0
+     * @return The ratio as n/d, or <tt>null</tt> if the degree was not 
+     *         snapped
+     */
+    public String getJustRatio(int degree) {
+        if (just == null || justIndices[degree] < 0) {
+            return null;
+        }
+        return just.toString(justIndices[degree]);
+    }
+
+    /**
+     * Logs every subsequent change to the target trajectory to a recorder,
+     * with the morph index and type of those made by this morpher. The same
+     * as getTrajectory().setRecorder().
+     * 
+     * @param recorder the recorder, or <tt>null</tt> to stop recording
+     */
+    public void setRecorder(MorphRecorder recorder) {
+        target.setRecorder(recorder);
+    }
+
+    // Getters
+    public TuningTrajectory getTrajectory() { return target; }
+    public double[] getMorphRatios() { return morphRatios; }
+    public double getMorphPeriod() { return morphPeriod; }
+    public double getMorphIndex() { return morphIndex; }
+    public int getInterpolationType() { return interpType; }
+    public int getSteps() { return morphRatios.length; }
+    public JustRatioIndex getJustSnap() { return just; }
+    public double getJustTolerance() { return justTolerance; }
+
+}
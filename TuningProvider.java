@@ -0,0 +1,45 @@
+package com.adriantregonning.javamusic;
+
+/******************************************************************************
+ * <p>Compilation           : javac TuningProvider.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningRegistry</p>
+ *
+ *  <p> A source of a tuning system for the TuningRegistry. A tuning has any
+ *  number of steps per period, and the period need not be an octave. 
+ *  Implementations should only build their ratios when ratios() is first 
+ *  called. Additional providers can be made available to the registry 
+ *  through java.util.ServiceLoader, by listing them in 
+ *  <tt>META-INF/services/com.adriantregonning.javamusic.TuningProvider</tt>.
+ *  </p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public interface TuningProvider {
+
+    /**
+     * @return The tuning's display name
+     */
+    String label();
+    
+    /**
+     * @return The number of steps per period
+     */
+    int steps();
+    
+    /**
+     * @return The period as a frequency ratio (2.0 for an octave)
+     */
+    double period();
+    
+    /**
+     * Returns the frequency ratios of steps 0..steps()-1, starting with 1.0.
+     * Callers must not modify the returned array.
+     * 
+     * @return array of frequency ratios
+     */
+    double[] ratios();
+
+}
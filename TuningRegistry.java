@@ -0,0 +1,109 @@
+package com.adriantregonning.javamusic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import com.adriantregonning.javamusic.TuningTrajectory.Tunings;
+
+/******************************************************************************
+ * <p>Compilation           : javac TuningRegistry.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningProvider</p>
+ *
+ *  <p> A registry of available tuning systems. The registry lists the 
+ *  Tunings presets first (in their enum order), then a set of equal 
+ *  temperaments, then any providers found through ServiceLoader, then 
+ *  providers registered at run time. Service providers are only looked up
+ *  when the registry is first used, and no provider builds its ratios until
+ *  they are asked for.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class TuningRegistry {
+
+    private static TuningRegistry defaultRegistry;
+    
+    private final List<TuningProvider> providers = 
+            new ArrayList<TuningProvider>();
+    
+    /**
+     * Returns the shared registry, creating it on first use.
+     * 
+     * @return The default registry
+     */
+    public static synchronized TuningRegistry getDefault() {
+        if (defaultRegistry == null) {
+            defaultRegistry = new TuningRegistry();
+            defaultRegistry.addBuiltIns();
+            for (TuningProvider p : ServiceLoader.load(TuningProvider.class)) {
+                defaultRegistry.register(p);
+            }
+        }
+        return defaultRegistry;
+    }
+    
+    private void addBuiltIns() {
+        for (Tunings t : Tunings.values()) {
+            register(t);
+        }
+        int[] edos = {19, 22, 24, 31, 53, 72};
+        for (int steps : edos) {
+            register(new EqualTemperament(steps));
+        }
+        register(new EqualTemperament("Bohlen-Pierce (13-ED3)", 13, 3.0));
+    }
+    
+    /**
+     * Adds a provider to the end of the registry.
+     * 
+     * @param provider the tuning provider
+     */
+    public synchronized void register(TuningProvider provider) {
+        providers.add(provider);
+    }
+    
+    /**
+     * Returns the provider at the given index.
+     * 
+     * @param index index of the provider
+     * @return The tuning provider
+     */
+    public synchronized TuningProvider get(int index) {
+        return providers.get(index);
+    }
+    
+    /**
+     * Finds a provider by label.
+     * 
+     * @param label the provider's label
+     * @return The tuning provider, <tt>null</tt> if there is none
+     */
+    public synchronized TuningProvider find(String label) {
+        for (TuningProvider p : providers) {
+            if (p.label().equals(label)) {
+                return p;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the labels of all providers, in registry order.
+     * 
+     * @return array of labels
+     */
+    public synchronized String[] labels() {
+        String[] labels = new String[providers.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = providers.get(i).label();
+        }
+        return labels;
+    }
+    
+    // Getter
+    public synchronized int size() { return providers.size(); }
+
+}
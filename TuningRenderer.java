@@ -0,0 +1,369 @@
+package com.adriantregonning.javamusic;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/******************************************************************************
+ * <p>Compilation           : javac TuningRenderer.java</p>
+ * <p>Execution             : java com.adriantregonning.javamusic.
+ *                            TuningRenderer [options]</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.BulkMorphKernel,
+ *                            com.adriantregonning.javamusic.TuningRegistry</p>
+ *
+ *  <p> Renders morphed tuning tables offline, without the GUI. Given a 
+ *  source and destination tuning, an interpolation type and a list of morph
+ *  indices (or an evenly spaced envelope of them), it streams each index's
+ *  ratio and frequency tables to CSV or binary output. Large batches are 
+ *  split into chunks that are morphed in parallel and written in order.</p>
+ *  
+ *  <p>Tunings are named by their registry label (e.g. "Pythagorean", 
+ *  "31-EDO") or given as the path of a Scala <tt>.scl</tt> file. Tunings of
+ *  different sizes are resampled onto a common grid.</p>
+ *  
+ *  <pre>
+ *  Options: --source TUNING --dest TUNING
+ *           [--interp linear|halfcosine|exponential]
+ *           (--indices I,I,... | --envelope START:END:COUNT)
+ *           [--format csv|bin] [--out FILE] [--threads N]
+ *  </pre>
+ *  
+ *  <p>Each row holds the morph index, the morphed period, then the ratios 
+ *  and frequencies. Binary output is big-endian: int magic, int format 
+ *  version, int steps, int row count, then the rows as doubles.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class TuningRenderer {
+
+    private static final int BINARY_MAGIC = 0x54524e44;     // "TRND"
+    private static final int BINARY_VERSION = 2;
+    private static final int CHUNK = 1024;
+    
+    // Source and destination on a common grid; for EXPONENTIAL, their 
+    // log-ratios
+    private final double[] source;
+    private final double[] dest;
+    private final double sourcePeriod;
+    private final double destPeriod;
+    private final int steps;
+    private final int intType;
+    private final double refFreq = TuningTrajectory.Tunings.refFreq;
+    
+    /**
+     * @param source  source tuning
+     * @param dest    destination tuning
+     * @param intType interpolation type, as in TuningMorpher
+     */
+    public TuningRenderer(TuningProvider source, TuningProvider dest, 
+            int intType) {
+        steps = TuningResampler.commonSteps(source.steps(), dest.steps());
+        this.source = new double[steps];
+        this.dest = new double[steps];
+        TuningResampler.resample(source.ratios(), source.steps(), 
+                source.period(), this.source, steps);
+        TuningResampler.resample(dest.ratios(), dest.steps(), 
+                dest.period(), this.dest, steps);
+        sourcePeriod = source.period();
+        destPeriod = dest.period();
+        this.intType = intType;
+        if (intType == TuningMorpher.EXPONENTIAL) {
+            BulkMorphKernel.toLog(this.source, this.source, steps);
+            BulkMorphKernel.toLog(this.dest, this.dest, steps);
+        }
+    }
+    
+    /**
+     * Morphs a run of indices. Safe to call from several threads.
+     * 
+     * @param indices morph indices
+     * @param from    first index to morph
+     * @param count   number of indices to morph
+     * @param out     receives count tables of ratios, flat
+     */
+    public void render(double[] indices, int from, int count, double[] out) {
+        if (intType == TuningMorpher.EXPONENTIAL) {
+            BulkMorphKernel.morphLogPair(source, dest, indices, from, out, 
+                    count);
+        } else {
+            BulkMorphKernel.morphPair(intType, source, dest, indices, from, 
+                    out, count);
+        }
+    }
+    
+    /**
+     * Returns the morphed period at an index, interpolated as TuningMorpher
+     * interpolates it.
+     * 
+     * @param index morph index
+     * @return The period as a frequency ratio
+     */
+    public double period(double index) {
+        switch (intType) {
+        case TuningMorpher.HALF_COSINE:
+            double w = 0.5 - 0.5 * Math.cos(Math.PI * index);
+            return sourcePeriod + (destPeriod - sourcePeriod) * w;
+        case TuningMorpher.EXPONENTIAL:
+            return sourcePeriod * Math.pow(destPeriod / sourcePeriod, index);
+        default:
+            return sourcePeriod + (destPeriod - sourcePeriod) * index;
+        }
+    }
+    
+    // Formats a chunk of rendered tables
+    private byte[] format(double[] indices, int from, int count, 
+            double[] ratios, boolean binary) throws IOException {
+        ByteArrayOutputStream bytes = 
+                new ByteArrayOutputStream(count * (steps + 1) * 40);
+        if (binary) {
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (int k = 0; k < count; k++) {
+                out.writeDouble(indices[from + k]);
+                out.writeDouble(period(indices[from + k]));
+                for (int i = 0; i < steps; i++) {
+                    out.writeDouble(ratios[k * steps + i]);
+                }
+                for (int i = 0; i < steps; i++) {
+                    out.writeDouble(ratios[k * steps + i] * refFreq);
+                }
+            }
+            out.flush();
+        } else {
+            StringBuilder sb = new StringBuilder();
+            for (int k = 0; k < count; k++) {
+                sb.append(indices[from + k]);
+                sb.append(',').append(period(indices[from + k]));
+                for (int i = 0; i < steps; i++) {
+                    sb.append(',').append(ratios[k * steps + i]);
+                }
+                for (int i = 0; i < steps; i++) {
+                    sb.append(',').append(ratios[k * steps + i] * refFreq);
+                }
+                sb.append('\n');
+            }
+            bytes.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Renders all indices and writes them to a stream, using the given 
+     * number of worker threads.
+     * 
+     * @param indices morph indices
+     * @param binary  true for binary output, false for CSV
+     * @param out     stream to write to (not closed)
+     * @param threads number of worker threads
+     * @throws IOException if the output cannot be written
+     */
+    public void write(final double[] indices, final boolean binary, 
+            OutputStream out, int threads) throws IOException {
+        if (binary) {
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(BINARY_MAGIC);
+            header.writeInt(BINARY_VERSION);
+            header.writeInt(steps);
+            header.writeInt(indices.length);
+            header.flush();
+        } else {
+            StringBuilder sb = new StringBuilder("index,period");
+            for (int i = 0; i < steps; i++) {
+                sb.append(",ratio").append(i);
+            }
+            for (int i = 0; i < steps; i++) {
+                sb.append(",freq").append(i);
+            }
+            sb.append('\n');
+            out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // Chunks in flight, written in order; bounded so memory stays flat
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        try {
+            for (int from = 0; from < indices.length; from += CHUNK) {
+                final int start = from;
+                final int count = Math.min(CHUNK, indices.length - from);
+                pending.add(pool.submit(new Callable<byte[]>() {
+                    public byte[] call() throws IOException {
+                        double[] ratios = new double[count * steps];
+                        render(indices, start, count, ratios);
+                        return format(indices, start, count, ratios, binary);
+                    }
+                }));
+                if (pending.size() >= threads * 2) {
+                    out.write(take(pending));
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.write(take(pending));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        out.flush();
+    }
+    
+    private static byte[] take(ArrayDeque<Future<byte[]>> pending) 
+            throws IOException {
+        try {
+            return pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Rendering failed", e.getCause());
+        }
+    }
+    
+    /**
+     * Finds a tuning by registry label, or reads it from a Scala file.
+     * 
+     * @param name registry label or path of a <tt>.scl</tt> file
+     * @return The tuning
+     * @throws IOException if the name is not a label and cannot be read
+     */
+    public static TuningProvider resolve(String name) throws IOException {
+        TuningProvider tuning = TuningRegistry.getDefault().find(name);
+        if (tuning != null) {
+            return tuning;
+        }
+        try (Reader in = Files.newBufferedReader(Paths.get(name), 
+                StandardCharsets.ISO_8859_1)) {
+            final ScalaScale scale = ScalaScale.readScl(in);
+            return new TuningProvider() {
+                public String label() { return scale.getDescription(); }
+                public int steps() { return scale.getSteps(); }
+                public double period() { return scale.getPeriod(); }
+                public double[] ratios() { return scale.getRatios(); }
+            };
+        }
+    }
+    
+    /**
+     * Parses an interpolation type name or number.
+     * 
+     * @param name "linear", "halfcosine", "exponential", or 0-2
+     * @return The interpolation type
+     */
+    public static int parseInterpolation(String name) {
+        String n = name.toLowerCase().replace("-", "").replace(" ", "");
+        if (n.equals("linear")) {
+            return TuningMorpher.LINEAR;
+        } else if (n.equals("halfcosine")) {
+            return TuningMorpher.HALF_COSINE;
+        } else if (n.equals("exponential")) {
+            return TuningMorpher.EXPONENTIAL;
+        }
+        int type = Integer.parseInt(name);
+        if (type < TuningMorpher.LINEAR || type > TuningMorpher.EXPONENTIAL) {
+            throw new IllegalArgumentException("Unknown interpolation type " 
+                    + name);
+        }
+        return type;
+    }
+    
+    /**
+     * Parses an envelope of evenly spaced morph indices.
+     * 
+     * @param spec "START:END:COUNT", with COUNT at least 1
+     * @return array of morph indices
+     */
+    public static double[] parseEnvelope(String spec) {
+        String[] parts = spec.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Envelope must be "
+                    + "START:END:COUNT");
+        }
+        double start = Double.parseDouble(parts[0]);
+        double end = Double.parseDouble(parts[1]);
+        int count = Integer.parseInt(parts[2]);
+        if (count < 1) {
+            throw new IllegalArgumentException("Envelope COUNT must be at "
+                    + "least 1");
+        }
+        double[] indices = new double[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = count == 1 ? start 
+                    : start + (end - start) * i / (count - 1);
+        }
+        return indices;
+    }
+    
+    private static void usage(String message) {
+        System.err.println("Error: " + message);
+        System.err.println("Usage: TuningRenderer --source TUNING --dest "
+                + "TUNING [--interp TYPE]\n"
+                + "       (--indices I,I,... | --envelope START:END:COUNT)\n"
+                + "       [--format csv|bin] [--out FILE] [--threads N]");
+        System.exit(1);
+    }
+    
+    public static void main(String[] args) throws IOException {
+        String source = null, dest = null, out = null;
+        String interp = "linear", format = "csv";
+        double[] indices = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        
+        try {
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                case "--source": source = value; break;
+                case "--dest": dest = value; break;
+                case "--interp": interp = value; break;
+                case "--format": format = value; break;
+                case "--out": out = value; break;
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--envelope": indices = parseEnvelope(value); break;
+                case "--indices":
+                    String[] parts = value.split(",");
+                    indices = new double[parts.length];
+                    for (int k = 0; k < parts.length; k++) {
+                        indices[k] = Double.parseDouble(parts[k].trim());
+                    }
+                    break;
+                default:
+                    usage("unknown option " + args[i]);
+                }
+            }
+            if (args.length % 2 != 0) {
+                usage("missing value for " + args[args.length - 1]);
+            }
+            if (source == null || dest == null || indices == null) {
+                usage("source, destination and indices are required");
+            }
+            if (!format.equals("csv") && !format.equals("bin")) {
+                usage("unknown format " + format);
+            }
+            
+            TuningRenderer renderer = new TuningRenderer(resolve(source), 
+                    resolve(dest), parseInterpolation(interp));
+            OutputStream stream = out == null ? System.out 
+                    : new FileOutputStream(out);
+            try (OutputStream buffered = new BufferedOutputStream(stream)) {
+                renderer.write(indices, format.equals("bin"), buffered, 
+                        Math.max(1, threads));
+            }
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.adriantregonning.javamusic;
+
+/******************************************************************************
+ * <p>Compilation           : javac TuningResampler.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningMorpher</p>
+ *
+ *  <p> Resamples tuning tables onto a common pitch grid so that scales of 
+ *  different sizes can be morphed into one another. A scale is treated as a
+ *  piecewise-linear curve of log-frequency against step position, running 
+ *  from 1/1 at position 0 to the period at position <tt>n</tt>. A table of
+ *  <tt>m</tt> steps is resampled by reading that curve at positions 
+ *  <tt>j * n / m</tt>, so each resampled step sits at the same fraction of 
+ *  the period's steps as in the original scale. Resampling onto the same 
+ *  number of steps returns the original ratios.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class TuningResampler {
+
+    private TuningResampler() {}
+    
+    /**
+     * Returns the number of steps of the common grid used to morph between 
+     * two scales: the larger of the two sizes.
+     * 
+     * @param sourceSteps number of steps in the source scale
+     * @param destSteps   number of steps in the destination scale
+     * @return number of steps of the common grid
+     */
+    public static int commonSteps(int sourceSteps, int destSteps) {
+        return Math.max(sourceSteps, destSteps);
+    }
+    
+    /**
+     * Resamples a scale onto a grid of the given number of steps.
+     * 
+     * @param ratios     frequency ratios of the scale, starting with 1.0
+     * @param count      number of ratios to use from the array
+     * @param period     period of the scale as a frequency ratio
+     * @param out        array that receives the resampled ratios
+     * @param outSteps   number of steps to resample onto
+     */
+    public static void resample(double[] ratios, int count, double period, 
+            double[] out, int outSteps) {
+        if (count == outSteps) {
+            System.arraycopy(ratios, 0, out, 0, count);
+            return;
+        }
+        double scale = (double) count / outSteps;
+        for (int j = 0; j < outSteps; j++) {
+            double x = j * scale;
+            int i = (int) x;
+            double frac = x - i;
+            double lo = ratios[i];
+            double hi = i + 1 < count ? ratios[i + 1] : period;
+            out[j] = frac == 0 ? lo : lo * Math.pow(hi / lo, frac);
+        }
+    }
+
+}
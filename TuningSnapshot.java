@@ -0,0 +1,152 @@
+package com.adriantregonning.javamusic;
+
+import java.lang.invoke.VarHandle;
+
+/******************************************************************************
+ * <p>Compilation           : javac TuningSnapshot.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningTrajectory</p>
+ *
+ *  <p> One buffer of a TuningTrajectory's double-buffered tuning table. A
+ *  trajectory publishes a new table by filling its back buffer and swapping
+ *  it to the front. Buffers are reused, so each one carries a sequence 
+ *  counter that is odd while it is being written: readers take the counter
+ *  before and after reading and retry if it changed, which gives them a 
+ *  consistent table without taking a lock.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class TuningSnapshot {
+
+    private volatile int seq;       // Odd while a write is in progress
+    
+    final int steps;
+    
+    // Table data, written only between beginWrite() and endWrite()
+    double[] ratios;
+    double[] freqs;
+    double refPitch;
+    double period;
+    
+    // Frequencies of the integer pitches minPitch onwards
+    int minPitch;
+    double[] pitchFreqs = new double[0];
+    boolean cacheValid;
+    
+    TuningSnapshot(int steps) {
+        this.steps = steps;
+        ratios = new double[steps];
+        freqs = new double[steps];
+    }
+    
+    // Writer side. Only one writer may use a snapshot at a time.
+    void beginWrite() {
+        seq++;
+        VarHandle.storeStoreFence();
+    }
+    
+    void endWrite() {
+        VarHandle.storeStoreFence();
+        seq++;
+    }
+    
+    // Computes the frequency of a pitch from the table, repeating the table
+    // every period. Fractional pitches are interpolated geometrically 
+    // between degrees.
+    double frequencyOf(double pitch) {
+        double rel = pitch - refPitch;
+        double floor = Math.floor(rel);
+        int k = (int) floor;
+        int octave = Math.floorDiv(k, steps);
+        int degree = k - octave * steps;
+        double freq = freqs[degree];
+        double frac = rel - floor;
+        if (frac != 0) {
+            double next = degree + 1 < steps 
+                    ? freqs[degree + 1] : freqs[0] * period;
+            freq *= Math.pow(next / freq, frac);
+        }
+        if (period == 2.0) {
+            return Math.scalb(freq, octave);
+        }
+        return freq * Math.pow(period, octave);
+    }
+    
+    // Returns the frequency of a pitch, from the pitch cache if possible.
+    // Only reads the cache through a local reference and checks its bounds,
+    // since a torn read is only detected afterwards by validate().
+    double lookup(double pitch) {
+        int p = (int) pitch;
+        double[] cache = pitchFreqs;
+        int j = p - minPitch;
+        if (p == pitch && j >= 0 && j < cache.length) {
+            return cache[j];
+        }
+        return frequencyOf(pitch);
+    }
+    
+    // Writer side: recomputes every cached pitch
+    void rebuildPitchCache() {
+        for (int j = 0; j < pitchFreqs.length; j++) {
+            pitchFreqs[j] = frequencyOf(minPitch + j);
+        }
+        cacheValid = true;
+    }
+    
+    // Writer side: recomputes the cached pitches on one degree. Only valid 
+    // when refPitch is an integer.
+    void updatePitchCache(int degree) {
+        int first = Math.floorMod((int) refPitch + degree - minPitch, steps);
+        for (int j = first; j < pitchFreqs.length; j += steps) {
+            pitchFreqs[j] = frequencyOf(minPitch + j);
+        }
+    }
+    
+    /**
+     * Starts a read. Spins while a write is in progress.
+     * 
+     * @return the sequence value to pass to validate()
+     */
+    public int beginRead() {
+        int s;
+        while (((s = seq) & 1) != 0) {
+            Thread.onSpinWait();
+        }
+        return s;
+    }
+    
+    /**
+     * Ends a read. If this returns false the values read may be torn and
+     * the read must be retried.
+     * 
+     * @param s the value returned by beginRead()
+     * @return true if nothing was written during the read
+     */
+    public boolean validate(int s) {
+        VarHandle.loadLoadFence();
+        return seq == s;
+    }
+    
+    /**
+     * Copies the ratios into the supplied array, retrying until a 
+     * consistent copy is made.
+     * 
+     * @param out array of at least getSteps() elements
+     * @return the number of ratios copied
+     */
+    public int copyRatios(double[] out) {
+        int n = Math.min(steps, out.length);
+        int s;
+        do {
+            s = beginRead();
+            System.arraycopy(ratios, 0, out, 0, n);
+        } while (!validate(s));
+        return n;
+    }
+    
+    // Getter. The step count of a buffer never changes.
+    public int getSteps() { return steps; }
+
+}
@@ -1,5 +1,9 @@
 package com.adriantregonning.javamusic;
 
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.softsynth.jmsl.JMSL;
 import com.softsynth.jmsl.util.*;
 
 /******************************************************************************
@@ -15,6 +19,15 @@ import com.softsynth.jmsl.util.*;
  *  tuning systems (12-tone equal temperament, Pythagorean, etc.) are available
  *  as presets. NOTE: This class uses the default (empty) constructor.</p>
  *  
+ *  <p>getFrequency(), lookupFrequency() and copyRatios() always read a 
+ *  consistent table, even while it is being updated. The base class table
+ *  is not snapshot-safe: to keep updates free of allocation it is pointed
+ *  at the published buffer's frequencies rather than a copy, and that 
+ *  buffer is rewritten in place two updates later. Code that reads the 
+ *  base table directly, through getFrequencies() or the inherited 
+ *  getPitch(), may see a mixture of two tables while a morph is 
+ *  running.</p>
+ *  
  *  @author Adrian Tregonning
  *  @version 1.0
  *
@@ -25,7 +38,7 @@ public class TuningTrajectory extends TuningTable {
      * Enumeration of the frequency ratios used in some standard tuning systems
      * This includes the reference pitch and frequency of Middle C.
      */
-	public enum Tunings {
+	public enum Tunings implements TuningProvider {
 	    TWELVE_TET ("12-TET", 0),
 	    PYTHAG ("Pythagorean", 1),
 	    PTOLEMY ("Ptolemy", 2), 
@@ -38,124 +51,195 @@ public class TuningTrajectory extends TuningTable {
         public static final String[] labels = {"12-TET", "Pythagorean", 
                 "Ptolemy", "Erhu"};
             
-        // 12-tone equal temperament
-        private final double[] twelveTetRatios = {
-                1.0,
-                Math.pow(2.0, 1.0/12),
-                Math.pow(2.0, 2.0/12),
-                Math.pow(2.0, 3.0/12),
-                Math.pow(2.0, 4.0/12),
-                Math.pow(2.0, 5.0/12),
-                Math.pow(2.0, 6.0/12),
-                Math.pow(2.0, 7.0/12),
-                Math.pow(2.0, 8.0/12),
-                Math.pow(2.0, 9.0/12),
-                Math.pow(2.0, 10.0/12),
-                Math.pow(2.0, 11.0/12),
-        };
-        
-        // Gb is discarded
-        private final double[] pythagRatios = {         
-                1.0,
-                256.0/243,
-                9.0/8.0,
-                32.0/27,
-                81.0/64,
-                4.0/3,
-                729.0/512,
-                3.0/2, 
-                128.0/81,
-                27.0/16,
-                16.0/9,
-                243.0/128
-        };
-        
-        // Based on PtolemyTuning
-        private final double[] ptolemyRatios = {     
-                1.0,
-                16.0/15,
-                9.0/8,
-                6.0/5,
-                5.0/4,
-                4.0/3,
-                1.40625,
-                3.0/2,
-                8.0/5,
-                5.0/3,
-                9.0/5,
-                15.0/8
-        };
-        
-        // Derived from Sethares' theory of dissonance curves 
-        // for the Chinese erhu
-        private final double[] erhuRatios = {        
-                1.0,
-                1.0,
-                1.17,
-                1.17,
-                1.30,
-                1.34,
-                1.34,
-                1.51,
-                1.51,
-                1.67,
-                1.67,
-                1.85
-        };
-        
         private String label;
         private int idx;
-        private double[] ratios;
+        private volatile double[] ratios;   // Built on first use
         
 	    Tunings(String label, int idx) {
 	        this.label = label;
 	        this.idx = idx;
-	        
-	        switch (idx) {
-            case 0: 
-                this.ratios = twelveTetRatios;
-                break;
-            case 1: 
-                this.ratios = pythagRatios;
-                break;
-            case 2:
-                this.ratios = ptolemyRatios;
-                break;
-            case 3: 
-                this.ratios = erhuRatios;
-                break;
-	        }  
+	    }
+	    
+	    // Builds the preset's frequency ratios
+	    private double[] buildRatios() {
+	        switch (this) {
+	        case PYTHAG:
+	            // Gb is discarded
+	            return new double[] {
+	                    1.0,
+	                    256.0/243,
+	                    9.0/8.0,
+	                    32.0/27,
+	                    81.0/64,
+	                    4.0/3,
+	                    729.0/512,
+	                    3.0/2, 
+	                    128.0/81,
+	                    27.0/16,
+	                    16.0/9,
+	                    243.0/128
+	            };
+	        case PTOLEMY:
+	            // Based on PtolemyTuning
+	            return new double[] {
+	                    1.0,
+	                    16.0/15,
+	                    9.0/8,
+	                    6.0/5,
+	                    5.0/4,
+	                    4.0/3,
+	                    1.40625,
+	                    3.0/2,
+	                    8.0/5,
+	                    5.0/3,
+	                    9.0/5,
+	                    15.0/8
+	            };
+	        case ERHU:
+	            // Derived from Sethares' theory of dissonance curves 
+	            // for the Chinese erhu
+	            return new double[] {
+	                    1.0,
+	                    1.0,
+	                    1.17,
+	                    1.17,
+	                    1.30,
+	                    1.34,
+	                    1.34,
+	                    1.51,
+	                    1.51,
+	                    1.67,
+	                    1.67,
+	                    1.85
+	            };
+	        default:
+	            // 12-tone equal temperament
+	            return EqualTemperament.buildRatios(12, 2.0);
+	        }
 	    }
 	    
 	    // Getters
 	    public String label() { return label; }
 	    public int idx() { return idx; }
-        public double[] ratios() { return ratios; }
+	    public int steps() { return 12; }
+	    public double period() { return 2.0; }
+	    
+        public double[] ratios() {
+            double[] r = ratios;
+            if (r == null) {
+                r = buildRatios();
+                ratios = r;
+            }
+            return r;
+        }
 
 	}
 	
 	private TuningTrajectoryEditorPanel editPanel;  // JPanel GUI element   
-    private double[] ratios;                       // Frequency ratios.
-    
-    // Static helper method that generates an arrays of frequencies (in Hz) 
-    // from given frequency ratios and a reference pitch.
-    private static double[] buildFreqsFromRatios(double[] ratios, 
-            double refFreq) {
-        double[] freqs = new double[ratios.length];
-        for(int i = 0; i < ratios.length; i++) {
-            freqs[i] = ratios[i] * refFreq;
-        }
-        //System.out.println(Arrays.toString(freqs));
-        return freqs;
-    }
+    
+    // Double-buffered tuning table. Writers fill the back buffer and swap it
+    // to the front while holding writeLock; readers take the front buffer 
+    // without locking and validate their read against its sequence counter.
+    private volatile TuningSnapshot front;
+    private TuningSnapshot back;
+    private final Object writeLock = new Object();
+    
+    // Frequency (Hz) and pitch of the first scale degree, written under
+    // writeLock
+    private double refFreq = Tunings.refFreq;
+    private double refPitch = Tunings.refPitch;
+    private double period = 2.0;
+    
+    // Range of integer pitches whose frequencies are precomputed
+    private int minPitch = 0;
+    private int maxPitch = 127;
+    
+    // Incremented whenever the table changes, so that derived data (e.g. a 
+    // MorphGrid) can tell when it needs rebuilding.
+    private volatile int version;
+    
+    // Optional retune latency instrumentation, told about every lookup
+    private volatile RetuneLatencyMonitor latencyMonitor;
+    
+    // Optional adaptive just intonation, told about every lookup
+    private volatile AdaptiveJustIntonation adaptive;
+    
+    // Optional segment through which every table is published to other 
+    // processes, written under writeLock
+    private SharedTuningSegment shared;
+    
+    // Optional log of every table change, written under writeLock
+    private MorphRecorder recorder;
+    
+    // Single-degree edits. lastDelta is the only degree in which the back 
+    // buffer differs from the front, or -1 if they may differ anywhere.
+    private int lastDelta = -1;
+    private double[] editRatios = new double[0];
+    private final CopyOnWriteArrayList<DegreeListener> degreeListeners = 
+            new CopyOnWriteArrayList<DegreeListener>();
     
     /**
-     * Returns current tuning's frequency ratios
+     * Returns current tuning's frequency ratios. The array is one of the
+     * object's internal buffers and may be overwritten by a later update; 
+     * use copyRatios() for a consistent copy.
      * 
-     * @return Array of ratios
+     * @return Array of ratios, <tt>null</tt> if no table has been set
      */
     public double[] getRatios() {
-        return ratios;
+        TuningSnapshot snap = front;
+        return snap != null ? snap.ratios : null;
+    }
+    
+    /**
+     * Returns the base class table of frequencies. The array is the 
+     * published buffer's, not a copy, and is rewritten in place by later
+     * updates, so it may be read mid-update; use lookupFrequency() or 
+     * copyRatios() for a consistent read.
+     * 
+     * @return Array of frequencies in Hz
+     */
+    @Override
+    public double[] getFrequencies() {
+        return super.getFrequencies();
+    }
+    
+    /**
+     * Copies a consistent snapshot of the current frequency ratios.
+     * 
+     * @param out array to copy into
+     * @return The number of ratios copied, 0 if no table has been set
+     */
+    public int copyRatios(double[] out) {
+        TuningSnapshot snap = front;
+        return snap != null ? snap.copyRatios(out) : 0;
+    }
+    
+    /**
+     * Returns the buffer currently holding the published tuning table.
+     * 
+     * @return The front buffer, <tt>null</tt> if no table has been set
+     */
+    public TuningSnapshot getSnapshot() {
+        return front;
+    }
+    
+    /**
+     * Returns the period of the current tuning.
+     * 
+     * @return The period as a frequency ratio (2.0 for an octave)
+     */
+    public double getPeriod() {
+        TuningSnapshot snap = front;
+        return snap != null ? snap.period : period;
+    }
+    
+    /**
+     * Returns a counter that changes every time the tuning table is changed.
+     * 
+     * @return The table version
+     */
+    public int getVersion() {
+        return version;
     }
    
     /**
@@ -176,12 +260,418 @@ public class TuningTrajectory extends TuningTable {
      * @param newRatios An array of the desired frequency ratios
      */
     public void setTable(double[] newRatios) {
-		ratios = newRatios;
-		// Start table data
-		setFrequencies(buildFreqsFromRatios(ratios, Tunings.refFreq)); 	
-		setReferencePitch(Tunings.refPitch);
+		updateTable(newRatios);
 	}
-	
+    
+    /**
+     * Sets the tuning table to the supplied frequency ratios, repeating 
+     * every period.
+     * 
+     * @param newRatios An array of the desired frequency ratios
+     * @param period    The period as a frequency ratio (2.0 for an octave)
+     */
+    public void setTable(double[] newRatios, double period) {
+        updateTable(newRatios, period);
+    }
+    
+    /**
+     * Sets the tuning table to the tuning from a provider.
+     * 
+     * @param tuning the tuning provider
+     */
+    public void setToTuning(TuningProvider tuning) {
+        setTable(tuning.ratios(), tuning.period());
+    }
+    
+    /**
+     * Updates the tuning table by copying the supplied frequency ratios into
+     * the back buffer and then swapping it to the front, so that threads 
+     * reading frequencies never see a partially updated table. No new arrays
+     * are created unless the number of scale degrees changes, which makes 
+     * this suitable for repeated real-time updates.
+     * 
+     * @param newRatios An array of the desired frequency ratios
+     */
+    public void updateTable(double[] newRatios) {
+        synchronized (writeLock) {
+            updateTable(newRatios, period);
+        }
+    }
+    
+    /**
+     * As updateTable(double[]), also setting the period.
+     * 
+     * @param newRatios An array of the desired frequency ratios
+     * @param period    The period as a frequency ratio (2.0 for an octave)
+     */
+    public void updateTable(double[] newRatios, double period) {
+        updateTable(newRatios, period, Double.NaN, -1);
+    }
+    
+    /**
+     * As updateTable(double[], double), also giving the morph that produced
+     * the table, which an attached recorder logs with it.
+     * 
+     * @param newRatios  An array of the desired frequency ratios
+     * @param period     The period as a frequency ratio (2.0 for an octave)
+     * @param morphIndex morph index of the table, or NaN
+     * @param intType    interpolation type of the morph, or -1
+     */
+    public void updateTable(double[] newRatios, double period, 
+            double morphIndex, int intType) {
+        int steps = newRatios.length;
+        RetuneLatencyMonitor monitor = latencyMonitor;
+        if (monitor != null) {
+            monitor.mark(RetuneLatencyMonitor.Stage.INTERPOLATED);
+        }
+        synchronized (writeLock) {
+            if (shared != null && steps > shared.getCapacity()) {
+                throw new IllegalArgumentException(steps + " degrees exceed "
+                        + "the shared segment's capacity of " 
+                        + shared.getCapacity());
+            }
+            this.period = period;
+            TuningSnapshot buf = back;
+            if (buf == null || buf.steps != steps) {
+                buf = new TuningSnapshot(steps);
+            }
+            buf.beginWrite();
+            
+            // The back buffer holds the table from two updates ago. If only 
+            // some degrees differ from it, only the pitches on those degrees
+            // are recomputed in its pitch cache.
+            int range = maxPitch - minPitch + 1;
+            boolean rebuild = !buf.cacheValid || buf.refPitch != refPitch 
+                    || buf.period != period || buf.minPitch != minPitch 
+                    || buf.pitchFreqs.length != range
+                    || refPitch != Math.floor(refPitch);
+            buf.refPitch = refPitch;
+            buf.period = period;
+            buf.minPitch = minPitch;
+            if (buf.pitchFreqs.length != range) {
+                buf.pitchFreqs = new double[range];
+            }
+            for (int i = 0; i < steps; i++) {
+                double freq = newRatios[i] * refFreq;
+                buf.ratios[i] = newRatios[i];
+                if (buf.freqs[i] != freq) {
+                    buf.freqs[i] = freq;
+                    if (!rebuild) {
+                        buf.updatePitchCache(i);
+                    }
+                }
+            }
+            if (rebuild) {
+                buf.rebuildPitchCache();
+            }
+            buf.endWrite();
+            
+            back = front;
+            front = buf;
+            // Keep the base class table in step for other JMSL callers. It
+            // shares the buffer, so it is not snapshot-safe (see above).
+            setFrequencies(buf.freqs);
+            setReferencePitch(buf.refPitch);
+            lastDelta = -1;
+            version++;
+            // Published once the local table is complete
+            if (shared != null) {
+                shared.publish(buf.ratios, steps, period, refFreq, refPitch);
+            }
+            record(buf, morphIndex, intType);
+        }
+        // The orchestra plays this trajectory, so the table is now live
+        if (monitor != null) {
+            monitor.mark(RetuneLatencyMonitor.Stage.ORCHESTRA);
+        }
+    }
+    
+    // Logs the front table to the recorder, if any. Called under writeLock,
+    // so records are in the order the tables were published.
+    private void record(TuningSnapshot buf, double morphIndex, int intType) {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.record(JMSL.now(), morphIndex, intType, buf.ratios, 
+                    buf.steps, buf.period);
+        } catch (IOException e) {
+            // Keep playing, but stop recording
+            System.err.println("Error: tuning recording stopped - " 
+                    + e.getMessage());
+            recorder = null;
+        }
+    }
+    
+    /**
+     * Sets the ratio of a single degree. The back buffer already differs 
+     * from the published table in at most the degree changed by the last 
+     * edit, so after the first edit following a full update this only 
+     * writes two degrees and the pitches on them, whatever the size of the 
+     * scale. Degree listeners are told about the change.
+     * 
+     * @param degree the degree to change, from 0
+     * @param ratio  its new frequency ratio
+     */
+    public void setDegree(int degree, double ratio) {
+        if (!(ratio > 0) || Double.isInfinite(ratio)) {
+            throw new IllegalArgumentException("Invalid ratio " + ratio 
+                    + " for degree " + (degree + 1));
+        }
+        int newVersion;
+        synchronized (writeLock) {
+            boolean incremental = false;
+            TuningSnapshot snap = front;
+            if (snap == null) {
+                throw new IllegalStateException("No table has been set");
+            }
+            if (degree < 0 || degree >= snap.steps) {
+                throw new IndexOutOfBoundsException("Degree " + degree 
+                        + " of " + snap.steps);
+            }
+            TuningSnapshot buf = back;
+            int range = maxPitch - minPitch + 1;
+            if (lastDelta < 0 || buf == null || buf.steps != snap.steps 
+                    || !buf.cacheValid || buf.refPitch != snap.refPitch 
+                    || buf.period != snap.period || buf.minPitch != minPitch
+                    || buf.pitchFreqs.length != range
+                    || refPitch != Math.floor(refPitch)) {
+                // The back buffer is stale: publish a full copy with the 
+                // edit, after which it differs only in this degree
+                if (editRatios.length != snap.steps) {
+                    editRatios = new double[snap.steps];
+                }
+                System.arraycopy(snap.ratios, 0, editRatios, 0, snap.steps);
+                editRatios[degree] = ratio;
+                updateTable(editRatios, snap.period);
+            } else {
+                buf.beginWrite();
+                int caughtUp = lastDelta;
+                buf.ratios[caughtUp] = snap.ratios[caughtUp];
+                buf.freqs[caughtUp] = snap.freqs[caughtUp];
+                buf.updatePitchCache(caughtUp);
+                buf.ratios[degree] = ratio;
+                buf.freqs[degree] = ratio * refFreq;
+                buf.updatePitchCache(degree);
+                buf.endWrite();
+                
+                back = front;
+                front = buf;
+                setFrequencies(buf.freqs);
+                version++;
+                incremental = true;
+            }
+            lastDelta = degree;
+            newVersion = version;
+            // A full update has already published and recorded the whole 
+            // table
+            if (incremental) {
+                if (shared != null) {
+                    shared.publishDegree(degree, ratio);
+                }
+                record(front, Double.NaN, -1);
+            }
+        }
+        for (DegreeListener listener : degreeListeners) {
+            listener.degreeChanged(this, degree, ratio, newVersion);
+        }
+    }
+    
+    /**
+     * Adds a listener for single-degree edits made with setDegree().
+     * 
+     * @param listener the listener
+     */
+    public void addDegreeListener(DegreeListener listener) {
+        degreeListeners.add(listener);
+    }
+    
+    /**
+     * Removes a degree listener.
+     * 
+     * @param listener the listener
+     */
+    public void removeDegreeListener(DegreeListener listener) {
+        degreeListeners.remove(listener);
+    }
+    
+    /**
+     * Sets the frequency and pitch of the first scale degree, and republishes
+     * the current table with them. Defaults to Middle C.
+     * 
+     * @param freq  frequency of the first degree in Hz
+     * @param pitch pitch of the first degree
+     */
+    public void setReference(double freq, double pitch) {
+        synchronized (writeLock) {
+            refFreq = freq;
+            refPitch = pitch;
+            TuningSnapshot snap = front;
+            if (snap != null) {
+                // The front buffer is not written while it is at the front
+                updateTable(snap.ratios, snap.period);
+            }
+        }
+    }
+    
+    /**
+     * Sets the reference and the tuning table together, publishing once, so
+     * that no reader sees the new table at the old reference or the old 
+     * table at the new one.
+     * 
+     * @param newRatios An array of the desired frequency ratios
+     * @param period    The period as a frequency ratio (2.0 for an octave)
+     * @param freq      frequency of the first degree in Hz
+     * @param pitch     pitch of the first degree
+     */
+    public void setTuning(double[] newRatios, double period, double freq, 
+            double pitch) {
+        synchronized (writeLock) {
+            refFreq = freq;
+            refPitch = pitch;
+            updateTable(newRatios, period);
+        }
+    }
+    
+    /**
+     * Sets the range of integer pitches whose frequencies are precomputed, 
+     * and republishes the current table. Lookups of these pitches cost a 
+     * single array read; other pitches are computed from the table. 
+     * Defaults to MIDI pitches 0-127.
+     * 
+     * @param min lowest precomputed pitch
+     * @param max highest precomputed pitch
+     */
+    public void setPitchRange(int min, int max) {
+        if (max < min) {
+            throw new IllegalArgumentException("Invalid pitch range " + min 
+                    + " to " + max);
+        }
+        synchronized (writeLock) {
+            minPitch = min;
+            maxPitch = max;
+            TuningSnapshot snap = front;
+            if (snap != null) {
+                updateTable(snap.ratios, snap.period);
+            }
+        }
+    }
+    
+    /**
+     * Logs every subsequent table change, from updates, morphs and 
+     * single-degree edits alike, to a recorder, timed with JMSL.now().
+     * Recording never blocks the caller (see MorphRecorder).
+     * 
+     * @param recorder the recorder, or <tt>null</tt> to stop recording
+     */
+    public void setRecorder(MorphRecorder recorder) {
+        synchronized (writeLock) {
+            this.recorder = recorder;
+        }
+    }
+    
+    /**
+     * Attaches a latency monitor. Each table update marks INTERPOLATED when
+     * the new table arrives and ORCHESTRA once it is live, and every 
+     * frequency lookup is reported so that the monitor can time the first 
+     * note played after a retune.
+     * 
+     * @param monitor the monitor, or <tt>null</tt> to detach
+     */
+    public void setLatencyMonitor(RetuneLatencyMonitor monitor) {
+        latencyMonitor = monitor;
+    }
+    
+    /**
+     * Attaches a shared tuning segment, to which the current table and every
+     * later one is published, so that trajectories in other processes can 
+     * follow this one (see SharedTuningFollower).
+     * 
+     * @param segment segment created for publishing, or <tt>null</tt> to 
+     *                detach
+     */
+    public void setSharedSegment(SharedTuningSegment segment) {
+        if (segment != null && !segment.isWriter()) {
+            throw new IllegalArgumentException(
+                    "Segment was opened for reading");
+        }
+        synchronized (writeLock) {
+            TuningSnapshot snap = front;
+            if (segment != null && snap != null 
+                    && snap.steps > segment.getCapacity()) {
+                throw new IllegalArgumentException(snap.steps + " degrees "
+                        + "exceed the segment's capacity of " 
+                        + segment.getCapacity());
+            }
+            shared = segment;
+            if (segment != null && snap != null) {
+                segment.publish(snap.ratios, snap.steps, snap.period, refFreq,
+                        snap.refPitch);
+            }
+        }
+    }
+    
+    /**
+     * Attaches adaptive just intonation, which is told about every note 
+     * frequency lookup as an onset and retunes this trajectory for the 
+     * chord sounding on its next tick.
+     * 
+     * @param adaptive adaptive tuning targeting this trajectory, or 
+     *                 <tt>null</tt> to detach
+     */
+    public void setAdaptiveTuning(AdaptiveJustIntonation adaptive) {
+        if (adaptive != null && adaptive.getTrajectory() != this) {
+            throw new IllegalArgumentException(
+                    "Adaptive tuning targets another trajectory");
+        }
+        this.adaptive = adaptive;
+    }
+    
+    /**
+     * Returns the frequency of the given pitch from the current table. This
+     * is the note-playing path: an attached latency monitor or adaptive 
+     * tuning counts each call as a note played. Reads a consistent snapshot
+     * of the table without locking, so it is safe to call from the JMSL 
+     * scheduler while the table is being updated.
+     * 
+     * @param pitch pitch, where the reference pitch maps to the first degree
+     * @return The frequency in Hz
+     */
+    @Override
+    public double getFrequency(double pitch) {
+        RetuneLatencyMonitor monitor = latencyMonitor;
+        if (monitor != null) {
+            monitor.notePlayed();
+        }
+        AdaptiveJustIntonation aji = adaptive;
+        if (aji != null) {
+            aji.notePlayed(pitch);
+        }
+        return lookupFrequency(pitch);
+    }
+    
+    /**
+     * Returns the frequency of the given pitch from the current table, as
+     * getFrequency() does, without counting as a note played. Use this to
+     * read the tuning for anything other than playing a note.
+     * 
+     * @param pitch pitch, where the reference pitch maps to the first degree
+     * @return The frequency in Hz
+     */
+    public double lookupFrequency(double pitch) {
+        while (true) {
+            TuningSnapshot snap = front;
+            if (snap == null) {
+                return super.getFrequency(pitch);
+            }
+            int seq = snap.beginRead();
+            double freq = snap.lookup(pitch);
+            if (snap.validate(seq)) {
+                return freq;
+            }
+        }
+    }
+    
 	/** 
 	 * Resets a tuning table to a given preset from the Tunings enum 
 	 * presetIndex is the index of the preset as outlined in the Tunings enum.
@@ -189,30 +679,18 @@ public class TuningTrajectory extends TuningTable {
      * @param presetIndex integer index of preset
      */
     public void setToPreset(int presetIndex) {
-        double[] ratios = null;
-        
-        switch (presetIndex) {
-            case 0:
-                ratios = Tunings.TWELVE_TET.ratios();
-                break;
-            case 1:
-                ratios = Tunings.PYTHAG.ratios();
-                break;
-            case 2:
-                ratios = Tunings.PTOLEMY.ratios();
-                break;
-            case 3:
-                ratios = Tunings.ERHU.ratios();
-                break;   
-        }
-        setFrequencies(buildFreqsFromRatios(ratios, Tunings.refFreq));
+        setToTuning(Tunings.values()[presetIndex]);
     }
 	
     /**
      *  Create a GUI element for the object
      */
     public void makeEditorPanel() {
-        editPanel = new TuningTrajectoryEditorPanel(this, getFrequencies());
+        // The panel displays ratios; fall back to the raw table if no ratios
+        // have been set through setTable() or updateTable().
+        double[] ratios = getRatios();
+        editPanel = new TuningTrajectoryEditorPanel(this, 
+                ratios != null ? ratios : getFrequencies());
     }
     
 	/**
@@ -244,7 +722,21 @@ public class TuningTrajectory extends TuningTable {
 	        break;
 	    }
 
-	    int steps = sourceRatios.length;
+	    // Scales of different sizes are resampled onto a common grid
+	    int steps = TuningResampler.commonSteps(sourceRatios.length, 
+	            destRatios.length);
+	    if (sourceRatios.length != steps) {
+	        double[] r = new double[steps];
+	        TuningResampler.resample(sourceRatios, sourceRatios.length, 2.0, 
+	                r, steps);
+	        sourceRatios = r;
+	    }
+	    if (destRatios.length != steps) {
+	        double[] r = new double[steps];
+	        TuningResampler.resample(destRatios, destRatios.length, 2.0, 
+	                r, steps);
+	        destRatios = r;
+	    }
 	    double[] newRatios = new double[steps];
 
 	    for(int i = 0; i < steps; i++) {
@@ -254,9 +746,7 @@ public class TuningTrajectory extends TuningTable {
 
 	    // Create and return a new tuning trajectory object
 	    TuningTrajectory newTrajectory = new TuningTrajectory();
-	    newTrajectory.setFrequencies(buildFreqsFromRatios(newRatios, 
-	            Tunings.refFreq));
-	    newTrajectory.setReferencePitch(Tunings.refPitch);
+	    newTrajectory.setTable(newRatios);
 	    if(newTrajectory.editPanel != null)
 	        newTrajectory.editPanel.setFreqTable(newRatios);
 
@@ -1,12 +1,13 @@
 package com.adriantregonning.javamusic;
 
-import java.awt.GridLayout;
+import java.awt.BorderLayout;
+import java.awt.Dimension;
 import java.awt.event.*;
 import java.text.*;
 
 import javax.swing.*;
-import javax.swing.event.DocumentEvent;
-import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
 
 /******************************************************************************
  * <p>Compilation  : javac TuningTrajectory.java</p>
@@ -16,6 +17,14 @@ import javax.swing.event.DocumentListener;
  *  <p> A GUI element for the Tuning Trajectory class. Displays the frequency 
  *  ratios of the tuning table and allows them to be edited individually.</p>
  *  
+ *  <p>The ratios are held in a table model and shown in a scrolling JTable,
+ *  so only the visible rows are laid out, formatted and painted, and a 
+ *  table of thousands of degrees is as quick to build as a small one. 
+ *  setFreqTable() only repaints the rows whose values have changed, so the
+ *  panel can follow a live morph. Each edited ratio is applied to the 
+ *  trajectory as soon as it is entered, through 
+ *  TuningTrajectory.setDegree(); "Get" applies the whole table.</p>
+ *  
  *  @author Adrian Tregonning
  *  @version 1.0
  *
@@ -24,10 +33,12 @@ import javax.swing.event.DocumentListener;
 public class TuningTrajectoryEditorPanel extends JPanel {
     // Container for the panel
 	private JPanel container;                    
-	// Individual editable fields for the scale degrees' frequency ratios
-	private JFormattedTextField[] freqFields;    
-	// Labels for the fields above
-	private JLabel[] labels;                     
+	// Table showing a row per scale degree, and the ratios behind it
+	private JTable table;
+	private RatioTableModel model;
+	
+	// Number of rows visible without scrolling
+	private static final int VISIBLE_ROWS = 12;
 	
 	// Number formatter, used to display calculated ratios
     private DecimalFormat newFormat = new DecimalFormat("#.####");  
@@ -35,6 +46,81 @@ public class TuningTrajectoryEditorPanel extends JPanel {
     // The panel's associated tuning trajectory
     private TuningTrajectory traj;                  
     
+    // Table model holding one editable ratio per degree
+    private class RatioTableModel extends AbstractTableModel {
+        private final double[] ratios;
+        
+        RatioTableModel(double[] freqs) {
+            ratios = freqs.clone();
+        }
+        
+        public int getRowCount() {
+            return ratios.length;
+        }
+        
+        public int getColumnCount() {
+            return 2;
+        }
+        
+        @Override
+        public String getColumnName(int column) {
+            return column == 0 ? "Degree" : "Ratio";
+        }
+        
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 0 ? Integer.class : Double.class;
+        }
+        
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return column == 1;
+        }
+        
+        public Object getValueAt(int row, int column) {
+            return column == 0 ? Integer.valueOf(row + 1) 
+                    : Double.valueOf(ratios[row]);
+        }
+        
+        // Applies an edited ratio to the trajectory at once. Ratios that 
+        // the trajectory rejects are not kept.
+        @Override
+        public void setValueAt(Object value, int row, int column) {
+            double ratio = ((Number) value).doubleValue();
+            try {
+                traj.setDegree(row, ratio);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: invalid numerical input (step " 
+                        + (row + 1) + " - " + e.getMessage() + ")");
+                return;
+            } catch (IllegalStateException e) {
+                // No table to edit yet; the value is applied with "Get"
+            }
+            ratios[row] = ratio;
+            fireTableCellUpdated(row, column);
+        }
+        
+        // Copies new ratios in, notifying each run of changed rows
+        void setRatios(double[] newRatios) {
+            int steps = Math.min(newRatios.length, ratios.length);
+            int first = -1;
+            for (int i = 0; i < steps; i++) {
+                if (ratios[i] != newRatios[i]) {
+                    ratios[i] = newRatios[i];
+                    if (first < 0) {
+                        first = i;
+                    }
+                } else if (first >= 0) {
+                    fireTableRowsUpdated(first, i - 1);
+                    first = -1;
+                }
+            }
+            if (first >= 0) {
+                fireTableRowsUpdated(first, steps - 1);
+            }
+        }
+    }
+    
     /**
      * The panel is initialized with an array of supplied frequency ratios.
      * 
@@ -42,36 +128,30 @@ public class TuningTrajectoryEditorPanel extends JPanel {
      * @param freqs array of frequency ratios
      */
 	public TuningTrajectoryEditorPanel(TuningTrajectory traj, double[] freqs) {
-		int steps = freqs.length;
+		this.traj = traj;
+		model = new RatioTableModel(freqs);
+		table = new JTable(model);
+		table.setFillsViewportHeight(true);
+		table.getTableHeader().setReorderingAllowed(false);
 		
-		container = new JPanel(new GridLayout(steps, 2));
-		labels = new JLabel[steps];
-		freqFields = new JFormattedTextField[steps];
+		// Ratios are formatted as they are painted, so only visible rows 
+		// are formatted
+		DefaultTableCellRenderer renderer = new DefaultTableCellRenderer() {
+		    @Override
+		    protected void setValue(Object value) {
+		        setText(value == null ? "" : newFormat.format(value));
+		    }
+		};
+		renderer.setHorizontalAlignment(JLabel.RIGHT);
+		table.setDefaultRenderer(Double.class, renderer);
+		DefaultTableCellRenderer labelRenderer = new DefaultTableCellRenderer();
+		labelRenderer.setHorizontalAlignment(JLabel.CENTER);
+		table.setDefaultRenderer(Integer.class, labelRenderer);
+		table.setPreferredScrollableViewportSize(new Dimension(160, 
+		        table.getRowHeight() * Math.min(freqs.length, VISIBLE_ROWS)));
 		
-		// Create the ratio text fields and labels, with callback listeners 
-		// for when they are modified
-		for(int i = 0; i < steps; i++) {
-			labels[i] = new JLabel(newFormat.format(i + 1));
-			labels[i].setHorizontalAlignment(JLabel.CENTER);
-			freqFields[i] = new JFormattedTextField(newFormat.format(freqs[i]));
-			container.add(labels[i]);
-			container.add(freqFields[i]);
-
-			// Callback listener for the text fields. 
-			// Currently, these are unutilized.
-			freqFields[i].getDocument().addDocumentListener(new DocumentListener() {
-				public void changedUpdate(DocumentEvent e) {
-					// text was changed - debug statement
-					// System.out.println("Changed");
-				}
-				public void removeUpdate(DocumentEvent e) {
-				}
-				public void insertUpdate(DocumentEvent e) {
-				}
-			});
-			
-			this.traj = traj;
-		}	
+		container = new JPanel(new BorderLayout());
+		container.add(new JScrollPane(table), BorderLayout.CENTER);
 		
 		// Add a button for changing the associated trajectory object's 
 		// tuning table to the panel's fields
@@ -79,7 +159,7 @@ public class TuningTrajectoryEditorPanel extends JPanel {
         JPanel button = new JPanel();
         final JButton getButton = new JButton("Get");
         button.add(getButton);
-        button.add(thisPanel.getPanel());
+        container.add(button, BorderLayout.PAGE_END);
         ActionListener a = new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -91,6 +171,9 @@ public class TuningTrajectoryEditorPanel extends JPanel {
             }
         };
         getButton.addActionListener(a);
+        
+        setLayout(new BorderLayout());
+        add(container, BorderLayout.CENTER);
 	}
 	
 	/**
@@ -102,6 +185,15 @@ public class TuningTrajectoryEditorPanel extends JPanel {
 		return container;
 	}
 	
+	/**
+	 * Returns the number of scale degrees shown by the panel.
+	 * 
+	 * @return number of degrees
+	 */
+	public int getSteps() {
+		return model.getRowCount();
+	}
+	
 	/**
 	 * Adds the panel to a given swing frame.
 	 * 
@@ -114,38 +206,34 @@ public class TuningTrajectoryEditorPanel extends JPanel {
     }
     
 	/**
-	 * Sets the fields of the editor panel to the supplied values, 
-	 * formatted appropriately.
+	 * Sets the fields of the editor panel to the supplied values. Only rows
+	 * whose values have changed are repainted.
 	 * 
 	 * @param newFreqs array of frequency ratios
 	 */
 	public void setFreqTable(double[] newFreqs) {
-		int steps = newFreqs.length;
-		
-		for(int i = 0; i < steps; i++) {
-			freqFields[i].setValue(newFormat.format(newFreqs[i]));
-		}	
+		model.setRatios(newFreqs);
 	}
 	
 	/**
-	 * Gets frequency values from the panel fields.
+	 * Gets frequency values from the panel fields, committing any edit in 
+	 * progress.
 	 * 
 	 * @return array of current frequency ratios
 	 */
 	public double[] getFreqTable() {
-		int steps = freqFields.length;
-		double[] freqs = new double[steps];
-		
-		for(int i = 0; i < steps; i++) {
-			try {
-				freqs[i] = Double.parseDouble(freqFields[i].getText());
-			} catch (NumberFormatException e) {
-				System.err.println("Error: invalid numerical input (step " 
-						+ (i+1) + " - " + e.getMessage() + ")");
-				throw e;
-			}
-		}	
-		return freqs;
+		if (table.isEditing() && !table.getCellEditor().stopCellEditing()) {
+			int row = table.getEditingRow();
+			Object editor = table.getEditorComponent();
+			String text = editor instanceof JTextField 
+					? ((JTextField) editor).getText() : "";
+			NumberFormatException e = new NumberFormatException(
+					"For input string: \"" + text + "\"");
+			System.err.println("Error: invalid numerical input (step " 
+					+ (row + 1) + " - " + e.getMessage() + ")");
+			throw e;
+		}
+		return model.ratios.clone();
 	}
 
-}
\ No newline at end of file
+}
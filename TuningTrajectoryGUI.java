@@ -3,8 +3,14 @@ package com.adriantregonning.javamusic;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.text.DecimalFormat;
 
+import javax.management.JMException;
+
 import javax.swing.*;
 
 import com.adriantregonning.javamusic.TuningTrajectory.*;
@@ -29,7 +35,8 @@ import com.softsynth.view.*;
  */
 @SuppressWarnings("serial")
 public class TuningTrajectoryGUI extends JApplet 
-                    implements CustomFaderListener, ActionListener {
+                    implements CustomFaderListener, ActionListener, 
+                    DegreeListener {
         
     // Preset source and destination tunings to use
     Tunings sourcePreset = TuningTrajectory.Tunings.TWELVE_TET;
@@ -40,6 +47,18 @@ public class TuningTrajectoryGUI extends JApplet
     TuningTrajectory destTraj;
     TuningTrajectory morphTraj;
     
+    // Reusable engine that morphs morphTraj in place
+    TuningMorpher morpher;
+    
+    // Optional precomputed grid of morphs between sourceTraj and destTraj,
+    // used by the morph button while gridBox is ticked. The grid follows 
+    // the trajectories, so table edits take effect once applied with the 
+    // panel's "Get" button or a preset.
+    JCheckBox gridBox;
+    boolean useMorphGrid = false;
+    int morphGridResolution = 256;
+    MorphGrid morphGrid;
+    
     // Flag for including GUI in a JMSL score frame
     boolean addToScoreFrame = true;
     
@@ -72,6 +91,13 @@ public class TuningTrajectoryGUI extends JApplet
 
     JComboBox sourcePresetsBox;
     JComboBox destPresetsBox;
+    
+    // Tunings from the registry, followed by an optional catalogue of Scala
+    // scales, are listed in the preset boxes. Set the "tuning.catalogue" system property to 
+    // the path of a catalogue built with ScalaCatalogue.
+    ScalaCatalogue catalogue;
+    TuningRegistry registry = TuningRegistry.getDefault();
+    String[] presetLabels = registry.labels();
 
     // Components for the morphing panel: 
     // Morph index fader, dropdown list for interpolator choice, text area 
@@ -82,10 +108,54 @@ public class TuningTrajectoryGUI extends JApplet
     JComboBox interpMenu;
     JButton morphButton;
     
+    // Live mode: fader movement retunes continuously through liveController,
+    // at most controlRate times per second. The morph table panel is 
+    // refreshed separately by tableRefreshTimer on the Swing thread.
+    JCheckBox liveBox;
+    LiveMorphController liveController;
+    double controlRate = 100;
+    Timer tableRefreshTimer;
+    int tableRefreshMillis = 100;
+    int displayedVersion;
+    double[] displayRatios = new double[0];
+    
+    // Least dissonant path: pathButton searches off the Swing thread for the
+    // least dissonant morph between the current tunings (see 
+    // DissonanceEngine.findPath()), then pathTimer plays it, one stage every
+    // pathStepMillis.
+    DissonanceEngine dissonance = new DissonanceEngine(6);
+    int pathStages = 32;
+    int pathLevels = 101;
+    int pathMaxStep = 8;
+    JButton pathButton;
+    Timer pathTimer;
+    int pathStepMillis = 100;
+    double[] pathIndices;
+    int pathStage;
+    
+    // Morph space: the 12-degree registry tunings placed around a circle on
+    // an XY pad, in a separate window. Pad movement is blended into 
+    // morphTraj at most controlRate times per second by padTimer, which runs
+    // only while the window is open and live mode, which also drives 
+    // morphTraj, is off.
+    MorphSpace morphSpace;
+    MorphSpacePad morphSpacePad;
+    JFrame morphSpaceFrame;
+    JButton morphSpaceButton;
+    Timer padTimer;
+    double[] padPosition = new double[2];
+    
     /// Buttons for starting/stopping piece
     JButton startPieceButton;
     JButton stopPieceButton;
     
+    // Retune latency instrumentation, registered with JMX as 
+    // LATENCY_MBEAN_NAME. Set the "tuning.latencyDump" system property to a 
+    // number of seconds to also print a report periodically.
+    static final String LATENCY_MBEAN_NAME = 
+            "com.adriantregonning.javamusic:type=RetuneLatency";
+    RetuneLatencyMonitor latencyMonitor;
+    
     // JMSL Score for playing music
     ScorePiece scorePiece;
     
@@ -107,12 +177,20 @@ public class TuningTrajectoryGUI extends JApplet
         scorePiece.makeScore(width, height);
         
         sourceTraj = new TuningTrajectory();
-        sourceTraj.setFrequencies(sourcePreset.ratios());
+        sourceTraj.setToPreset(sourcePreset.idx());
         sourceTraj.makeEditorPanel();
         
         destTraj = new TuningTrajectory();
-        destTraj.setFrequencies(destPreset.ratios());
+        destTraj.setToPreset(destPreset.idx());
         destTraj.makeEditorPanel();      
+        sourceTraj.addDegreeListener(this);
+        destTraj.addDegreeListener(this);
+        
+        morphTraj = new TuningTrajectory();
+        morphTraj.setLatencyMonitor(latencyMonitor);
+        morpher = new TuningMorpher(morphTraj, sourcePreset.ratios().length);
+        morphGrid = new MorphGrid(sourceTraj, destTraj, morphGridResolution);
+        liveController = new LiveMorphController(morpher, controlRate);
     }
     
     // GUI constructor. If inScoreframe is true the tuning tables are added to the JMSL score window,
@@ -136,7 +214,7 @@ public class TuningTrajectoryGUI extends JApplet
         sourcePresetsPanel = new JPanel(new GridLayout(1,2));
         sourcePresetsLabel = new JLabel("Presets:");
         sourcePresetsLabel.setHorizontalAlignment(JLabel.CENTER);
-        sourcePresetsBox = new JComboBox(Tunings.labels);
+        sourcePresetsBox = new JComboBox(presetLabels);
         sourcePresetsBox.setSelectedIndex(sourcePreset.idx());
         sourcePresetsPanel.add(sourcePresetsLabel);
         sourcePresetsPanel.add(sourcePresetsBox);
@@ -155,7 +233,7 @@ public class TuningTrajectoryGUI extends JApplet
         destPresetsPanel = new JPanel(new GridLayout(1,2));
         destPresetsLabel = new JLabel("Presets:");
         destPresetsLabel.setHorizontalAlignment(JLabel.CENTER);
-        destPresetsBox = new JComboBox(Tunings.labels);
+        destPresetsBox = new JComboBox(presetLabels);
         destPresetsBox.setSelectedIndex(destPreset.idx());
         destPresetsPanel.add(destPresetsLabel);
         destPresetsPanel.add(destPresetsBox);
@@ -187,6 +265,17 @@ public class TuningTrajectoryGUI extends JApplet
         morphTypeAndButtonPanel = new JPanel();
         morphTypeAndButtonPanel.add(interpMenu);
         morphTypeAndButtonPanel.add(morphButton);
+        gridBox = new JCheckBox("Grid", useMorphGrid);
+        morphTypeAndButtonPanel.add(gridBox);
+        liveBox = new JCheckBox("Live");
+        morphTypeAndButtonPanel.add(liveBox);
+        pathButton = new JButton("Least dissonant path");
+        morphTypeAndButtonPanel.add(pathButton);
+        pathTimer = new Timer(pathStepMillis, this);
+        morphSpaceButton = new JButton("Morph space");
+        morphTypeAndButtonPanel.add(morphSpaceButton);
+        padTimer = new Timer((int) Math.max(1, 1000 / controlRate), this);
+        tableRefreshTimer = new Timer(tableRefreshMillis, this);
         morphFaderPanel.add(morphTypeAndButtonPanel);
  
         // Set some additional properties/layouts depending on placement of trajectory panel
@@ -232,6 +321,10 @@ public class TuningTrajectoryGUI extends JApplet
         sourcePresetsBox.addActionListener(this);
         destPresetsBox.addActionListener(this);
         interpMenu.addActionListener(this);
+        gridBox.addActionListener(this);
+        liveBox.addActionListener(this);
+        pathButton.addActionListener(this);
+        morphSpaceButton.addActionListener(this);
         startPieceButton.addActionListener(this);
         stopPieceButton.addActionListener(this);
     }
@@ -243,29 +336,60 @@ public class TuningTrajectoryGUI extends JApplet
         ScoreControlPanel ctrls = scorePiece.getScoreFrameControls();
         
         if(source == morphButton) {
+            latencyMonitor.mark(RetuneLatencyMonitor.Stage.ACTION);
             double index = ((double) morphFader.getValue()) / 100;
             int interpType = interpMenu.getSelectedIndex();
             try {
-                double [] sourceRatios = sourceTablePanel.getFreqTable();
-                double [] destRatios = destTablePanel.getFreqTable();
-                morphTraj = TuningTrajectory.makeInterpolatedTuning(
-                        sourceRatios, destRatios, index, interpType);
-                morphTraj.makeEditorPanel();
-                if (morphTablePanel != null) {
-                    morphTablePanel.setFreqTable(morphTraj.getRatios());
+                if (useMorphGrid) {
+                    morphGrid.morphInto(morphTraj, index, interpType, true);
                 } else {
-                    morphTablePanel = morphTraj.getPanel();
-                    morphPanel.add(morphTablePanel);
+                    synchronized (morpher) {
+                        morpher.setSource(sourceTablePanel.getFreqTable(),
+                                sourceTraj.getPeriod());
+                        morpher.setDestination(destTablePanel.getFreqTable(),
+                                destTraj.getPeriod());
+                        morpher.setInterpolationType(interpType);
+                        morpher.morph(index);
+                    }
                 }
-                morphTablePanel = morphTraj.getPanel();
-                scorePiece.setOrchestraTuning(morphTraj);
+                showMorphTable();
             } 
             catch (NumberFormatException e1) {
                     throw e1;
                 }
             morphButton.setEnabled(false);
         } else if(source == interpMenu) {
-            morphButton.setEnabled(true);
+            if (liveBox.isSelected()) {
+                liveController.setInterpolationType(
+                        interpMenu.getSelectedIndex());
+            } else {
+                morphButton.setEnabled(true);
+            }
+        } else if(source == gridBox) {
+            useMorphGrid = gridBox.isSelected();
+            if (!liveBox.isSelected()) {
+                morphButton.setEnabled(true);
+            }
+        } else if(source == liveBox) {
+            setLive(liveBox.isSelected());
+        } else if(source == pathButton) {
+            findDissonancePath();
+        } else if(source == pathTimer) {
+            playPathStage();
+        } else if(source == morphSpaceButton) {
+            showMorphSpace();
+        } else if(source == padTimer) {
+            if (morphSpacePad.takePosition(padPosition)) {
+                int type = interpMenu.getSelectedIndex() 
+                        == TuningMorpher.EXPONENTIAL 
+                        ? MorphSpace.EXPONENTIAL : MorphSpace.LINEAR;
+                morphSpace.blendInto(morphTraj, padPosition, type);
+                showMorphTable();
+            }
+        } else if(source == tableRefreshTimer) {
+            if (morphTraj.getVersion() != displayedVersion) {
+                showMorphTable();
+            }
         } else if(source == startPieceButton) {
             ctrls.launch(JMSL.now(), 0, scorePiece.getScoreSize() - 1, false);
             startPieceButton.setEnabled(false);
@@ -276,12 +400,251 @@ public class TuningTrajectoryGUI extends JApplet
             startPieceButton.setEnabled(true);
         } else {
             if(source == sourcePresetsBox) {
-                sourceTraj.setToPreset(sourcePresetsBox.getSelectedIndex());
-                sourceTablePanel.setFreqTable(sourceTraj.getRatios());
+                sourceTablePanel = loadPreset(sourcePresetsBox
+                        .getSelectedIndex(), sourceTraj, sourceTablePanel, 
+                        sourcePanel);
             } else if(source == destPresetsBox) {
-                destTraj.setToPreset(destPresetsBox.getSelectedIndex());
-                destTablePanel.setFreqTable(destTraj.getRatios());
+                destTablePanel = loadPreset(destPresetsBox.getSelectedIndex(),
+                        destTraj, destTablePanel, destPanel);
+            }
+            if (liveBox.isSelected()) {
+                liveController.setSource(sourceTraj.getRatios(), 
+                        sourceTraj.getPeriod());
+                liveController.setDestination(destTraj.getRatios(), 
+                        destTraj.getPeriod());
+            } else {
+                morphButton.setEnabled(true);
+            }
+        }
+    }
+    
+    // Shows the current morph table. The first time, this creates the morph 
+    // panel and sets the orchestra tuning; morphTraj is updated in place 
+    // after that. The panel is rebuilt if the number of degrees changes.
+    private void showMorphTable() {
+        displayedVersion = morphTraj.getVersion();
+        TuningSnapshot snap = morphTraj.getSnapshot();
+        if (displayRatios.length != snap.getSteps()) {
+            displayRatios = new double[snap.getSteps()];
+        }
+        snap.copyRatios(displayRatios);
+        
+        if (morphTablePanel == null) {
+            morphTraj.makeEditorPanel();
+            morphTablePanel = morphTraj.getPanel();
+            morphPanel.add(morphTablePanel);
+            scorePiece.setOrchestraTuning(morphTraj);
+        } else if (morphTablePanel.getSteps() != displayRatios.length) {
+            morphPanel.remove(morphTablePanel);
+            morphTraj.makeEditorPanel();
+            morphTablePanel = morphTraj.getPanel();
+            morphPanel.add(morphTablePanel);
+            morphPanel.revalidate();
+        } else {
+            morphTablePanel.setFreqTable(displayRatios);
+        }
+        latencyMonitor.mark(RetuneLatencyMonitor.Stage.DISPLAYED);
+    }
+    
+    // Switches live mode on or off. In live mode the morph button is not 
+    // used; fader, preset and interpolation changes go to liveController.
+    private void setLive(boolean live) {
+        if (live) {
+            synchronized (morpher) {
+                morpher.setSource(sourceTraj.getRatios(), 
+                        sourceTraj.getPeriod());
+                morpher.setDestination(destTraj.getRatios(), 
+                        destTraj.getPeriod());
+                morpher.setInterpolationType(interpMenu.getSelectedIndex());
+                morpher.morph(morphFader.getValue() / 100.0);
+            }
+            showMorphTable();
+            padTimer.stop();
+            liveController.request(morphFader.getValue() / 100.0);
+            liveController.start();
+            tableRefreshTimer.start();
+        } else {
+            liveController.stop();
+            tableRefreshTimer.stop();
+            showMorphTable();
+            startPadTimer();
+        }
+        morphButton.setEnabled(false);
+    }
+    
+    // Searches for the least dissonant path between the current source and
+    // destination in the background, then selects its interpolation type 
+    // and starts playing it
+    private void findDissonancePath() {
+        final double[] src = sourceTraj.getRatios();
+        final double[] dst = destTraj.getRatios();
+        final double srcPeriod = sourceTraj.getPeriod();
+        final double dstPeriod = destTraj.getPeriod();
+        pathTimer.stop();
+        pathButton.setEnabled(false);
+        new SwingWorker<DissonanceEngine.Path, Void>() {
+            protected DissonanceEngine.Path doInBackground() {
+                return dissonance.findPath(src, srcPeriod, dst, dstPeriod, 
+                        pathStages, pathLevels, pathMaxStep);
             }
+            protected void done() {
+                pathButton.setEnabled(true);
+                try {
+                    DissonanceEngine.Path path = get();
+                    interpMenu.setSelectedIndex(path.getInterpolationType());
+                    pathIndices = path.getIndices();
+                    pathStage = 0;
+                    pathTimer.start();
+                } catch (Exception e) {
+                    System.err.println("Error: dissonance search failed (" 
+                            + e.getMessage() + ")");
+                }
+            }
+        }.execute();
+    }
+    
+    // Opens the morph space window, building the space the first time
+    private void showMorphSpace() {
+        if (morphSpaceFrame == null) {
+            int count = 0;
+            for (int i = 0; i < registry.size(); i++) {
+                if (registry.get(i).steps() == 12) {
+                    count++;
+                }
+            }
+            morphSpace = new MorphSpace(2, 12);
+            String[] labels = new String[count];
+            for (int i = 0, k = 0; i < registry.size(); i++) {
+                TuningProvider tuning = registry.get(i);
+                if (tuning.steps() != 12) {
+                    continue;
+                }
+                double angle = 2 * Math.PI * k / count;
+                morphSpace.addAnchor(new double[] {
+                        0.5 + 0.45 * Math.cos(angle), 
+                        0.5 + 0.45 * Math.sin(angle)}, tuning);
+                labels[k++] = tuning.label();
+            }
+            morphSpacePad = new MorphSpacePad(morphSpace, labels);
+            morphSpaceFrame = new JFrame("Morph space");
+            morphSpaceFrame.add(morphSpacePad);
+            morphSpaceFrame.pack();
+            morphSpaceFrame.addWindowListener(new WindowAdapter() {
+                public void windowClosing(WindowEvent e) {
+                    padTimer.stop();
+                }
+            });
+        }
+        morphSpaceFrame.setVisible(true);
+        startPadTimer();
+    }
+    
+    // Starts blending pad movement into morphTraj, if the morph space 
+    // window is open and live mode is off. Movement made while the pad was
+    // not being followed is discarded.
+    private void startPadTimer() {
+        if (morphSpaceFrame == null || !morphSpaceFrame.isVisible() 
+                || liveBox.isSelected()) {
+            return;
+        }
+        morphSpacePad.takePosition(padPosition);
+        padTimer.start();
+    }
+    
+    // Morphs to the next stage of the dissonance path
+    private void playPathStage() {
+        if (pathStage >= pathIndices.length) {
+            pathTimer.stop();
+            return;
+        }
+        double index = pathIndices[pathStage++];
+        if (liveBox.isSelected()) {
+            liveController.request(index);
+        } else {
+            synchronized (morpher) {
+                morpher.setSource(sourceTraj.getRatios(), 
+                        sourceTraj.getPeriod());
+                morpher.setDestination(destTraj.getRatios(), 
+                        destTraj.getPeriod());
+                morpher.setInterpolationType(interpMenu.getSelectedIndex());
+                morpher.morph(index);
+            }
+            showMorphTable();
+        }
+        morphFaderVal.setText(newFormat.format(index * 100) + "%");
+    }
+    
+    // Loads a built-in preset or catalogue scale into a trajectory and shows
+    // it in the trajectory's panel. The panel is replaced if the number of 
+    // scale degrees has changed; the panel in use is returned.
+    private TuningTrajectoryEditorPanel loadPreset(int index, 
+            TuningTrajectory traj, TuningTrajectoryEditorPanel panel, 
+            JPanel parent) {
+        if (index < registry.size()) {
+            traj.setToTuning(registry.get(index));
+        } else {
+            catalogue.getScale(index - registry.size()).applyTo(traj);
+        }
+        double[] ratios = traj.getRatios();
+        if (panel.getSteps() == ratios.length) {
+            panel.setFreqTable(ratios);
+            return panel;
+        }
+        parent.remove(panel);
+        traj.makeEditorPanel();
+        parent.add(traj.getPanel());
+        parent.revalidate();
+        return traj.getPanel();
+    }
+    
+    // Creates the retune latency monitor and makes it available through JMX
+    private void startLatencyMonitor() {
+        latencyMonitor = new RetuneLatencyMonitor();
+        try {
+            latencyMonitor.register(LATENCY_MBEAN_NAME);
+        } catch (JMException e) {
+            System.err.println("Error: could not register latency monitor (" 
+                    + e.getMessage() + ")");
+        }
+        String period = System.getProperty("tuning.latencyDump");
+        if (period != null) {
+            latencyMonitor.startDump(Long.parseLong(period), System.out);
+        }
+    }
+    
+    // Opens the scale catalogue named by the "tuning.catalogue" property, if
+    // any, and adds its scales to the preset labels
+    private void openCatalogue() {
+        String path = System.getProperty("tuning.catalogue");
+        if (path == null) {
+            return;
+        }
+        try {
+            catalogue = ScalaCatalogue.open(Paths.get(path));
+        } catch (IOException e) {
+            System.err.println("Error: could not open scale catalogue (" 
+                    + path + " - " + e.getMessage() + ")");
+            return;
+        }
+        String[] labels = registry.labels();
+        String[] names = catalogue.getNames();
+        presetLabels = new String[labels.length + names.length];
+        System.arraycopy(labels, 0, presetLabels, 0, labels.length);
+        System.arraycopy(names, 0, presetLabels, labels.length, names.length);
+    }
+    
+    // Listener for single-degree edits in the source and destination panels
+    @Override
+    public void degreeChanged(TuningTrajectory traj, int degree, double ratio,
+            int version) {
+        if (liveBox.isSelected()) {
+            if (traj == sourceTraj) {
+                liveController.setSource(traj.getRatios(), traj.getPeriod());
+            } else {
+                liveController.setDestination(traj.getRatios(), 
+                        traj.getPeriod());
+            }
+        } else {
             morphButton.setEnabled(true);
         }
     }
@@ -289,7 +652,12 @@ public class TuningTrajectoryGUI extends JApplet
     // Listener for morph fader
     @Override
     public void customFaderValueChanged(CustomFader fader, int val) {
-        morphButton.setEnabled(true);
+        latencyMonitor.begin();
+        if (liveBox.isSelected()) {
+            liveController.request(val / 100.0);
+        } else {
+            morphButton.setEnabled(true);
+        }
         morphFaderVal.setText(newFormat.format(val) + "%");
         if(addToScoreFrame) {
             scorePiece.getScoreFrame().validate();
@@ -298,6 +666,8 @@ public class TuningTrajectoryGUI extends JApplet
     
     // Applet start method
     public void start() {
+        startLatencyMonitor();
+        openCatalogue();
         buildPiece(addToScoreFrame);
         buildGUI(addToScoreFrame);
     }
@@ -0,0 +1,340 @@
+package com.adriantregonning.javamusic;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/******************************************************************************
+ * <p>Compilation           : javac VoiceMorphBank.java</p>
+ * <p>Dependencies          : none</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningMorpher</p>
+ *
+ *  <p> Independent morph state for every voice of a large polyphonic 
+ *  orchestra. Rather than retuning the whole orchestra to one 
+ *  TuningTrajectory, each voice has its own source table, destination table,
+ *  morph index and curve, held in primitive arrays indexed by voice ID. The
+ *  source and destination tables come from a shared pool, and each voice's
+ *  morphed frequencies are cached when its state changes, so looking up the
+ *  frequency of a voice and pitch is a single array read plus a shift by
+ *  the period, with no allocation.</p>
+ *  
+ *  <p>All tables in a bank have the same number of steps; tables of other
+ *  sizes are resampled when added. Each table keeps its own period, which
+ *  is morphed along with its ratios, so non-octave tunings repeat 
+ *  correctly.</p>
+ *  
+ *  <p>Tables may be added from any thread while voices are being set and
+ *  read: the pool is published through volatile fields after each table is
+ *  written, so a voice only ever sees tables that are complete. Each voice
+ *  should be set by one thread at a time, and a voice that has never been 
+ *  set plays table 0. Frequencies may be read from any thread: each 
+ *  voice's cache is guarded by a sequence counter, as in TuningSnapshot, 
+ *  so a reader always sees one complete state of the voice.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class VoiceMorphBank {
+
+    private static final VarHandle SEQ = 
+            MethodHandles.arrayElementVarHandle(int[].class);
+    
+    private final int steps;
+    private final int voices;
+    private final double refFreq;
+    private final int refPitch;
+    
+    // Shared table pool, flat as [table * steps + degree], with log-ratios
+    // kept alongside for exponential morphs, and each table's period. The
+    // arrays are replaced, never shrunk, as tables are added, and written 
+    // under the bank's lock before tableCount is incremented.
+    private volatile double[] pool;
+    private volatile double[] logPool;
+    private volatile double[] periods;
+    private volatile int tableCount;
+    
+    // Per-voice morph state
+    private final int[] source;
+    private final int[] dest;
+    private final double[] index;
+    private final byte[] curve;
+    
+    // Per-voice morphed frequencies (Hz), flat as [voice * steps + degree],
+    // and morphed periods, each voice's guarded by its sequence counter: 0
+    // until the voice is first set, and odd while it is being written
+    private final double[] freqs;
+    private final double[] voicePeriods;
+    private final int[] seqs;
+    
+    // Buffer for resampling tables as they are added
+    private final double[] resampled;
+    
+    /**
+     * Creates a bank with the default reference of Middle C.
+     * 
+     * @param voices number of voices
+     * @param steps  number of steps per period in every table
+     */
+    public VoiceMorphBank(int voices, int steps) {
+        this(voices, steps, TuningTrajectory.Tunings.refFreq, 
+                (int) TuningTrajectory.Tunings.refPitch);
+    }
+    
+    /**
+     * @param voices   number of voices
+     * @param steps    number of steps per period in every table
+     * @param refFreq  frequency of the first degree in Hz
+     * @param refPitch pitch of the first degree
+     */
+    public VoiceMorphBank(int voices, int steps, double refFreq, 
+            int refPitch) {
+        this.voices = voices;
+        this.steps = steps;
+        this.refFreq = refFreq;
+        this.refPitch = refPitch;
+        pool = new double[4 * steps];
+        logPool = new double[4 * steps];
+        periods = new double[4];
+        source = new int[voices];
+        dest = new int[voices];
+        index = new double[voices];
+        curve = new byte[voices];
+        freqs = new double[voices * steps];
+        voicePeriods = new double[voices];
+        seqs = new int[voices];
+        resampled = new double[steps];
+    }
+    
+    /**
+     * Adds an octave-repeating table to the shared pool. Every voice 
+     * initially uses table 0 as both its source and destination, so add 
+     * that table first.
+     * 
+     * @param ratios frequency ratios, resampled if not of the bank's size
+     * @return The table's ID
+     */
+    public int addTable(double[] ratios) {
+        return addTable(ratios, 2.0);
+    }
+    
+    /**
+     * Adds a table with any period to the shared pool.
+     * 
+     * @param ratios frequency ratios, resampled if not of the bank's size
+     * @param period period as a frequency ratio
+     * @return The table's ID
+     */
+    public synchronized int addTable(double[] ratios, double period) {
+        if (!(period > 1) || Double.isInfinite(period)) {
+            throw new IllegalArgumentException("Invalid period " + period);
+        }
+        int id = tableCount;
+        double[] p = pool;
+        double[] lp = logPool;
+        double[] per = periods;
+        if (id == per.length) {
+            p = Arrays.copyOf(p, p.length * 2);
+            lp = Arrays.copyOf(lp, lp.length * 2);
+            per = Arrays.copyOf(per, per.length * 2);
+        }
+        int base = id * steps;
+        TuningResampler.resample(ratios, ratios.length, period, resampled, 
+                steps);
+        for (int i = 0; i < steps; i++) {
+            p[base + i] = resampled[i];
+            lp[base + i] = Math.log(resampled[i]);
+        }
+        per[id] = period;
+        pool = p;
+        logPool = lp;
+        periods = per;
+        tableCount = id + 1;
+        return id;
+    }
+    
+    /**
+     * Adds one of the registered tunings to the shared pool.
+     * 
+     * @param tuning the tuning provider
+     * @return The table's ID
+     */
+    public int addTable(TuningProvider tuning) {
+        return addTable(tuning.ratios(), tuning.period());
+    }
+    
+    // Checks a voice ID
+    private void checkVoice(int voice) {
+        if (voice < 0 || voice >= voices) {
+            throw new IllegalArgumentException("Unknown voice " + voice);
+        }
+    }
+    
+    /**
+     * Sets the complete morph state of a voice.
+     * 
+     * @param voice       voice ID
+     * @param sourceTable ID of the source table
+     * @param destTable   ID of the destination table
+     * @param morphIndex  morph index, 0..1
+     * @param intType     interpolation type, as in TuningMorpher
+     */
+    public void setVoice(int voice, int sourceTable, int destTable, 
+            double morphIndex, int intType) {
+        checkVoice(voice);
+        int count = tableCount;
+        if (sourceTable < 0 || sourceTable >= count 
+                || destTable < 0 || destTable >= count) {
+            throw new IllegalArgumentException("Unknown table");
+        }
+        if (intType < TuningMorpher.LINEAR 
+                || intType > TuningMorpher.EXPONENTIAL) {
+            throw new IllegalArgumentException("Unknown interpolation type "
+                    + intType);
+        }
+        source[voice] = sourceTable;
+        dest[voice] = destTable;
+        index[voice] = morphIndex;
+        curve[voice] = (byte) intType;
+        update(voice);
+    }
+    
+    /**
+     * Moves a voice's morph index. Costs one pass over the voice's degrees.
+     * 
+     * @param voice      voice ID
+     * @param morphIndex morph index, 0..1
+     */
+    public void setMorphIndex(int voice, double morphIndex) {
+        checkVoice(voice);
+        index[voice] = morphIndex;
+        update(voice);
+    }
+    
+    // Recomputes the cached frequencies and period of one voice. The count
+    // is read before the pool, so the pool holds every table counted.
+    private void update(int voice) {
+        if (tableCount == 0) {
+            return;
+        }
+        int seq = (int) SEQ.getOpaque(seqs, voice);
+        SEQ.setOpaque(seqs, voice, seq + 1);
+        VarHandle.storeStoreFence();
+        morph(voice);
+        SEQ.setRelease(seqs, voice, seq + 2);
+    }
+    
+    // Writes the morphed frequencies and period of one voice
+    private void morph(int voice) {
+        double[] p = pool;
+        double[] lp = logPool;
+        double[] per = periods;
+        int out = voice * steps;
+        int src = source[voice];
+        int dst = dest[voice];
+        int a = src * steps;
+        int b = dst * steps;
+        double t = index[voice];
+        switch (curve[voice]) {
+        case TuningMorpher.EXPONENTIAL:
+            for (int i = 0; i < steps; i++) {
+                double la = lp[a + i];
+                freqs[out + i] = refFreq * Math.exp(la + (lp[b + i] - la) * t);
+            }
+            voicePeriods[voice] = per[src] * Math.pow(per[dst] / per[src], t);
+            return;
+        case TuningMorpher.HALF_COSINE:
+            t = 0.5 - 0.5 * Math.cos(Math.PI * t);
+            break;
+        }
+        for (int i = 0; i < steps; i++) {
+            double r = p[a + i];
+            freqs[out + i] = refFreq * (r + (p[b + i] - r) * t);
+        }
+        voicePeriods[voice] = per[src] + (per[dst] - per[src]) * t;
+    }
+    
+    // Checks that table 0, played by voices not yet set, has been added
+    private void checkTables() {
+        if (tableCount == 0) {
+            throw new IllegalStateException("No tables have been added");
+        }
+    }
+    
+    /**
+     * Returns the frequency of a pitch for a voice. Safe to call from any 
+     * thread while the voice is being set; retries if the voice changes 
+     * while it is read. Does not allocate.
+     * 
+     * @param voice voice ID
+     * @param pitch integer pitch
+     * @return The frequency in Hz
+     */
+    public double getFrequency(int voice, int pitch) {
+        int k = pitch - refPitch;
+        int cycle = Math.floorDiv(k, steps);
+        int degree = k - cycle * steps;
+        double freq;
+        double period;
+        while (true) {
+            int seq = (int) SEQ.getAcquire(seqs, voice);
+            if (seq == 0) {
+                checkTables();
+                freq = refFreq * pool[degree];
+                period = periods[0];
+                break;
+            }
+            if ((seq & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            freq = freqs[voice * steps + degree];
+            period = voicePeriods[voice];
+            VarHandle.loadLoadFence();
+            if ((int) SEQ.getOpaque(seqs, voice) == seq) {
+                break;
+            }
+        }
+        if (period == 2.0) {
+            return Math.scalb(freq, cycle);
+        }
+        return freq * Math.pow(period, cycle);
+    }
+    
+    /**
+     * Returns the morphed period of a voice, read as getFrequency() reads 
+     * the voice.
+     * 
+     * @param voice voice ID
+     * @return period as a frequency ratio
+     */
+    public double getPeriod(int voice) {
+        while (true) {
+            int seq = (int) SEQ.getAcquire(seqs, voice);
+            if (seq == 0) {
+                checkTables();
+                return periods[0];
+            }
+            if ((seq & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            double period = voicePeriods[voice];
+            VarHandle.loadLoadFence();
+            if ((int) SEQ.getOpaque(seqs, voice) == seq) {
+                return period;
+            }
+        }
+    }
+    
+    // Getters
+    public int getVoiceCount() { return voices; }
+    public int getSteps() { return steps; }
+    public int getTableCount() { return tableCount; }
+    public double getMorphIndex(int voice) { return index[voice]; }
+    public int getSourceTable(int voice) { return source[voice]; }
+    public int getDestinationTable(int voice) { return dest[voice]; }
+    public int getInterpolationType(int voice) { return curve[voice]; }
+    public double getTablePeriod(int table) { return periods[table]; }
+
+}
@@ -0,0 +1,299 @@
+package com.adriantregonning.javamusic;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/******************************************************************************
+ * <p>Compilation           : mvn -pl benchmarks package</p>
+ * <p>Execution             : java -jar benchmarks/target/benchmarks.jar 
+ *                            TuningBenchmark -prof gc</p>
+ * <p>Dependencies          : org.openjdk.jmh</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningTrajectory,
+ *                            com.adriantregonning.javamusic.TuningMorpher,
+ *                            com.adriantregonning.javamusic.MorphGrid,
+ *                            com.adriantregonning.javamusic.BulkMorphKernel</p>
+ *
+ *  <p> JMH benchmarks of the tuning and morph hot paths, in four groups: 
+ *  the main TuningTrajectory paths for scales of 12 to 1,200 degrees, 
+ *  frequency reads while other threads rewrite the table, the morph grid,
+ *  and the bulk morph kernels against one call per table (reported per 
+ *  table). Run with <tt>-prof gc</tt> to report the bytes allocated per 
+ *  operation, which is how the garbage-free paths are checked; main() 
+ *  does this for you.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TuningBenchmark {
+
+    private static final int TABLES = 1024;
+
+    // Morph index for call i, sweeping 0..1
+    private static double index(int i) {
+        return (i & 1023) / 1023.0;
+    }
+
+    // A scale of each size, and a trajectory playing it
+    @State(Scope.Thread)
+    public static class Scale {
+        @Param({"12", "120", "1200"})
+        int steps;
+
+        EqualTemperament et;
+        double[] ratios;
+        TuningTrajectory traj;
+        int calls;
+
+        @Setup
+        public void setUp() {
+            et = new EqualTemperament(steps);
+            ratios = et.ratios();
+            traj = new TuningTrajectory();
+            traj.setTable(ratios);
+        }
+    }
+
+    // A morph between equal temperament and Pythagorean tuning, resampled 
+    // to each size
+    @State(Scope.Thread)
+    public static class Morph {
+        @Param({"12", "120", "1200"})
+        int steps;
+
+        @Param({"0", "1", "2"})
+        int intType;
+
+        double[] src;
+        double[] dst;
+        TuningMorpher morpher;
+        int calls;
+
+        @Setup
+        public void setUp() {
+            src = EqualTemperament.buildRatios(steps, 2.0);
+            dst = new double[steps];
+            TuningResampler.resample(
+                    TuningTrajectory.Tunings.PYTHAG.ratios(), 12, 2.0, 
+                    dst, steps);
+            morpher = new TuningMorpher(new TuningTrajectory(), steps);
+            morpher.setSource(src);
+            morpher.setDestination(dst);
+            morpher.setInterpolationType(intType);
+        }
+    }
+
+    // A precomputed grid between two 12-degree tunings
+    @State(Scope.Thread)
+    public static class Grid {
+        @Param({"0", "1", "2"})
+        int intType;
+
+        MorphGrid grid;
+        double[] out = new double[12];
+        int calls;
+
+        @Setup
+        public void setUp() {
+            TuningTrajectory source = new TuningTrajectory();
+            source.setTable(TuningTrajectory.Tunings.TWELVE_TET.ratios());
+            TuningTrajectory dest = new TuningTrajectory();
+            dest.setTable(TuningTrajectory.Tunings.PYTHAG.ratios());
+            grid = new MorphGrid(source, dest, 256);
+        }
+    }
+
+    // TABLES pairs of 12-degree tables, flat, with a morph index for each
+    @State(Scope.Thread)
+    public static class Bulk {
+        @Param({"0", "1", "2"})
+        int intType;
+
+        final int steps = 12;
+        double[] src = new double[TABLES * steps];
+        double[] dst = new double[TABLES * steps];
+        double[] logSrc = new double[TABLES * steps];
+        double[] logDst = new double[TABLES * steps];
+        double[] index = new double[TABLES];
+        double[] out = new double[TABLES * steps];
+        double[] one;
+        double[] other;
+
+        @Setup
+        public void setUp() {
+            one = TuningTrajectory.Tunings.TWELVE_TET.ratios();
+            other = TuningTrajectory.Tunings.PTOLEMY.ratios();
+            for (int k = 0; k < TABLES; k++) {
+                System.arraycopy(one, 0, src, k * steps, steps);
+                System.arraycopy(other, 0, dst, k * steps, steps);
+                index[k] = (double) k / TABLES;
+            }
+            BulkMorphKernel.toLog(src, logSrc, src.length);
+            BulkMorphKernel.toLog(dst, logDst, dst.length);
+        }
+    }
+
+    // A trajectory shared by the readers and writers of a contended group
+    @State(Scope.Group)
+    public static class Contended {
+        @Param({"12", "120", "1200"})
+        int steps;
+
+        TuningTrajectory traj;
+
+        @Setup
+        public void setUp() {
+            traj = new TuningTrajectory();
+            traj.setTable(EqualTemperament.buildRatios(steps, 2.0));
+        }
+    }
+
+    // Each writer's own morpher onto the shared trajectory
+    @State(Scope.Thread)
+    public static class Writer {
+        TuningMorpher morpher;
+        int calls;
+
+        @Setup
+        public void setUp(Contended c) {
+            morpher = new TuningMorpher(c.traj, c.steps);
+            morpher.setSource(EqualTemperament.buildRatios(c.steps, 2.0));
+            morpher.setDestination(EqualTemperament.buildRatios(c.steps, 2.1));
+        }
+    }
+
+    // Per-thread read position for the contended readers
+    @State(Scope.Thread)
+    public static class Reader {
+        int calls;
+    }
+
+    // TuningTrajectory paths
+
+    @Benchmark
+    public void setTable(Scale s) {
+        s.traj.setTable(s.ratios);
+    }
+
+    @Benchmark
+    public void setToTuning(Scale s) {
+        s.traj.setToTuning(s.et);
+    }
+
+    @Benchmark
+    public double getFrequency(Scale s) {
+        return s.traj.getFrequency(s.calls++ & 127);
+    }
+
+    @Benchmark
+    public TuningTrajectory makeInterpolatedTuning(Morph m) {
+        return TuningTrajectory.makeInterpolatedTuning(m.src, m.dst, 
+                index(m.calls++), m.intType);
+    }
+
+    @Benchmark
+    public double morph(Morph m) {
+        m.morpher.morph(index(m.calls++));
+        return m.morpher.getMorphRatios()[1];
+    }
+
+    // Reads while two threads rewrite the table
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public double contendedGetFrequency(Contended c, Reader r) {
+        return c.traj.getFrequency(r.calls++ & 127);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public void contendedMorph(Writer w) {
+        w.morpher.morph(index(w.calls++));
+    }
+
+    // Morph grid
+
+    @Benchmark
+    public double gridNearest(Grid g) {
+        g.grid.lookup(index(g.calls++), g.intType, false, g.out);
+        return g.out[1];
+    }
+
+    @Benchmark
+    public double gridBlend(Grid g) {
+        g.grid.lookup(index(g.calls++), g.intType, true, g.out);
+        return g.out[1];
+    }
+
+    // Bulk kernels against one call per table, per table
+
+    @Benchmark
+    @OperationsPerInvocation(TABLES)
+    public void perTable(Bulk b, Blackhole bh) {
+        for (int k = 0; k < TABLES; k++) {
+            bh.consume(TuningTrajectory.makeInterpolatedTuning(b.one, b.other,
+                    b.index[k], b.intType));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TABLES)
+    public double bulkKernel(Bulk b) {
+        if (b.intType == TuningMorpher.EXPONENTIAL) {
+            BulkMorphKernel.morphLog(b.logSrc, b.logDst, b.index, b.out, 
+                    TABLES, b.steps);
+        } else {
+            BulkMorphKernel.morph(b.intType, b.src, b.dst, b.index, b.out, 
+                    TABLES, b.steps);
+        }
+        return b.out[1];
+    }
+
+    /**
+     * Runs the benchmarks with the GC profiler, which reports allocation per
+     * operation. With arguments, runs only the benchmarks matching them, 
+     * e.g. <tt>morph</tt> or <tt>contended</tt>.
+     * 
+     * @param args regular expressions of benchmarks to run
+     * @throws RunnerException if a benchmark fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        ChainedOptionsBuilder opt = new OptionsBuilder()
+                .addProfiler(GCProfiler.class);
+        if (args.length == 0) {
+            opt.include(TuningBenchmark.class.getSimpleName());
+        }
+        for (String arg : args) {
+            opt.include(TuningBenchmark.class.getSimpleName() + "." + arg);
+        }
+        new Runner(opt.build()).run();
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.softsynth.jmsl;
+
+/******************************************************************************
+ * <p>Compilation           : javac JMSL.java</p>
+ * <p>Dependencies          : none</p>
+ *
+ *  <p> Local stand-in for JMSL's clock, so that the benchmarks and tests run
+ *  headless without the JMSL library. Time is in seconds since the class 
+ *  was loaded.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class JMSL {
+
+    private static final long ORIGIN = System.nanoTime();
+
+    private JMSL() {}
+
+    public static double now() {
+        return (System.nanoTime() - ORIGIN) * 1e-9;
+    }
+
+}
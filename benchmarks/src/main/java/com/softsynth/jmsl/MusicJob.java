@@ -0,0 +1,41 @@
+package com.softsynth.jmsl;
+
+/******************************************************************************
+ * <p>Compilation           : javac MusicJob.java</p>
+ * <p>Dependencies          : none</p>
+ *
+ *  <p> Local stand-in for JMSL's MusicJob. It keeps the repeat settings but
+ *  never schedules itself: launch() and finish() do nothing, and subclasses
+ *  are driven by calling repeat() directly.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class MusicJob {
+
+    private int repeats = 1;
+    private double repeatPause;
+
+    public double start(double playTime) throws InterruptedException {
+        return playTime;
+    }
+
+    public double repeat(double playTime) throws InterruptedException {
+        return playTime;
+    }
+
+    public double stop(double playTime) throws InterruptedException {
+        return playTime;
+    }
+
+    public void launch(double time) {}
+
+    public void finish() {}
+
+    public void setRepeats(int repeats) { this.repeats = repeats; }
+    public int getRepeats() { return repeats; }
+    public void setRepeatPause(double pause) { repeatPause = pause; }
+    public double getRepeatPause() { return repeatPause; }
+
+}
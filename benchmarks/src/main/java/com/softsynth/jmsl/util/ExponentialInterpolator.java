@@ -0,0 +1,25 @@
+package com.softsynth.jmsl.util;
+
+/******************************************************************************
+ * <p>Compilation           : javac ExponentialInterpolator.java</p>
+ * <p>Dependencies          : none</p>
+ *
+ *  <p> Local stand-in for JMSL's ExponentialInterpolator, which moves from
+ *  y1 to y2 by a constant ratio per unit of x.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class ExponentialInterpolator extends Interpolator {
+
+    public ExponentialInterpolator(double x1, double y1, double x2, 
+            double y2) {
+        super(x1, y1, x2, y2);
+    }
+
+    public double interp(double x) {
+        return y1 * Math.pow(y2 / y1, fraction(x));
+    }
+
+}
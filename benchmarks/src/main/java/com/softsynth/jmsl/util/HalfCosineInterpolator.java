@@ -0,0 +1,24 @@
+package com.softsynth.jmsl.util;
+
+/******************************************************************************
+ * <p>Compilation           : javac HalfCosineInterpolator.java</p>
+ * <p>Dependencies          : none</p>
+ *
+ *  <p> Local stand-in for JMSL's HalfCosineInterpolator.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class HalfCosineInterpolator extends Interpolator {
+
+    public HalfCosineInterpolator(double x1, double y1, double x2, double y2) {
+        super(x1, y1, x2, y2);
+    }
+
+    public double interp(double x) {
+        double w = 0.5 - 0.5 * Math.cos(Math.PI * fraction(x));
+        return y1 + (y2 - y1) * w;
+    }
+
+}
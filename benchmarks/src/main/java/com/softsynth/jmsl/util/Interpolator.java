@@ -0,0 +1,36 @@
+package com.softsynth.jmsl.util;
+
+/******************************************************************************
+ * <p>Compilation           : javac Interpolator.java</p>
+ * <p>Dependencies          : none</p>
+ *
+ *  <p> Local stand-in for JMSL's Interpolator: maps x1..x2 onto y1..y2 
+ *  along a curve defined by the subclass.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public abstract class Interpolator {
+
+    protected double x1, y1, x2, y2;
+
+    public Interpolator(double x1, double y1, double x2, double y2) {
+        setInterp(x1, y1, x2, y2);
+    }
+
+    public void setInterp(double x1, double y1, double x2, double y2) {
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+    }
+
+    // Position of x between x1 and x2, from 0 to 1
+    protected double fraction(double x) {
+        return (x - x1) / (x2 - x1);
+    }
+
+    public abstract double interp(double x);
+
+}
@@ -0,0 +1,23 @@
+package com.softsynth.jmsl.util;
+
+/******************************************************************************
+ * <p>Compilation           : javac LinearInterpolator.java</p>
+ * <p>Dependencies          : none</p>
+ *
+ *  <p> Local stand-in for JMSL's LinearInterpolator.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class LinearInterpolator extends Interpolator {
+
+    public LinearInterpolator(double x1, double y1, double x2, double y2) {
+        super(x1, y1, x2, y2);
+    }
+
+    public double interp(double x) {
+        return y1 + (y2 - y1) * fraction(x);
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.softsynth.jmsl.util;
+
+/******************************************************************************
+ * <p>Compilation           : javac Tuning.java</p>
+ * <p>Dependencies          : none</p>
+ *
+ *  <p> Local stand-in for JMSL's Tuning.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public abstract class Tuning {
+
+    public abstract double getFrequency(double pitch);
+
+    public abstract double getPitch(double frequency);
+
+}
@@ -0,0 +1,28 @@
+package com.softsynth.jmsl.util;
+
+/******************************************************************************
+ * <p>Compilation           : javac TuningET.java</p>
+ * <p>Dependencies          : none</p>
+ *
+ *  <p> Local stand-in for JMSL's 12-tone equal temperament, with A4 at 
+ *  440 Hz.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class TuningET extends Tuning {
+
+    public static final double MIDDLE_C_PITCH = 60;
+    public static final double MIDDLE_C_FREQ = 440 * Math.pow(2, -9 / 12.0);
+
+    public double getFrequency(double pitch) {
+        return MIDDLE_C_FREQ * Math.pow(2, (pitch - MIDDLE_C_PITCH) / 12);
+    }
+
+    public double getPitch(double frequency) {
+        return MIDDLE_C_PITCH + 12 * Math.log(frequency / MIDDLE_C_FREQ) 
+                / Math.log(2);
+    }
+
+}
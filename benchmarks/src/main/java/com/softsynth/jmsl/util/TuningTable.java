@@ -0,0 +1,61 @@
+package com.softsynth.jmsl.util;
+
+/******************************************************************************
+ * <p>Compilation           : javac TuningTable.java</p>
+ * <p>Dependencies          : none</p>
+ *
+ *  <p> Local stand-in for JMSL's TuningTable: a table of frequencies for 
+ *  one octave above a reference pitch, repeated every octave.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class TuningTable extends Tuning {
+
+    private double[] frequencies;
+    private double referencePitch = TuningET.MIDDLE_C_PITCH;
+
+    public void setFrequencies(double[] frequencies) {
+        this.frequencies = frequencies;
+    }
+
+    public double[] getFrequencies() {
+        return frequencies;
+    }
+
+    public void setReferencePitch(double pitch) {
+        referencePitch = pitch;
+    }
+
+    public double getReferencePitch() {
+        return referencePitch;
+    }
+
+    public double getFrequency(double pitch) {
+        double[] f = frequencies;
+        if (f == null || f.length == 0) {
+            return new TuningET().getFrequency(pitch);
+        }
+        int k = (int) Math.floor(pitch - referencePitch);
+        int octave = Math.floorDiv(k, f.length);
+        return f[k - octave * f.length] * Math.pow(2, octave);
+    }
+
+    public double getPitch(double frequency) {
+        double[] f = frequencies;
+        if (f == null || f.length == 0) {
+            return new TuningET().getPitch(frequency);
+        }
+        double octaves = Math.floor(Math.log(frequency / f[0]) / Math.log(2));
+        double reduced = frequency / Math.pow(2, octaves);
+        int best = 0;
+        for (int i = 1; i < f.length; i++) {
+            if (Math.abs(f[i] - reduced) < Math.abs(f[best] - reduced)) {
+                best = i;
+            }
+        }
+        return referencePitch + octaves * f.length + best;
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.adriantregonning.javamusic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/******************************************************************************
+ * <p>Compilation           : mvn -pl benchmarks test</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.GlideLayer,
+ *                            com.adriantregonning.javamusic.HeadlessSynth</p>
+ *
+ *  <p> Holds notes on a HeadlessSynth, retunes the trajectory under them
+ *  and checks that a GlideLayer moves them to the new table: step by step
+ *  in one batch per tick at control rate, as a single batch of ramps at
+ *  audio rate, and never for a voice that has been released.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class GlideLayerTest {
+
+    private static final int POLYPHONY = 8;
+    private static final double SAMPLE_RATE = 48000;
+
+    // Powers of two, so that the ticks add up to the glide time exactly
+    private static final double TICK = 1.0 / 64;
+    private static final double GLIDE_TIME = 4 * TICK;
+
+    // Voice 0 plays the first degree, which Pythagorean tuning leaves
+    // alone; the others move
+    private static final double[] PITCHES = {60, 64, 67};
+
+    private TuningTrajectory traj;
+    private HeadlessSynth synth;
+
+    private GlideLayer hold() {
+        traj = new TuningTrajectory();
+        traj.setToTuning(TuningTrajectory.Tunings.TWELVE_TET);
+        synth = new HeadlessSynth(POLYPHONY, SAMPLE_RATE);
+        GlideLayer glide = new GlideLayer(traj, synth, POLYPHONY, 1 / TICK);
+        glide.setGlideTime(GLIDE_TIME);
+        for (int v = 0; v < PITCHES.length; v++) {
+            synth.noteOn(v, glide.noteOn(v, PITCHES[v]), 0.1);
+        }
+        return glide;
+    }
+
+    @Test
+    public void controlRateGlidesInOneBatchPerTick() {
+        GlideLayer glide = hold();
+        double[] old = new double[PITCHES.length];
+        for (int v = 0; v < PITCHES.length; v++) {
+            old[v] = synth.getFrequency(v);
+        }
+        traj.setToTuning(TuningTrajectory.Tunings.PYTHAG);
+
+        double[] last = old.clone();
+        for (int t = 1; t <= 4; t++) {
+            glide.tick(TICK);
+            assertEquals(t, synth.getBatchCount());
+            assertEquals(2 * t, synth.getUpdateCount());
+            assertEquals(old[0], synth.getFrequency(0), 0);
+            for (int v = 1; v < PITCHES.length; v++) {
+                double target = traj.lookupFrequency(PITCHES[v]);
+                double f = synth.getFrequency(v);
+                if (t < 4) {
+                    // Strictly between the last step and the target
+                    assertTrue("Voice " + v + " tick " + t,
+                            (f - last[v]) * (target - f) > 0);
+                } else {
+                    assertEquals("Voice " + v, target, f, 0);
+                }
+                last[v] = f;
+            }
+        }
+
+        // Nothing left to glide
+        glide.tick(TICK);
+        assertEquals(4, synth.getBatchCount());
+    }
+
+    @Test
+    public void audioRateSendsOneBatchOfRamps() {
+        GlideLayer glide = hold();
+        glide.setAudioRate(true);
+        double old = synth.getFrequency(1);
+        traj.setToTuning(TuningTrajectory.Tunings.PYTHAG);
+
+        glide.tick(TICK);
+        glide.tick(TICK);
+        assertEquals(1, synth.getBatchCount());
+        assertEquals(2, synth.getUpdateCount());
+        assertEquals(old, synth.getFrequency(1), 0);
+
+        int frames = (int) Math.round(GLIDE_TIME * SAMPLE_RATE);
+        synth.render(new float[frames], frames);
+        for (int v = 0; v < PITCHES.length; v++) {
+            assertEquals("Voice " + v, traj.lookupFrequency(PITCHES[v]),
+                    synth.getFrequency(v), 0);
+        }
+    }
+
+    @Test
+    public void releasedVoicesAreNotRetuned() {
+        GlideLayer glide = hold();
+        glide.setGlideTime(0);
+        double released = synth.getFrequency(1);
+        glide.noteOff(1);
+        synth.noteOff(1);
+        assertEquals(2, glide.getHeldCount());
+        traj.setToTuning(TuningTrajectory.Tunings.PYTHAG);
+
+        glide.tick(TICK);
+        assertEquals(1, synth.getBatchCount());
+        assertEquals(1, synth.getUpdateCount());
+        assertEquals(released, synth.getFrequency(1), 0);
+        assertEquals(traj.lookupFrequency(PITCHES[2]), synth.getFrequency(2),
+                0);
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.adriantregonning.javamusic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/******************************************************************************
+ * <p>Compilation           : mvn -pl benchmarks test</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.MorphRecorder,
+ *                            com.adriantregonning.javamusic.MorphPlayer</p>
+ *
+ *  <p> Records a log long enough to hold several keyframes and many deltas,
+ *  and checks that MorphPlayer restores the table at every record, both by
+ *  seeking and by advancing through the log, including a log whose last
+ *  record was cut short. Also checks that a table too large to record is
+ *  dropped rather than breaking the update that published it.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class MorphRecorderTest {
+
+    private static final int RECORDS = 600;
+    private static final double STEP = 0.01;
+
+    // Record at which the period changes, forcing an early keyframe
+    private static final int PERIOD_CHANGE = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final double[][] tables = new double[RECORDS][];
+    private final double[] periods = new double[RECORDS];
+
+    // Records a table per step, changing one degree at a time
+    private Path record() throws IOException {
+        Path file = folder.newFile("morph.log").toPath();
+        double[] ratios = EqualTemperament.buildRatios(12, 2.0);
+        try (MorphRecorder recorder = new MorphRecorder(file)) {
+            for (int i = 0; i < RECORDS; i++) {
+                int degree = 1 + i % 11;
+                ratios[degree] *= 1 + 1e-5;
+                tables[i] = ratios.clone();
+                periods[i] = i < PERIOD_CHANGE ? 2.0 : 2.01;
+                assertTrue(recorder.record(i * STEP, i / (double) RECORDS,
+                        TuningMorpher.LINEAR, ratios, 12, periods[i]));
+            }
+        }
+        return file;
+    }
+
+    private static void assertTable(String message, double[] expected,
+            double period, TuningTrajectory traj) {
+        double[] actual = new double[expected.length];
+        assertEquals(message, expected.length, traj.copyRatios(actual));
+        assertArrayEquals(message, expected, actual, 0);
+        assertEquals(message, period, traj.getPeriod(), 0);
+    }
+
+    @Test
+    public void seekAndAdvanceRestoreEveryRecord() throws IOException {
+        Path file = record();
+        TuningTrajectory traj = new TuningTrajectory();
+        MorphPlayer player = new MorphPlayer(file, traj);
+        // The first keyframe, one for the period change and at least one
+        // from the keyframe interval
+        assertTrue(player.getKeyframeCount() >= 3);
+        assertEquals((RECORDS - 1) * STEP, player.getDuration(), 1e-6);
+
+        for (int i = RECORDS - 1; i >= 0; i -= 7) {
+            player.seek(i * STEP);
+            assertTable("Seek " + i, tables[i], periods[i], traj);
+            assertEquals(i / (double) RECORDS, player.getMorphIndex(), 0);
+        }
+
+        player.rewind();
+        for (int i = 0; i < RECORDS; i++) {
+            assertTrue(player.advanceTo(i * STEP));
+            assertTable("Advance " + i, tables[i], periods[i], traj);
+        }
+        assertFalse(player.advanceTo(RECORDS * STEP));
+    }
+
+    @Test
+    public void truncatedTailIsIgnored() throws IOException {
+        Path file = record();
+        try (FileChannel ch = FileChannel.open(file,
+                StandardOpenOption.WRITE)) {
+            // Cut the last delta (one degree: 21 bytes) short
+            ch.truncate(ch.size() - 5);
+        }
+        TuningTrajectory traj = new TuningTrajectory();
+        MorphPlayer player = new MorphPlayer(file, traj);
+        assertEquals((RECORDS - 2) * STEP, player.getDuration(), 1e-6);
+
+        player.seek(RECORDS * STEP);
+        assertTable("Seek past end", tables[RECORDS - 2],
+                periods[RECORDS - 2], traj);
+        player.rewind();
+        assertTrue(player.advanceTo(RECORDS * STEP));
+        assertTable("Advance past end", tables[RECORDS - 2],
+                periods[RECORDS - 2], traj);
+    }
+
+    @Test
+    public void oversizedTableIsDropped() throws IOException {
+        Path file = folder.newFile("large.log").toPath();
+        int steps = MorphRecorder.MAX_STEPS + 1;
+        TuningTrajectory traj = new TuningTrajectory();
+        try (MorphRecorder recorder = new MorphRecorder(file)) {
+            traj.setRecorder(recorder);
+            traj.updateTable(EqualTemperament.buildRatios(steps, 2.0));
+            assertEquals(steps, traj.copyRatios(new double[steps]));
+            assertEquals(1, recorder.getDroppedCount());
+
+            // Recording carries on once the table fits again
+            traj.updateTable(EqualTemperament.buildRatios(12, 2.0));
+            assertEquals(1, recorder.getRecordCount());
+        }
+        assertTrue(Files.size(file) > 8);
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.adriantregonning.javamusic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+import org.junit.Test;
+
+/******************************************************************************
+ * <p>Compilation           : mvn -pl benchmarks test</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.MtsEncoder,
+ *                            com.adriantregonning.javamusic.MtsLoopbackReceiver
+ *                            </p>
+ *
+ *  <p> Sends tunings through MtsEncoder to an MtsLoopbackReceiver and checks
+ *  what arrives: a bulk dump reproduces every note to the resolution of
+ *  MTS, single note changes carry only the notes that moved, and notes
+ *  rejected by a receiver are sent again on the next call.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class MtsEncoderTest {
+
+    // Resolution of an MTS tuning, in cents
+    private static final double RESOLUTION = 100.0 / 16384;
+
+    // Largest tuning MTS can carry, one short of "no change"
+    private static final int MAX_TUNING = 0x1FFFFE;
+
+    private static double cents(double a, double b) {
+        return 1200 * Math.log(a / b) / Math.log(2);
+    }
+
+    private static TuningTrajectory twelveTet() {
+        TuningTrajectory traj = new TuningTrajectory();
+        traj.setToTuning(TuningTrajectory.Tunings.TWELVE_TET);
+        return traj;
+    }
+
+    @Test
+    public void bulkDumpRoundTrips() throws InvalidMidiDataException {
+        TuningTrajectory traj = new TuningTrajectory();
+        traj.setToTuning(TuningTrajectory.Tunings.PYTHAG);
+        // Raise the table 3.5 semitones, so that notes 125 upwards lie
+        // above the range of MTS
+        traj.setReference(TuningTrajectory.Tunings.refFreq
+                * Math.pow(2, 3.5 / 12), TuningTrajectory.Tunings.refPitch);
+        MtsEncoder encoder = new MtsEncoder(traj, MtsEncoder.ALL_DEVICES, 0);
+        MtsLoopbackReceiver receiver =
+                new MtsLoopbackReceiver(MtsEncoder.ALL_DEVICES, 0);
+        encoder.send(receiver, "Pythagorean");
+
+        assertEquals(1, receiver.getMessageCount());
+        assertEquals(MtsEncoder.BULK_DUMP_LENGTH, receiver.getByteCount());
+        assertEquals(0, receiver.getRejectedCount());
+        for (int n = 0; n < 125; n++) {
+            assertEquals("Note " + n, 0, cents(receiver.getFrequency(n),
+                    traj.lookupFrequency(n)), RESOLUTION);
+        }
+        assertNotEquals(MAX_TUNING,
+                MtsEncoder.encode(traj.lookupFrequency(124)));
+        for (int n = 125; n < MtsEncoder.NOTES; n++) {
+            assertEquals("Note " + n, MAX_TUNING,
+                    MtsEncoder.encode(traj.lookupFrequency(n)));
+            assertEquals("Note " + n, MtsEncoder.decode(MAX_TUNING),
+                    receiver.getFrequency(n), 0);
+        }
+    }
+
+    @Test
+    public void changesCarryOnlyMovedNotes() throws InvalidMidiDataException {
+        TuningTrajectory traj = twelveTet();
+        MtsEncoder encoder = new MtsEncoder(traj, MtsEncoder.ALL_DEVICES, 0);
+        MtsLoopbackReceiver receiver =
+                new MtsLoopbackReceiver(MtsEncoder.ALL_DEVICES, 0);
+        encoder.send(receiver, "12-TET");
+        assertEquals(0, encoder.sendChanges(receiver));
+        assertEquals(1, receiver.getMessageCount());
+
+        double[] before = new double[MtsEncoder.NOTES];
+        for (int n = 0; n < MtsEncoder.NOTES; n++) {
+            before[n] = traj.lookupFrequency(n);
+        }
+        TuningMorpher morpher = new TuningMorpher(traj, 12);
+        morpher.setSource(TuningTrajectory.Tunings.TWELVE_TET.ratios());
+        morpher.setDestination(TuningTrajectory.Tunings.PYTHAG.ratios());
+        morpher.morph(1.0);
+
+        int moved = 0;
+        for (int n = 0; n < MtsEncoder.NOTES; n++) {
+            if (Math.abs(cents(traj.lookupFrequency(n), before[n]))
+                    > encoder.getThreshold()) {
+                moved++;
+            }
+        }
+        // Every degree but the first moves by more than a cent
+        assertEquals(MtsEncoder.NOTES - 11, moved);
+        assertEquals(moved, encoder.sendChanges(receiver));
+        for (int n = 0; n < MtsEncoder.NOTES; n++) {
+            assertEquals("Note " + n, 0, cents(receiver.getFrequency(n),
+                    traj.lookupFrequency(n)), RESOLUTION);
+        }
+        assertEquals(0, encoder.sendChanges(receiver));
+    }
+
+    @Test
+    public void rejectedNotesStayPending() throws InvalidMidiDataException {
+        TuningTrajectory traj = twelveTet();
+        MtsEncoder encoder = new MtsEncoder(traj, MtsEncoder.ALL_DEVICES, 0);
+        final MtsLoopbackReceiver receiver =
+                new MtsLoopbackReceiver(MtsEncoder.ALL_DEVICES, 0);
+        encoder.send(receiver, "12-TET");
+
+        // Accepts the first message of each call, then fails, as a
+        // receiver closed part way through would
+        Receiver failing = new Receiver() {
+            private int calls;
+
+            @Override
+            public void send(MidiMessage message, long timeStamp) {
+                if (calls++ > 0) {
+                    throw new IllegalStateException("Receiver closed");
+                }
+                receiver.send(message, timeStamp);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        // Raising every degree moves all 128 notes, which takes two messages
+        double[] ratios = TuningTrajectory.Tunings.TWELVE_TET.ratios().clone();
+        for (int i = 0; i < ratios.length; i++) {
+            ratios[i] *= Math.pow(2, 10 / 1200.0);
+        }
+        traj.setTable(ratios);
+        try {
+            encoder.sendChanges(failing);
+            fail("Expected the receiver to fail");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals(MtsEncoder.NOTES, encoder.sendChanges(receiver));
+        for (int n = 0; n < MtsEncoder.NOTES; n++) {
+            assertEquals("Note " + n, 0, cents(receiver.getFrequency(n),
+                    traj.lookupFrequency(n)), RESOLUTION);
+        }
+        assertEquals(0, encoder.sendChanges(receiver));
+    }
+
+}
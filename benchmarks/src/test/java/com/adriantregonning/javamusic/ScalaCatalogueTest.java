@@ -0,0 +1,79 @@
+package com.adriantregonning.javamusic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/******************************************************************************
+ * <p>Compilation           : mvn -pl benchmarks test</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.ScalaCatalogue,
+ *                            com.adriantregonning.javamusic.ScalaScale</p>
+ *
+ *  <p> Builds a catalogue from a directory of <tt>.scl</tt> files, one of
+ *  them malformed, and checks the memory-mapped catalogue against the
+ *  parsed scales: names in sorted order, lookup by name, and each scale's
+ *  steps, period and ratios.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class ScalaCatalogueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void write(Path dir, String name, String scl) throws IOException {
+        Files.write(dir.resolve(name), scl.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void buildsAndReadsCatalogue() throws IOException {
+        Path dir = folder.newFolder("scl").toPath();
+        write(dir, "pyth_5.scl", "Pythagorean pentatonic\n5\n9/8\n81/64\n"
+                + "3/2\n27/16\n2/1\n");
+        write(dir, "bp.scl", "Bohlen-Pierce\n13\n27/25\n25/21\n9/7\n7/5\n"
+                + "75/49\n5/3\n9/5\n49/25\n15/7\n7/3\n63/25\n25/9\n3/1\n");
+        write(dir, "et_1.scl", "One note\n1\n1200.0\n");
+        write(dir, "broken.scl", "Broken\n2\n9/8\n0/1\n");
+        write(dir, "ignored.txt", "Not a scale\n");
+
+        Path file = folder.getRoot().toPath().resolve("scales.cat");
+        assertEquals(3, ScalaCatalogue.build(dir, file));
+        ScalaCatalogue cat = ScalaCatalogue.open(file);
+        assertEquals(3, cat.size());
+        assertArrayEquals(new String[] {"bp", "et_1", "pyth_5"},
+                cat.getNames());
+        assertTrue(cat.find("broken") < 0);
+
+        int bp = cat.find("bp");
+        assertEquals(13, cat.getSteps(bp));
+        assertEquals(3.0, cat.getPeriod(bp), 0);
+        double[] ratios = new double[13];
+        cat.getRatios(bp, ratios);
+        assertEquals(1.0, ratios[0], 0);
+        assertEquals(27 / 25.0, ratios[1], 0);
+        assertEquals(63 / 25.0, ratios[11], 0);
+        assertEquals(25 / 9.0, ratios[12], 0);
+
+        ScalaScale pyth = cat.getScale(cat.find("pyth_5"));
+        assertEquals("pyth_5", pyth.getDescription());
+        assertArrayEquals(new double[] {1, 9 / 8.0, 81 / 64.0, 1.5,
+                27 / 16.0}, pyth.getRatios(), 0);
+        assertEquals(2.0, pyth.getPeriod(), 0);
+
+        ScalaScale one = cat.getScale(cat.find("et_1"));
+        assertArrayEquals(new double[] {1}, one.getRatios(), 0);
+        assertEquals(2.0, one.getPeriod(), 1e-15);
+    }
+
+}
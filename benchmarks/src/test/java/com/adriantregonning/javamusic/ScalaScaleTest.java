@@ -0,0 +1,113 @@
+package com.adriantregonning.javamusic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+/******************************************************************************
+ * <p>Compilation           : mvn -pl benchmarks test</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.ScalaScale</p>
+ *
+ *  <p> Parses Scala scale and keyboard mapping data: pitches in cents, as
+ *  ratios and as plain integers, comments, malformed pitches and periods,
+ *  and a scale and reference applied to a trajectory in one update.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class ScalaScaleTest {
+
+    private static ScalaScale read(String scl) throws IOException {
+        return ScalaScale.readScl(new StringReader(scl));
+    }
+
+    private static void assertRejected(String scl) {
+        try {
+            read(scl);
+            fail("Expected the scale to be rejected:\n" + scl);
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void parsesPitches() {
+        assertEquals(1.5, ScalaScale.parsePitch("3/2"), 0);
+        assertEquals(2.0, ScalaScale.parsePitch("2"), 0);
+        assertEquals(Math.pow(2, 0.5), ScalaScale.parsePitch("600.0"), 1e-15);
+        assertEquals(Math.pow(2, -1 / 12.0), ScalaScale.parsePitch("-100."),
+                1e-15);
+        String[] invalid = {"0", "-3", "0/1", "3/0", "-3/2", "Infinity",
+                "NaN", "x"};
+        for (String token : invalid) {
+            try {
+                ScalaScale.parsePitch(token);
+                fail("Expected " + token + " to be rejected");
+            } catch (NumberFormatException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void readsScl() throws IOException {
+        ScalaScale scale = read("! pentatonic.scl\n"
+                + "!\n"
+                + " Just pentatonic \n"
+                + " 5\n"
+                + "!\n"
+                + " 9/8\n"
+                + " 5/4 major third\n"
+                + " 701.955\n"
+                + " 5/3\n"
+                + " 2\n");
+        assertEquals("Just pentatonic", scale.getDescription());
+        assertEquals(5, scale.getSteps());
+        assertArrayEquals(new double[] {1, 9 / 8.0, 5 / 4.0,
+                Math.pow(2, 701.955 / 1200), 5 / 3.0}, scale.getRatios(),
+                1e-15);
+        assertEquals(2.0, scale.getPeriod(), 0);
+
+        ScalaScale tritave = read("Bohlen-Pierce\n1\n3/1\n");
+        assertEquals(1, tritave.getSteps());
+        assertEquals(3.0, tritave.getPeriod(), 0);
+    }
+
+    @Test
+    public void rejectsMalformedScl() {
+        assertRejected("");
+        assertRejected("Empty\n0\n");
+        assertRejected("Short\n3\n9/8\n5/4\n");
+        assertRejected("Zero degree\n2\n0\n2\n");
+        assertRejected("Negative degree\n2\n-3\n2\n");
+        assertRejected("Unison period\n2\n9/8\n1/1\n");
+        assertRejected("Falling period\n2\n9/8\n-1200.0\n");
+    }
+
+    @Test
+    public void appliesScaleAndReferenceTogether() throws IOException {
+        ScalaScale scale = read("Major third\n2\n5/4\n2/1\n");
+        // The reference note, two keys (one period) above the middle note,
+        // is 440 Hz
+        scale.readKbm(new StringReader("! A 440\n"
+                + "0\n0\n127\n60\n62\n440.0\n2.0\n"));
+        assertEquals(60, scale.getReferencePitch(), 0);
+        assertEquals(220, scale.getReferenceFrequency(), 1e-12);
+
+        TuningTrajectory traj = new TuningTrajectory();
+        traj.setToTuning(TuningTrajectory.Tunings.TWELVE_TET);
+        int version = traj.getVersion();
+        scale.applyTo(traj);
+        assertEquals(version + 1, traj.getVersion());
+        assertEquals(220, traj.lookupFrequency(60), 1e-12);
+        assertEquals(275, traj.lookupFrequency(61), 1e-12);
+        assertEquals(440, traj.lookupFrequency(62), 1e-12);
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.adriantregonning.javamusic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/******************************************************************************
+ * <p>Compilation           : mvn -pl benchmarks test</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.SharedTuningSegment,
+ *                            com.adriantregonning.javamusic.TuningTrajectory
+ *                            </p>
+ *
+ *  <p> Maps one file as both the writer and a reader of a shared tuning
+ *  segment, as two processes would, and checks that a follower trajectory
+ *  picks up whole tables, single-degree edits and reference changes, each
+ *  in one update, and that a new writer recovers a segment left mid-write
+ *  by one that stopped.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class SharedTuningSegmentTest {
+
+    private static final int CAPACITY = 64;
+
+    // Offset of the sequence counter in the segment header
+    private static final int SEQ_OFFSET = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private TuningTrajectory writerTraj;
+    private SharedTuningSegment reader;
+    private TuningTrajectory readerTraj;
+
+    @Before
+    public void attach() throws IOException {
+        file = folder.getRoot().toPath().resolve("tuning.seg");
+        writerTraj = new TuningTrajectory();
+        writerTraj.setToTuning(TuningTrajectory.Tunings.TWELVE_TET);
+        writerTraj.setSharedSegment(
+                SharedTuningSegment.create(file, CAPACITY));
+        reader = SharedTuningSegment.open(file);
+        readerTraj = new TuningTrajectory();
+    }
+
+    private void assertFollows() {
+        double[] expected = new double[CAPACITY];
+        double[] actual = new double[CAPACITY];
+        int n = writerTraj.copyRatios(expected);
+        assertEquals(n, readerTraj.copyRatios(actual));
+        assertArrayEquals(expected, actual, 0);
+        assertEquals(writerTraj.getPeriod(), readerTraj.getPeriod(), 0);
+        for (int p = 0; p < 128; p++) {
+            assertEquals("Pitch " + p, writerTraj.lookupFrequency(p),
+                    readerTraj.lookupFrequency(p), 0);
+        }
+    }
+
+    // Syncs the reader, checking that the follower published exactly once
+    private void assertSyncs() {
+        int version = readerTraj.getVersion();
+        assertTrue(reader.sync(readerTraj));
+        assertEquals(version + 1, readerTraj.getVersion());
+        assertFollows();
+        assertFalse(reader.sync(readerTraj));
+    }
+
+    @Test
+    public void followsTablesDegreesAndReference() {
+        assertSyncs();
+
+        writerTraj.setToTuning(TuningTrajectory.Tunings.PYTHAG);
+        assertSyncs();
+
+        writerTraj.setTable(EqualTemperament.buildRatios(13, 3.0), 3.0);
+        assertSyncs();
+        assertEquals(13, reader.getSteps());
+
+        long version = reader.getVersion();
+        writerTraj.setDegree(4, writerTraj.getRatios()[4] * 1.01);
+        assertEquals(version + 1, reader.getVersion());
+        assertSyncs();
+
+        writerTraj.setReference(440, 69);
+        assertSyncs();
+        assertEquals(440, reader.getRefFreq(), 0);
+        assertEquals(69, reader.getRefPitch(), 0);
+        assertEquals(440, readerTraj.lookupFrequency(69), 1e-12);
+    }
+
+    @Test
+    public void createRecoversFromStoppedWriter() throws IOException {
+        assertSyncs();
+        writerTraj.setSharedSegment(null);
+
+        // Leave the counter odd, as a writer that stopped mid-write would
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0,
+                    ch.size());
+            buf.order(ByteOrder.nativeOrder());
+            buf.putLong(SEQ_OFFSET, buf.getLong(SEQ_OFFSET) + 1);
+        }
+        writerTraj.setToTuning(TuningTrajectory.Tunings.PYTHAG);
+        assertEquals(0, reader.read(new double[CAPACITY]));
+        assertFalse(reader.sync(readerTraj));
+
+        // A new writer withdraws the torn table, keeping the version
+        long version = reader.getVersion();
+        SharedTuningSegment segment = SharedTuningSegment.create(file,
+                CAPACITY);
+        assertEquals(version + 1, reader.getVersion());
+        assertEquals(0, reader.read(new double[CAPACITY]));
+
+        writerTraj.setSharedSegment(segment);
+        assertSyncs();
+    }
+
+}
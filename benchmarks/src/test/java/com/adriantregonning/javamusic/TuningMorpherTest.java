@@ -0,0 +1,111 @@
+package com.adriantregonning.javamusic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/******************************************************************************
+ * <p>Compilation           : mvn -pl benchmarks test</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningMorpher</p>
+ *
+ *  <p> Checks that TuningMorpher.morph() reaches both ends of a morph and 
+ *  does not allocate once the trajectory's buffers exist, counting the 
+ *  bytes the test thread allocates over many calls.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class TuningMorpherTest {
+
+    private static final int WARMUP = 20000;
+    private static final int CALLS = 100000;
+    
+    // Allowance for a stray allocation outside the morph, e.g. by the JIT
+    private static final long SLACK_BYTES = 1024;
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeClass
+    public static void enableAllocationCounting() {
+        java.lang.management.ThreadMXBean bean = 
+                ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean b = 
+                    (com.sun.management.ThreadMXBean) bean;
+            if (b.isThreadAllocatedMemorySupported()) {
+                b.setThreadAllocatedMemoryEnabled(true);
+                threads = b;
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static TuningMorpher morpher(int steps, int intType, 
+            double destPeriod) {
+        TuningMorpher m = new TuningMorpher(new TuningTrajectory(), steps);
+        m.setSource(EqualTemperament.buildRatios(steps, 2.0));
+        m.setDestination(EqualTemperament.buildRatios(steps, destPeriod), 
+                destPeriod);
+        m.setInterpolationType(intType);
+        return m;
+    }
+
+    // Bytes allocated per call to morph(), after warming up. The number of
+    // calls falls with the size of the scale to keep the work constant.
+    private static double bytesPerMorph(TuningMorpher m) {
+        int calls = Math.max(1000, CALLS * 12 / m.getSteps());
+        for (int i = 0; i < WARMUP; i++) {
+            m.morph((i & 1023) / 1023.0);
+        }
+        long before = allocatedBytes();
+        for (int i = 0; i < calls; i++) {
+            m.morph((i & 1023) / 1023.0);
+        }
+        long bytes = allocatedBytes() - before;
+        return bytes <= SLACK_BYTES ? 0 : (double) bytes / calls;
+    }
+
+    @Test
+    public void morphReachesSourceAndDestination() {
+        double[] src = TuningTrajectory.Tunings.TWELVE_TET.ratios();
+        double[] dst = TuningTrajectory.Tunings.PYTHAG.ratios();
+        for (int t = 0; t < 3; t++) {
+            TuningMorpher m = new TuningMorpher(new TuningTrajectory(), 12);
+            m.setSource(src);
+            m.setDestination(dst);
+            m.setInterpolationType(t);
+            m.morph(0);
+            assertArrayEquals(src, m.getTrajectory().getRatios(), 1e-12);
+            m.morph(1);
+            assertArrayEquals(dst, m.getTrajectory().getRatios(), 1e-12);
+        }
+        TuningMorpher m = morpher(12, TuningMorpher.EXPONENTIAL, 3.0);
+        m.morph(1);
+        assertArrayEquals(EqualTemperament.buildRatios(12, 3.0), 
+                m.getMorphRatios(), 1e-12);
+        assertEquals(3.0, m.getMorphPeriod(), 1e-12);
+    }
+
+    @Test
+    public void morphDoesNotAllocate() {
+        assumeTrue("allocation counting not supported", threads != null);
+        for (int steps : new int[] {12, 1200}) {
+            for (int t = 0; t < 3; t++) {
+                assertEquals(steps + " degrees, type " + t, 0, 
+                        bytesPerMorph(morpher(steps, t, 2.0)), 0);
+                assertEquals(steps + " degrees, type " + t + ", period 3", 0, 
+                        bytesPerMorph(morpher(steps, t, 3.0)), 0);
+            }
+        }
+    }
+
+}
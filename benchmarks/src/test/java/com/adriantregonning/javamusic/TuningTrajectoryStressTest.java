@@ -0,0 +1,150 @@
+package com.adriantregonning.javamusic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/******************************************************************************
+ * <p>Compilation           : mvn -pl benchmarks test</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.TuningTrajectory,
+ *                            com.adriantregonning.javamusic.TuningSnapshot
+ *                            </p>
+ *
+ *  <p> Checks that lock-free readers of a TuningTrajectory never see a torn
+ *  table. Writer threads keep publishing tables that are each 12-TET 
+ *  scaled by one of a few factors, so a consistent table has the same 
+ *  factor on every degree, while reader threads copy the ratios and look 
+ *  up whole and fractional pitches, comparing every result against the 
+ *  tables that could have been published.</p>
+ *  
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class TuningTrajectoryStressTest {
+
+    private static final int STEPS = 12;
+    private static final int TABLES = 8;
+    private static final int WRITERS = 2;
+    private static final int READERS = 2;
+    private static final long RUN_MILLIS = 1000;
+
+    private final double[][] tables = new double[TABLES][STEPS];
+    
+    // Frequency of each pitch 0..127, and of each pitch plus a half, in 
+    // each table
+    private final double[][] whole = new double[TABLES][128];
+    private final double[][] half = new double[TABLES][128];
+
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong torn = new AtomicLong();
+    private volatile String firstTear;
+
+    public TuningTrajectoryStressTest() {
+        double[] base = EqualTemperament.buildRatios(STEPS, 2.0);
+        for (int k = 0; k < TABLES; k++) {
+            TuningTrajectory reference = new TuningTrajectory();
+            for (int i = 0; i < STEPS; i++) {
+                tables[k][i] = base[i] * (1 + k / 16.0);
+            }
+            reference.updateTable(tables[k]);
+            for (int p = 0; p < 128; p++) {
+                whole[k][p] = reference.lookupFrequency(p);
+                half[k][p] = reference.lookupFrequency(p + 0.5);
+            }
+        }
+    }
+
+    private void tear(String what) {
+        if (torn.getAndIncrement() == 0) {
+            firstTear = what;
+        }
+    }
+
+    // True if a value is in column p of one of the tables
+    private static boolean isPublished(double[][] values, int p, double v) {
+        for (int k = 0; k < TABLES; k++) {
+            if (values[k][p] == v) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Thread writer(final TuningTrajectory traj, final int stride) {
+        return new Thread(new Runnable() {
+            public void run() {
+                long n = 0;
+                while (running.get()) {
+                    traj.updateTable(tables[(int) (n * stride % TABLES)]);
+                    n++;
+                }
+                writes.addAndGet(n);
+            }
+        });
+    }
+
+    private Thread reader(final TuningTrajectory traj) {
+        return new Thread(new Runnable() {
+            public void run() {
+                double[] out = new double[STEPS];
+                long n = 0;
+                while (running.get()) {
+                    int p = (int) (n & 127);
+                    double f = traj.lookupFrequency(p);
+                    if (!isPublished(whole, p, f)) {
+                        tear("pitch " + p + ": " + f);
+                    }
+                    f = traj.lookupFrequency(p + 0.5);
+                    if (!isPublished(half, p, f)) {
+                        tear("pitch " + (p + 0.5) + ": " + f);
+                    }
+                    traj.copyRatios(out);
+                    int k = (int) Math.round((out[0] - 1) * 16);
+                    for (int i = 0; i < STEPS; i++) {
+                        if (k < 0 || k >= TABLES || out[i] != tables[k][i]) {
+                            tear("ratios of table " + k + " at degree " + i);
+                            break;
+                        }
+                    }
+                    n++;
+                }
+                reads.addAndGet(n);
+            }
+        });
+    }
+
+    @Test
+    public void readersNeverSeeTornTables() throws InterruptedException {
+        TuningTrajectory traj = new TuningTrajectory();
+        traj.updateTable(tables[0]);
+        Thread[] threads = new Thread[WRITERS + READERS];
+        for (int w = 0; w < WRITERS; w++) {
+            // Odd strides, so the writers publish every table in different
+            // orders
+            threads[w] = writer(traj, 2 * w + 1);
+        }
+        for (int r = 0; r < READERS; r++) {
+            threads[WRITERS + r] = reader(traj);
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        Thread.sleep(RUN_MILLIS);
+        running.set(false);
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue("no writes", writes.get() > 0);
+        assertTrue("no reads", reads.get() > 0);
+        assertEquals("torn reads out of " + reads.get() + ", first " 
+                + firstTear, 0, torn.get());
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.adriantregonning.javamusic;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/******************************************************************************
+ * <p>Compilation           : mvn -Pvector -pl benchmarks package</p>
+ * <p>Execution             : java --add-modules jdk.incubator.vector
+ *                            -jar benchmarks/target/benchmarks.jar
+ *                            VectorKernelBenchmark</p>
+ * <p>Dependencies          : org.openjdk.jmh, jdk.incubator.vector</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.BulkMorphKernel,
+ *                            com.adriantregonning.javamusic.VectorMorphKernel
+ *                            </p>
+ *
+ *  <p> Compares the Vector API kernels with the scalar bulk kernels on the
+ *  same tables as TuningBenchmark.bulkKernel: 1,024 pairs of 12-degree
+ *  tables, reported per table. Exponential morphs go through morphLog(),
+ *  as in TuningBenchmark; <tt>exponential</tt> also times both kernels on
+ *  plain ratios. Both kernels are checked to agree before timing.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class VectorKernelBenchmark {
+
+    private static final int TABLES = 1024;
+    private static final int STEPS = 12;
+
+    @State(Scope.Thread)
+    public static class Tables {
+        @Param({"0", "1", "2"})
+        int intType;
+
+        double[] src = new double[TABLES * STEPS];
+        double[] dst = new double[TABLES * STEPS];
+        double[] logSrc = new double[TABLES * STEPS];
+        double[] logDst = new double[TABLES * STEPS];
+        double[] index = new double[TABLES];
+        double[] out = new double[TABLES * STEPS];
+
+        @Setup
+        public void setUp() {
+            double[] one = TuningTrajectory.Tunings.TWELVE_TET.ratios();
+            double[] other = TuningTrajectory.Tunings.PTOLEMY.ratios();
+            for (int k = 0; k < TABLES; k++) {
+                System.arraycopy(one, 0, src, k * STEPS, STEPS);
+                System.arraycopy(other, 0, dst, k * STEPS, STEPS);
+                index[k] = (double) k / TABLES;
+            }
+            BulkMorphKernel.toLog(src, logSrc, src.length);
+            BulkMorphKernel.toLog(dst, logDst, dst.length);
+
+            // The vector kernels must agree with the scalar ones
+            double[] expected = new double[out.length];
+            runScalar(this);
+            System.arraycopy(out, 0, expected, 0, out.length);
+            runVector(this);
+            for (int i = 0; i < out.length; i++) {
+                if (Math.abs(out[i] - expected[i]) > 1e-12 * expected[i]) {
+                    throw new IllegalStateException("Kernels disagree at "
+                            + i + ": " + out[i] + " != " + expected[i]);
+                }
+            }
+        }
+    }
+
+    private static double runScalar(Tables t) {
+        if (t.intType == TuningMorpher.EXPONENTIAL) {
+            BulkMorphKernel.morphLog(t.logSrc, t.logDst, t.index, t.out,
+                    TABLES, STEPS);
+        } else {
+            BulkMorphKernel.morph(t.intType, t.src, t.dst, t.index, t.out,
+                    TABLES, STEPS);
+        }
+        return t.out[1];
+    }
+
+    private static double runVector(Tables t) {
+        if (t.intType == TuningMorpher.EXPONENTIAL) {
+            VectorMorphKernel.morphLog(t.logSrc, t.logDst, t.index, t.out,
+                    TABLES, STEPS);
+        } else {
+            VectorMorphKernel.morph(t.intType, t.src, t.dst, t.index, t.out,
+                    TABLES, STEPS);
+        }
+        return t.out[1];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TABLES)
+    public double scalar(Tables t) {
+        return runScalar(t);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TABLES)
+    public double vector(Tables t) {
+        return runVector(t);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TABLES)
+    public double scalarExponential(Tables t) {
+        BulkMorphKernel.exponential(t.src, t.dst, t.index, t.out, TABLES,
+                STEPS);
+        return t.out[1];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TABLES)
+    public double vectorExponential(Tables t) {
+        VectorMorphKernel.exponential(t.src, t.dst, t.index, t.out, TABLES,
+                STEPS);
+        return t.out[1];
+    }
+
+}
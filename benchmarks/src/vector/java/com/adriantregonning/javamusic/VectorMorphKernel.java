@@ -0,0 +1,175 @@
+package com.adriantregonning.javamusic;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/******************************************************************************
+ * <p>Compilation           : mvn -Pvector -pl benchmarks package</p>
+ * <p>Dependencies          : jdk.incubator.vector (JDK 17 or later)</p>
+ * <p>Associated classes    : com.adriantregonning.javamusic.BulkMorphKernel
+ *                            </p>
+ *
+ *  <p> The BulkMorphKernel kernels written with the incubating Vector API,
+ *  to measure against the scalar loops that HotSpot vectorises itself (see
+ *  VectorKernelBenchmark). Same layout and arguments: flat tables, one
+ *  morph index per table. Each table is blended a vector at a time with a
+ *  scalar tail, since a table of 12 degrees does not fill a whole number
+ *  of vectors on most machines. morphLog() exponentiates with the Vector
+ *  API's EXP, which uses vector maths intrinsics where the JVM has them.
+ *  </p>
+ *
+ *  <p>Only built by the <tt>vector</tt> Maven profile, which compiles and
+ *  runs with <tt>--add-modules jdk.incubator.vector</tt>; the rest of the
+ *  tree stays on Java 11.</p>
+ *
+ *  @author Adrian Tregonning
+ *  @version 1.0
+ *
+ *****************************************************************************/
+public class VectorMorphKernel {
+
+    private static final VectorSpecies<Double> SPECIES =
+            DoubleVector.SPECIES_PREFERRED;
+
+    private VectorMorphKernel() {}
+
+    /**
+     * Morphs tables using the given interpolation type, as
+     * BulkMorphKernel.morph().
+     *
+     * @param intType TuningMorpher.LINEAR, HALF_COSINE or EXPONENTIAL
+     * @param src     source tables, flat
+     * @param dst     destination tables, flat
+     * @param index   morph index per table
+     * @param out     output tables, flat (ratios)
+     * @param tables  number of tables
+     * @param steps   number of degrees per table
+     */
+    public static void morph(int intType, double[] src, double[] dst,
+            double[] index, double[] out, int tables, int steps) {
+        switch (intType) {
+        case TuningMorpher.LINEAR:
+            linear(src, dst, index, out, tables, steps);
+            break;
+        case TuningMorpher.HALF_COSINE:
+            halfCosine(src, dst, index, out, tables, steps);
+            break;
+        case TuningMorpher.EXPONENTIAL:
+            exponential(src, dst, index, out, tables, steps);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown interpolation type "
+                    + intType);
+        }
+    }
+
+    // Blends one table with a fixed weight, a vector at a time
+    private static void blend(double[] src, double[] dst, double[] out,
+            int from, int to, double w) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound;
+                i += SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, src, i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, dst, i);
+            b.sub(a).mul(w).add(a).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            out[i] = src[i] + (dst[i] - src[i]) * w;
+        }
+    }
+
+    /**
+     * Linear interpolation, as BulkMorphKernel.linear().
+     *
+     * @param src    source tables, flat
+     * @param dst    destination tables, flat
+     * @param index  morph index per table
+     * @param out    output tables, flat
+     * @param tables number of tables
+     * @param steps  number of degrees per table
+     */
+    public static void linear(double[] src, double[] dst, double[] index,
+            double[] out, int tables, int steps) {
+        for (int k = 0, base = 0; k < tables; k++, base += steps) {
+            blend(src, dst, out, base, base + steps, index[k]);
+        }
+    }
+
+    /**
+     * Half-cosine interpolation, as BulkMorphKernel.halfCosine().
+     *
+     * @param src    source tables, flat
+     * @param dst    destination tables, flat
+     * @param index  morph index per table
+     * @param out    output tables, flat
+     * @param tables number of tables
+     * @param steps  number of degrees per table
+     */
+    public static void halfCosine(double[] src, double[] dst, double[] index,
+            double[] out, int tables, int steps) {
+        for (int k = 0, base = 0; k < tables; k++, base += steps) {
+            double w = 0.5 - 0.5 * Math.cos(Math.PI * index[k]);
+            blend(src, dst, out, base, base + steps, w);
+        }
+    }
+
+    /**
+     * Exponential interpolation, as BulkMorphKernel.exponential().
+     *
+     * @param src    source tables, flat
+     * @param dst    destination tables, flat
+     * @param index  morph index per table
+     * @param out    output tables, flat
+     * @param tables number of tables
+     * @param steps  number of degrees per table
+     */
+    public static void exponential(double[] src, double[] dst,
+            double[] index, double[] out, int tables, int steps) {
+        for (int k = 0, base = 0; k < tables; k++, base += steps) {
+            double w = index[k];
+            int to = base + steps;
+            int i = base;
+            for (int bound = base + SPECIES.loopBound(steps); i < bound;
+                    i += SPECIES.length()) {
+                DoubleVector a = DoubleVector.fromArray(SPECIES, src, i);
+                DoubleVector b = DoubleVector.fromArray(SPECIES, dst, i);
+                b.div(a).lanewise(VectorOperators.LOG).mul(w)
+                        .lanewise(VectorOperators.EXP).mul(a)
+                        .intoArray(out, i);
+            }
+            for (; i < to; i++) {
+                out[i] = src[i] * Math.exp(w * Math.log(dst[i] / src[i]));
+            }
+        }
+    }
+
+    /**
+     * Exponential interpolation of log-ratio tables, as
+     * BulkMorphKernel.morphLog().
+     *
+     * @param logSrc source tables as natural log-ratios, flat
+     * @param logDst destination tables as natural log-ratios, flat
+     * @param index  morph index per table
+     * @param out    output tables, flat (ratios)
+     * @param tables number of tables
+     * @param steps  number of degrees per table
+     */
+    public static void morphLog(double[] logSrc, double[] logDst,
+            double[] index, double[] out, int tables, int steps) {
+        for (int k = 0, base = 0; k < tables; k++, base += steps) {
+            blend(logSrc, logDst, out, base, base + steps, index[k]);
+        }
+        int n = tables * steps;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound;
+                i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, out, i)
+                    .lanewise(VectorOperators.EXP).intoArray(out, i);
+        }
+        for (; i < n; i++) {
+            out[i] = Math.exp(out[i]);
+        }
+    }
+
+}